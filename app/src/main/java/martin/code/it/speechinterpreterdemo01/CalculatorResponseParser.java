@@ -18,11 +18,10 @@ package martin.code.it.speechinterpreterdemo01;
 import android.content.Context;
 import android.util.Log;
 
-import com.fathzer.soft.javaluator.DoubleEvaluator;
-
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 
 import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
 import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
@@ -51,34 +50,27 @@ public class CalculatorResponseParser extends BaseResponseParser {
     @Override
     protected boolean processResponse() throws EmptyMessageSetException, NullRuleException {
         //super.processResponse();
-        String operator = null;
         try {
-            operator = getResultFromMsgGroupName(OPERATOR);
-
-            operator = operator.replaceAll("by", "");
-            operator = operator.trim();
-            operator = operator.replaceAll("plus|addition|sum", "+");
-            operator = operator.replaceAll("minus|subtraction", "-");
-            operator = operator.replaceAll("divided|division", "/");
-            operator = operator.replaceAll("multiplied|multiplication|product", "*");
             String first = getResultFromMsgGroupName(FIRST);
-            first = first.replaceAll(",", ".");
+            String operator = getResultFromMsgGroupName(OPERATOR);
             String second = getResultFromMsgGroupName(SECOND);
-            second = second.replaceAll(",", ".");
-            String expression = first + operator + second;
-            DoubleEvaluator interpreter = new DoubleEvaluator();
-            Boolean notZeroDivide = !((operator.equalsIgnoreCase("/")) && second.matches("^0+.?0*?$")); //second.startsWith("0"));
-
-            if (notZeroDivide) {
-                Double result = interpreter.evaluate(expression);
-                result = Math.round(result * 100.0) / 100.0;
-                String resultStr = result.toString();
-                resultStr = resultStr.replace(".", " dot ");
-                this.setDiagResponse(resultStr);
-                this.setDiagEnding(AnsweringMachine.END_OF_SPEAK);
-            } else {
+            double result;
+            try {
+                result = SpokenArithmetic.evaluate(first, operator, second);
+            } catch (ArithmeticException e) {
                 runRule(ZERO_DIVIDE);
+                return true;
+            } catch (IllegalArgumentException e) {
+                Log.v(TAG, e.getMessage());
+                return super.processResponse(); //not a calculation: the messages of the rule say so
             }
+            double rounded = Math.round(result * 100.0) / 100.0;
+            //plain notation, Double.toString() would say 1.0E7; zero is special-cased because
+            //stripTrailingZeros() leaves 0.0 as it is before Java 8
+            String resultStr = rounded == 0 ? "0" : BigDecimal.valueOf(rounded).stripTrailingZeros().toPlainString();
+            resultStr = resultStr.replace(".", " dot ");
+            this.setDiagResponse(resultStr);
+            this.setDiagEnding(AnsweringMachine.END_OF_SPEAK);
         } catch (ResultNotAvailableException e) {
             Log.e(TAG, "Something went wrong with results collection, check your grammar XML file," +
                     "and correct flags in group names in the regex");
@@ -19,9 +19,13 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 
 import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
+import martin.code.it.speechinterpreterlib.answeringmachine.IAnswerCallback;
+import martin.code.it.speechinterpreterlib.answeringmachine.Session;
 import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
 import martin.code.it.speechinterpreterlib.exceptions.NullGrammarException;
 import martin.code.it.speechinterpreterlib.exceptions.NullRuleException;
+import martin.code.it.speechinterpreterlib.metrics.Metrics;
 
 
 public class MainActivity extends Activity implements View.OnClickListener {
@@ -43,6 +47,7 @@ public class MainActivity extends Activity implements View.OnClickListener {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        Metrics.setEnabled(DebugStatusHelper.isDebug);
         try {
             mAnsweringMachine = AnsweringMachine.getDefault(this);
             mAnsweringMachine.registerResponseParser(new AsknameResponseParser(this, AsknameResponseParser.GRAMMAR_NAME));
@@ -80,19 +85,12 @@ public class MainActivity extends Activity implements View.OnClickListener {
             question = mQuestionEdt.getText().toString() + " <BR><BR>";
             mAnswerTxv.append(Html.fromHtml(userPrompt + question));
             mAnswerScv.smoothScrollTo(0, mAnswerTxv.getBottom());
-            try {
-                mResult = mAnsweringMachine.answer(mQuestionEdt.getText().toString()).getString(AnsweringMachine.DIALOGUE_RESULT) + " <BR><BR>";
-            } catch (EmptyMessageSetException e) {
-                errorProcedure(e);
-            } catch (NullRuleException e) {
-                errorProcedure(e);
-            }
-            mAnswerTxv.append(Html.fromHtml(hartwinPrompt + mResult));
-            mAnswerScv.smoothScrollTo(0, mAnswerTxv.getBottom());
+            //answered off the UI thread, the answer is shown once ready
+            mAnsweringMachine.answerAsync(mQuestionEdt.getText().toString(), mAnswerCallback);
             mQuestionEdt.setText("");
         } else if (view.equals(mStartBtn)) {
             try {
-                mResult = mAnsweringMachine.runRule("ask_name").getString(AnsweringMachine.DIALOGUE_RESULT) + " <BR><BR>";
+                mResult = mAnsweringMachine.runRule("ask_name").getResult() + " <BR><BR>";
             } catch (NullRuleException e) {
                 errorProcedure(e);
             } catch (EmptyMessageSetException e) {
@@ -103,6 +101,29 @@ public class MainActivity extends Activity implements View.OnClickListener {
 
     }
 
+    private final IAnswerCallback mAnswerCallback = new IAnswerCallback() {
+        @Override
+        public void onAnswer(Session session, String query, DialogueResult result) {
+            showAnswer(result.getResult() + " <BR><BR>");
+        }
+
+        @Override
+        public void onError(Session session, String query, Exception error) {
+            errorProcedure(error);
+            showAnswer(mResult);
+        }
+    };
+
+    private void showAnswer(final String answer) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mAnswerTxv.append(Html.fromHtml(hartwinPrompt + answer));
+                mAnswerScv.smoothScrollTo(0, mAnswerTxv.getBottom());
+            }
+        });
+    }
+
     @NonNull
     private void errorProcedure(Exception e) {
         Log.e(TAG, e.getMessage());
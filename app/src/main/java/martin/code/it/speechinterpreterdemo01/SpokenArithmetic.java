@@ -0,0 +1,206 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterdemo01;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Evaluates the arithmetic said by the user, e.g. "twenty five plus 3 times two point five", straight from
+ * the results of the calculator grammar: the texts are tokenized in a single pass, operator words and
+ * spoken numbers are looked up in lexicons built once, and the operations are computed directly with the
+ * usual precedence. It keeps no state, so it is safe to use from any thread.
+ */
+public final class SpokenArithmetic {
+
+    private static final HashMap<String, Character> OPERATORS = new HashMap<>();
+    private static final HashMap<String, Integer> NUMBERS = new HashMap<>();
+    private static final HashMap<String, Integer> SCALES = new HashMap<>();
+    private static final HashSet<String> FILLERS = new HashSet<>();
+    private static final HashSet<String> POINTS = new HashSet<>();
+
+    static {
+        for (String w : new String[]{"plus", "add", "added", "addition", "sum", "+"}) OPERATORS.put(w, '+');
+        for (String w : new String[]{"minus", "subtract", "subtracted", "subtraction", "less", "-"}) OPERATORS.put(w, '-');
+        for (String w : new String[]{"times", "multiplied", "multiplication", "product", "x", "*"}) OPERATORS.put(w, '*');
+        for (String w : new String[]{"divided", "division", "over", "/"}) OPERATORS.put(w, '/');
+        String[] units = {"zero", "one", "two", "three", "four", "five", "six", "seven", "eight", "nine", "ten",
+                "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen", "eighteen", "nineteen"};
+        for (int i = 0; i < units.length; i++) NUMBERS.put(units[i], i);
+        String[] tens = {"twenty", "thirty", "forty", "fifty", "sixty", "seventy", "eighty", "ninety"};
+        for (int i = 0; i < tens.length; i++) NUMBERS.put(tens[i], 20 + 10 * i);
+        SCALES.put("hundred", 100);
+        SCALES.put("thousand", 1000);
+        SCALES.put("million", 1000000);
+        SCALES.put("billion", 1000000000);
+        for (String w : new String[]{"and", "by", "to", "the", "of"}) FILLERS.add(w);
+        POINTS.add("point");
+        POINTS.add("dot");
+    }
+
+    private SpokenArithmetic() {
+    }
+
+    /**
+     * The value of the expression made of the texts one after the other.
+     *
+     * @throws IllegalArgumentException if they are not an expression
+     * @throws ArithmeticException      on a division by zero
+     */
+    public static double evaluate(String... texts) {
+        ArrayList<String> words = new ArrayList<>();
+        for (String text : texts) tokenize(text, words);
+        return new Parser(words).expression();
+    }
+
+    //words, numbers written in digits and operator symbols
+    private static void tokenize(String text, ArrayList<String> words) {
+        if (text == null) return;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            int start = i;
+            if (Character.isLetter(c)) {
+                while ((i < n) && Character.isLetter(text.charAt(i))) i++;
+                words.add(text.substring(start, i).toLowerCase());
+            } else if (Character.isDigit(c)) {
+                while ((i < n) && (Character.isDigit(text.charAt(i)) || (text.charAt(i) == '.') || (text.charAt(i) == ',')))
+                    i++;
+                words.add(text.substring(start, i).replace(',', '.'));
+            } else {
+                if ((c == '+') || (c == '-') || (c == '*') || (c == '/')) words.add(String.valueOf(c));
+                i++;
+            }
+        }
+    }
+
+    private static final class Parser {
+        //what the last word of a spoken number was
+        private static final int NONE = 0;
+        private static final int UNITS = 1; //zero to nineteen
+        private static final int TENS = 2;
+        private static final int SCALE = 3;
+
+        private final ArrayList<String> mWords;
+        private int mPos;
+
+        Parser(ArrayList<String> words) {
+            this.mWords = words;
+        }
+
+        //sum of products: the multiplications and divisions are done first
+        double expression() {
+            double sum = 0;
+            double term = operand();
+            while (mPos < mWords.size()) {
+                char op = operator();
+                double value = operand();
+                switch (op) {
+                    case '*':
+                        term *= value;
+                        break;
+                    case '/':
+                        if (value == 0) throw new ArithmeticException("Division by zero");
+                        term /= value;
+                        break;
+                    case '-':
+                        sum += term;
+                        term = -value;
+                        break;
+                    default:
+                        sum += term;
+                        term = value;
+                }
+            }
+            return sum + term;
+        }
+
+        private char operator() {
+            Character op = OPERATORS.get(mWords.get(mPos));
+            if (op == null) throw new IllegalArgumentException("Not an operator: " + mWords.get(mPos));
+            mPos++;
+            skipFillers();
+            return op;
+        }
+
+        //a number, in digits or words, maybe negative
+        private double operand() {
+            skipFillers();
+            if (mPos >= mWords.size()) throw new IllegalArgumentException("Missing number");
+            String word = mWords.get(mPos);
+            Character op = OPERATORS.get(word);
+            if ((op != null) && (op == '-')) {
+                mPos++;
+                return -operand();
+            }
+            if (Character.isDigit(word.charAt(0))) {
+                mPos++;
+                double value = Double.parseDouble(word);
+                //digits followed by a scale: 2 thousand
+                while ((mPos < mWords.size()) && SCALES.containsKey(mWords.get(mPos))) value *= SCALES.get(mWords.get(mPos++));
+                return value;
+            }
+            return spokenNumber();
+        }
+
+        //twenty five, three hundred and five, two thousand and ten point five...
+        private double spokenNumber() {
+            long total = 0; //the thousands, millions... said so far
+            long current = 0; //the part below them
+            int previous = NONE;
+            StringBuilder decimals = null;
+            while (mPos < mWords.size()) {
+                String word = mWords.get(mPos);
+                Integer number = NUMBERS.get(word);
+                Integer scale = SCALES.get(word);
+                if (decimals != null) { //digit by digit after the point
+                    if ((number != null) && (number < 10)) decimals.append(number);
+                    else if (Character.isDigit(word.charAt(0)) && (word.indexOf('.') < 0)) decimals.append(word);
+                    else break;
+                } else if (number != null) {
+                    //a number follows only tens (twenty five) or scales (hundred five): "five three" are two
+                    if ((previous == UNITS) || ((previous == TENS) && ((number == 0) || (number >= 10)))) break;
+                    current += number;
+                    previous = number < 20 ? UNITS : TENS;
+                } else if ((scale != null) && (scale == 100)) {
+                    if ((previous == SCALE) && (current != 0)) break;
+                    current = (current == 0 ? 1 : current) * 100;
+                    previous = SCALE;
+                } else if (scale != null) {
+                    if ((previous == SCALE) && (current == 0)) break;
+                    total += (current == 0 ? 1 : current) * (long) scale;
+                    current = 0;
+                    previous = SCALE;
+                } else if ((previous == SCALE) && "and".equals(word)) {
+                    //one hundred and five
+                } else if ((previous != NONE) && POINTS.contains(word)) {
+                    decimals = new StringBuilder();
+                } else break;
+                mPos++;
+            }
+            if (previous == NONE) throw new IllegalArgumentException("Not a number: " + mWords.get(mPos));
+            double value = total + current;
+            if ((decimals != null) && (decimals.length() > 0)) value += Double.parseDouble("0." + decimals);
+            return value;
+        }
+
+        private void skipFillers() {
+            while ((mPos < mWords.size()) && FILLERS.contains(mWords.get(mPos))) mPos++;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterdemo01;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpokenArithmeticTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void resultsOfTheCalculatorGrammar() {
+        //first, operator and second as collected by the calculator rules
+        assertEquals(7, SpokenArithmetic.evaluate(" 3", " plus", " 4"), DELTA);
+        assertEquals(2.5, SpokenArithmetic.evaluate("10", " divided by", "4"), DELTA);
+        assertEquals(3, SpokenArithmetic.evaluate("1,5", " multiplied by", " 2"), DELTA);
+        assertEquals(42, SpokenArithmetic.evaluate("7 x 6"), DELTA);
+    }
+
+    @Test
+    public void spokenNumbers() {
+        assertEquals(305, SpokenArithmetic.evaluate("three hundred and five"), DELTA);
+        assertEquals(2010.5, SpokenArithmetic.evaluate("two thousand and ten point five"), DELTA);
+        assertEquals(1200000, SpokenArithmetic.evaluate("one million two hundred thousand"), DELTA);
+        assertEquals(2000, SpokenArithmetic.evaluate("2 thousand"), DELTA);
+        assertEquals(80, SpokenArithmetic.evaluate("ninety nine minus nineteen"), DELTA);
+    }
+
+    @Test
+    public void precedence() {
+        assertEquals(32.5, SpokenArithmetic.evaluate("twenty five plus 3 times two point five"), DELTA);
+        assertEquals(-1, SpokenArithmetic.evaluate("minus 3 minus -2"), DELTA);
+        assertEquals(4, SpokenArithmetic.evaluate("10 minus 12 divided by 2"), DELTA);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void divisionByZero() {
+        SpokenArithmetic.evaluate("5 divided", " by", " 0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notANumber() {
+        SpokenArithmetic.evaluate("hello");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void twoNumbersInARow() {
+        SpokenArithmetic.evaluate("five three");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingOperand() {
+        SpokenArithmetic.evaluate("3 plus");
+    }
+}
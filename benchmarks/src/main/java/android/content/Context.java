@@ -0,0 +1,44 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package android.content;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+
+/**
+ * Plain JVM stand-in of the Android Context, only what the interpreter needs to run the benchmarks.
+ */
+public class Context {
+    private final AssetManager mAssets;
+
+    public Context(AssetManager assets) {
+        this.mAssets = assets;
+    }
+
+    public AssetManager getAssets() {
+        return mAssets;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    //rule hits and passivated sessions go to a temporary directory, nothing is kept between runs
+    public File getFilesDir() {
+        return new File(System.getProperty("java.io.tmpdir"), "sil-benchmarks");
+    }
+}
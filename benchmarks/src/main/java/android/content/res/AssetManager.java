@@ -0,0 +1,43 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package android.content.res;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Plain JVM stand-in of the Android AssetManager: assets are read from a list of directories,
+ * the first one holding the file wins.
+ */
+public class AssetManager {
+    private final File[] mRoots;
+
+    public AssetManager(File... roots) {
+        this.mRoots = roots;
+    }
+
+    public InputStream open(String fileName) throws IOException {
+        for (File root : mRoots) {
+            File file = new File(root, fileName);
+            if (file.isFile()) return new BufferedInputStream(new FileInputStream(file));
+        }
+        throw new FileNotFoundException(fileName);
+    }
+}
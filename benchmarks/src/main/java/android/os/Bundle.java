@@ -0,0 +1,70 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package android.os;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Plain JVM stand-in of the Android Bundle, backed by a HashMap like the real one.
+ */
+public class Bundle {
+    private final HashMap<String, Object> mMap;
+
+    public Bundle() {
+        mMap = new HashMap<>();
+    }
+
+    public Bundle(Bundle b) {
+        mMap = new HashMap<>(b.mMap);
+    }
+
+    public void putString(String key, String value) {
+        mMap.put(key, value);
+    }
+
+    public String getString(String key) {
+        Object o = mMap.get(key);
+        return o instanceof String ? (String) o : null;
+    }
+
+    public void putBoolean(String key, boolean value) {
+        mMap.put(key, value);
+    }
+
+    public boolean getBoolean(String key) {
+        Object o = mMap.get(key);
+        return (o instanceof Boolean) && (Boolean) o;
+    }
+
+    public void putStringArrayList(String key, ArrayList<String> value) {
+        mMap.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<String> getStringArrayList(String key) {
+        Object o = mMap.get(key);
+        return o instanceof ArrayList ? (ArrayList<String>) o : null;
+    }
+
+    public boolean containsKey(String key) {
+        return mMap.containsKey(key);
+    }
+
+    public void clear() {
+        mMap.clear();
+    }
+}
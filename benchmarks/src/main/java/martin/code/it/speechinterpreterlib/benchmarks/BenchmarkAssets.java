@@ -0,0 +1,142 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.benchmarks;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.exceptions.NullGrammarException;
+import martin.code.it.speechinterpreterlib.grammar.GrammarCompiler;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSnapshot;
+
+/**
+ * Grammars used by the benchmarks: the ones bundled with the demo app (read from the folder given by the
+ * system property sil.assets) plus a generated grammar of GENERATED_RULES browsable rules.
+ * They are copied in a temporary folder as xml, and compiled as snapshots in another one.
+ */
+final class BenchmarkAssets {
+
+    static final String ASSETS_DIR_PROPERTY = "sil.assets";
+    static final String GENERATED_GRAMMAR = "generated_grammar";
+    static final int GENERATED_RULES = 1200;
+
+    private static File sXmlDir, sSnapshotDir;
+
+    private BenchmarkAssets() {
+    }
+
+    //a context whose assets hold the xml grammars only, or their snapshots too
+    static Context context(boolean snapshots) throws IOException {
+        prepare();
+        AssetManager am = snapshots ? new AssetManager(sSnapshotDir, sXmlDir) : new AssetManager(sXmlDir);
+        return new Context(am);
+    }
+
+    //the machine is a singleton, the benchmarks register and unregister the parsers they need
+    static AnsweringMachine answeringMachine() throws IOException, XmlPullParserException, NullGrammarException {
+        return AnsweringMachine.getDefault(context(false));
+    }
+
+    //query matched by the rule number i of the generated grammar
+    static String generatedQuery(int i) {
+        return "please show the topic" + i + " called weekly report";
+    }
+
+    private static synchronized void prepare() throws IOException {
+        if (sXmlDir != null) return;
+        File assets = new File(System.getProperty(ASSETS_DIR_PROPERTY, "app/src/main/assets"));
+        File[] bundled = assets.listFiles();
+        if (bundled == null) throw new IllegalStateException(assets.getAbsolutePath() + " is not a directory, set "
+                + ASSETS_DIR_PROPERTY + " to the assets folder of the demo app");
+        File xmlDir = createTempDir("sil-xml");
+        File snapshotDir = createTempDir("sil-snapshot");
+        for (File file : bundled) {
+            if (file.getName().toLowerCase().endsWith(".xml")) copy(file, new File(xmlDir, file.getName()));
+        }
+        File generated = new File(xmlDir, GENERATED_GRAMMAR + ".xml");
+        writeGeneratedGrammar(generated);
+        generated.deleteOnExit();
+        for (File grammar : xmlDir.listFiles()) {
+            File snapshot = new File(snapshotDir, GrammarSnapshot.snapshotName(grammar.getName()));
+            try {
+                GrammarCompiler.compile(grammar, snapshot);
+                snapshot.deleteOnExit();
+            } catch (Exception e) {
+                throw new IllegalStateException("Grammar " + grammar.getName() + " could not be compiled", e);
+            }
+        }
+        sSnapshotDir = snapshotDir;
+        sXmlDir = xmlDir;
+    }
+
+    //every rule has its own keyword, a result group replaced in the message and an optional one
+    private static void writeGeneratedGrammar(File file) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<root>\n");
+            for (int i = 0; i < GENERATED_RULES; i++) {
+                w.write("    <rule name=\"topic_" + i + "\">\n");
+                w.write("        <regex>(?:please )?(?:show|open|find) (?:the )?topic" + i
+                        + "(?: called| named)? (?&lt;title" + i + "§&gt;[a-z0-9 ]+?)(?&lt;when" + i
+                        + "&gt; today| tomorrow)?</regex>\n");
+                w.write("        <msg>\n");
+                w.write("            <item>Here is the topic" + i + " called #title" + i + "#</item>\n");
+                w.write("            <item>Opening #title" + i + "# in topic" + i + "</item>\n");
+                w.write("        </msg>\n");
+                w.write("    </rule>\n");
+            }
+            w.write("</root>\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    private static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir()) throw new IOException("Cannot create " + dir);
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream is = new FileInputStream(from);
+        try {
+            OutputStream os = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = is.read(buffer)) > 0) os.write(buffer, 0, n);
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+        to.deleteOnExit();
+    }
+}
@@ -0,0 +1,103 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.benchmarks;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import martin.code.it.speechinterpreterdemo01.CalculatorResponseParser;
+import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
+import martin.code.it.speechinterpreterlib.exceptions.NullGrammarException;
+import martin.code.it.speechinterpreterlib.exceptions.NullRuleException;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * CalculatorResponseParser.processResponse alone: operator normalization, evaluation and reply,
+ * on results collected once in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculatorBenchmark {
+
+    //keeps the collected results after the first processing, so that it can be repeated
+    public static class CalculatorProbe extends CalculatorResponseParser {
+        private boolean isHolding = true;
+
+        public CalculatorProbe(Context context) throws XmlPullParserException, IOException, NullGrammarException {
+            super(context, GRAMMAR_NAME);
+        }
+
+        @Override
+        protected boolean processResponse() throws EmptyMessageSetException, NullRuleException {
+            boolean processed = super.processResponse();
+            return isHolding ? false : processed;
+        }
+
+        boolean process() throws EmptyMessageSetException, NullRuleException {
+            return super.processResponse();
+        }
+    }
+
+    @Param({"calculate 3 plus 4", "what is 12.5 multiplied 4", "calculate 10 divided 4"})
+    public String query;
+
+    private AnsweringMachine mAnsweringMachine;
+    private CalculatorProbe mProbe;
+
+    @Setup
+    public void setup() throws Exception {
+        mAnsweringMachine = BenchmarkAssets.answeringMachine();
+        mProbe = new CalculatorProbe(BenchmarkAssets.context(false));
+        mAnsweringMachine.registerResponseParser(mProbe);
+        Rule rule = mProbe.getBrowsableRules().iterator().next();
+        mProbe.selectRule(rule, query);
+        mProbe.answer(); //collects the results
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProbe.isHolding = false;
+        mAnsweringMachine.unRegisterResponseParser(mProbe.getGrammarName());
+        mAnsweringMachine.reset();
+    }
+
+    @Benchmark
+    public boolean processResponse() throws Exception {
+        return mProbe.process();
+    }
+}
@@ -0,0 +1,121 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.benchmarks;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import martin.code.it.speechinterpreterdemo01.AsknameResponseParser;
+import martin.code.it.speechinterpreterdemo01.CalculatorResponseParser;
+import martin.code.it.speechinterpreterdemo01.ConversationResponseParser;
+import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
+import martin.code.it.speechinterpreterlib.answeringmachine.Session;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+
+/**
+ * Complete multi-turn dialogues through AnsweringMachine.answer on the parsers of the demo app,
+ * optionally with the generated grammar registered too, so that routing goes through all its rules.
+ * conversationStreamed feeds the same turns as partial recognition results first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DialogueBenchmark {
+
+    //slot filling: the operator and the second value are asked for
+    private static final String[] CALCULATOR = {"calculate", "12", "plus", "7", "calculate 3 plus", "4"};
+    private static final String[] CONVERSATION = {"hello", "fine", "My name is Jack", "i feel sad", "how can i fly",
+            "blah blah", "quit"};
+
+    @Param({"false", "true"})
+    public boolean withGenerated;
+
+    private AnsweringMachine mAnsweringMachine;
+    private BaseResponseParser[] mParsers;
+    private Session mSession;
+
+    @Setup
+    public void setup() throws Exception {
+        Context context = BenchmarkAssets.context(false);
+        mAnsweringMachine = BenchmarkAssets.answeringMachine();
+        mParsers = new BaseResponseParser[]{
+                new AsknameResponseParser(context, AsknameResponseParser.GRAMMAR_NAME),
+                new ConversationResponseParser(context, ConversationResponseParser.GRAMMAR_NAME),
+                new CalculatorResponseParser(context, CalculatorResponseParser.GRAMMAR_NAME),
+                withGenerated ? new BaseResponseParser(context, BenchmarkAssets.GENERATED_GRAMMAR) : null};
+        for (BaseResponseParser parser : mParsers) {
+            if (parser != null) mAnsweringMachine.registerResponseParser(parser);
+        }
+        mSession = mAnsweringMachine.newSession("benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (BaseResponseParser parser : mParsers) {
+            if (parser != null) mAnsweringMachine.unRegisterResponseParser(parser.getGrammarName());
+        }
+    }
+
+    @Benchmark
+    public void calculator(Blackhole bh) throws Exception {
+        run(CALCULATOR, bh);
+    }
+
+    @Benchmark
+    public void conversation(Blackhole bh) throws Exception {
+        run(CONVERSATION, bh);
+    }
+
+    //every turn arrives word by word as partial recognition results before the final one
+    @Benchmark
+    public void conversationStreamed(Blackhole bh) throws Exception {
+        for (String turn : CONVERSATION) {
+            for (int i = turn.indexOf(' '); i > 0; i = turn.indexOf(' ', i + 1)) {
+                bh.consume(mSession.interpretPartial(turn.substring(0, i)));
+            }
+            bh.consume(mSession.interpretPartial(turn));
+            bh.consume(mSession.answer(turn).getResult());
+        }
+        mSession.reset();
+    }
+
+    private void run(String[] turns, Blackhole bh) throws Exception {
+        for (String turn : turns) {
+            DialogueResult result = mSession.answer(turn);
+            bh.consume(result.getResult());
+        }
+        mSession.reset();
+    }
+}
@@ -0,0 +1,65 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.benchmarks;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+
+/**
+ * Cold load of a grammar, i.e. the construction of a BaseResponseParser, from the xml or from its snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrammarLoadBenchmark {
+
+    @Param({"common_grammar", "askname_grammar", "calculator_grammar", "conversation_grammar",
+            BenchmarkAssets.GENERATED_GRAMMAR})
+    public String grammar;
+
+    @Param({"xml", "snapshot"})
+    public String format;
+
+    private Context mContext;
+
+    @Setup
+    public void setup() throws Exception {
+        mContext = BenchmarkAssets.context("snapshot".equals(format));
+    }
+
+    @Benchmark
+    public BaseResponseParser load() throws Exception {
+        return new BaseResponseParser(mContext, grammar);
+    }
+}
@@ -0,0 +1,83 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+
+/**
+ * Lookup of the browsable rule matching a query in one grammar (findRuleByQuery), for a query matched
+ * by one of the last rules and for a query matched by none.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentLookupBenchmark {
+
+    private static final String MISS = "this sentence is not understood by any rule";
+
+    @Param({"calculator_grammar", "conversation_grammar", BenchmarkAssets.GENERATED_GRAMMAR})
+    public String grammar;
+
+    private AnsweringMachine mAnsweringMachine;
+    private BaseResponseParser mParser;
+    private String mHit;
+
+    @Setup
+    public void setup() throws Exception {
+        mAnsweringMachine = BenchmarkAssets.answeringMachine();
+        mParser = new BaseResponseParser(BenchmarkAssets.context(false), grammar);
+        mAnsweringMachine.registerResponseParser(mParser);
+        if ("calculator_grammar".equals(grammar)) mHit = "what is 12 multiplied 3";
+        else if ("conversation_grammar".equals(grammar)) mHit = "i feel sad";
+        else mHit = BenchmarkAssets.generatedQuery(BenchmarkAssets.GENERATED_RULES - 1);
+        if (!mParser.findRuleByQuery(mHit)) throw new IllegalStateException("No rule matches '" + mHit + "'");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mAnsweringMachine.unRegisterResponseParser(mParser.getGrammarName());
+        mAnsweringMachine.reset();
+    }
+
+    @Benchmark
+    public Boolean hit() {
+        return mParser.findRuleByQuery(mHit);
+    }
+
+    @Benchmark
+    public Boolean miss() {
+        return mParser.findRuleByQuery(MISS);
+    }
+}
@@ -0,0 +1,86 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+import martin.code.it.speechinterpreterlib.rules.MessageTemplate;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.group.GroupKey;
+
+/**
+ * Choice of the reply message of a rule and the replacement of its placeholders with the results:
+ * expand() goes through Rule.getMessage and String.replace, render() through the precompiled
+ * template the same way BaseResponseParser.processResponse does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"askname_grammar", BenchmarkAssets.GENERATED_GRAMMAR})
+    public String grammar;
+
+    private Rule mRule;
+    private final DialogueResult mResult = new DialogueResult();
+    private final StringBuilder mRender = new StringBuilder();
+    private final MessageTemplate.Resolver mResolver = new MessageTemplate.Resolver() {
+        @Override
+        public String resolve(String placeholder) {
+            return "weekly report";
+        }
+    };
+
+    @Setup
+    public void setup() throws Exception {
+        BaseResponseParser parser = new BaseResponseParser(BenchmarkAssets.context(false), grammar);
+        ArrayList<Rule> rules = new ArrayList<>(parser.getBrowsableRules());
+        mRule = rules.get(rules.size() / 2);
+    }
+
+    @Benchmark
+    public String expand() throws Exception {
+        mRule.getMessage(GroupKey.getNoKey(), null, mResult);
+        String msg = mResult.getMessage();
+        for (String placeholder : mResult.getPlaceholders()) msg = msg.replace("#" + placeholder + "#", "weekly report");
+        return msg;
+    }
+
+    @Benchmark
+    public String render() throws Exception {
+        MessageTemplate template = mRule.getMessageTemplate(Rule.NO_KEY_MASK, null);
+        mRender.setLength(0);
+        return template.render(mRender, mResolver).toString();
+    }
+}
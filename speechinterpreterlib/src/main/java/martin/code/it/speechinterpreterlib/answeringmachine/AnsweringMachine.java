@@ -16,21 +16,38 @@
 package martin.code.it.speechinterpreterlib.answeringmachine;
 
 import android.content.Context;
-import android.os.Bundle;
 import android.util.Log;
 
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import code.martin.it.eventbuswrapper.EventbusObject;
 import martin.code.it.speechinterpreterlib.baseresponseparsers.CommonResponseParser;
 import martin.code.it.speechinterpreterlib.baseresponseparsers.IResponseParser;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.IResponseParserFactory;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.LazyResponseParser;
 import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
 import martin.code.it.speechinterpreterlib.exceptions.NullGrammarException;
 import martin.code.it.speechinterpreterlib.exceptions.NullRuleException;
 
+/**
+ * Holds the grammars shared by all the dialogues and answers through Sessions: getDefault() keeps the
+ * single conversation API working on a default session, newSession() opens as many independent
+ * conversations as needed, which may run concurrently on different threads.
+ * The parser registry is copy on write, so answering never locks it, and the grammars can be reloaded
+ * while the sessions answer (see reloadGrammars). Idle sessions can be passivated to a SessionStore
+ * (see setPassivation).
+ */
 public class AnsweringMachine extends EventbusObject {
 
     // keys definition
@@ -41,12 +58,18 @@ public class AnsweringMachine extends EventbusObject {
     public static final String END_OF_PROMPT = "end_of_prompt";
     public static final String END_OF_SPEAK = "end_of_speak";
 
-    private IResponseParser mCurrentResponseParser, mCommonResponseParser;
-    private LinkedHashMap<String, IResponseParser> mResponseParserCollection;
+    public static final String DEFAULT_SESSION_ID = "default";
+
+    private volatile CommonResponseParser mCommonResponseParser;
+    private volatile LinkedHashMap<String, IResponseParser> mResponseParserCollection;
+    private final IntentRouter mIntentRouter;
+    private final Session mDefaultSession;
+    private volatile int mMaxLoadedGrammars = Integer.MAX_VALUE;
+    private volatile ExecutorService mExecutor;
+    private final GrammarReloader mGrammarReloader;
+    private volatile SessionPassivator mSessionPassivator;
 
     private static AnsweringMachine mIstance;
-    private Boolean isConversationRunning = false;
-    private Bundle mBundleResult;
     private Context mContext;
 
     private AnsweringMachine(Context context) throws XmlPullParserException, IOException, NullGrammarException {
@@ -55,106 +78,251 @@ public class AnsweringMachine extends EventbusObject {
         this.mContext = context;
         try {
             mCommonResponseParser = new CommonResponseParser(mContext, CommonResponseParser.GRAMMAR_NAME);
-            mCurrentResponseParser = mCommonResponseParser;
-            mResponseParserCollection = new LinkedHashMap<String, IResponseParser>();
-            registerResponseParser(mCommonResponseParser);
         } catch (NullGrammarException e) {
             //Log.e(TAG,e.getMessage());
             throw new NullGrammarException("Grammar for CommonResponseParser has not been found. Please write it and insert in assets folder of your app");
         }
-
+        mResponseParserCollection = new LinkedHashMap<String, IResponseParser>();
+        mIntentRouter = new IntentRouter();
+        mGrammarReloader = new GrammarReloader(this, mContext);
+        mDefaultSession = new Session(this, DEFAULT_SESSION_ID);
+        registerResponseParser(mCommonResponseParser);
     }
 
-    public static AnsweringMachine getDefault(Context context) throws XmlPullParserException, IOException, NullGrammarException {
+    public static synchronized AnsweringMachine getDefault(Context context) throws XmlPullParserException, IOException, NullGrammarException {
         if (mIstance == null) {
             mIstance = new AnsweringMachine(context);
         }
         return mIstance;
     }
 
-    public IResponseParser registerResponseParser(IResponseParser rp) {
+    //a new conversation on the grammars registered in this machine. With passivation on, the id must be
+    //unique among the sessions alive, and a session whose snapshot is in the store starts from there
+    public Session newSession(String id) {
+        Session session = new Session(this, id);
+        SessionPassivator passivator = mSessionPassivator;
+        if (passivator != null) passivator.track(session);
+        return session;
+    }
+
+    public Session getDefaultSession() {
+        return mDefaultSession;
+    }
+
+    //the session answering on the calling thread, the default one outside of any session call
+    public Session getCurrentSession() {
+        Session session = Session.getBound();
+        return session != null ? session : mDefaultSession;
+    }
+
+    public synchronized IResponseParser registerResponseParser(IResponseParser rp) {
         rp.setAnsweringMachine(this);
         rp.reset();
-        return mResponseParserCollection.put(rp.getGrammarName(), rp);
+        LinkedHashMap<String, IResponseParser> parsers = new LinkedHashMap<>(mResponseParserCollection);
+        IResponseParser previous = parsers.put(rp.getGrammarName(), rp);
+        publish(parsers);
+        return previous;
+    }
+
+    //register a parser whose grammar is loaded only the first time it is needed, see LazyResponseParser
+    public IResponseParser registerResponseParser(String grammarName, IResponseParserFactory factory)
+            throws XmlPullParserException, IOException, NullGrammarException {
+        return registerResponseParser(new LazyResponseParser(mContext, grammarName, factory));
+    }
+
+    public synchronized IResponseParser unRegisterResponseParser(String rpn) {
+        LinkedHashMap<String, IResponseParser> parsers = new LinkedHashMap<>(mResponseParserCollection);
+        IResponseParser removed = parsers.remove(rpn);
+        publish(parsers);
+        return removed;
+    }
+
+    //reload in the background the registered grammars whose files (xml or snapshot, named as in the assets)
+    //in dir are newer than the ones loaded: each new version is swapped in at once, answering goes on
+    //meanwhile. The dialogues in progress end on the version they started with, the next ones run on the
+    //new one. The future returns the names of the grammars reloaded
+    public Future<List<String>> reloadGrammars(final File dir) {
+        return getExecutor().submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return mGrammarReloader.reload(dir);
+            }
+        });
+    }
+
+    //false if the previous parser is no more the registered one
+    synchronized boolean replaceResponseParser(IResponseParser previous, IResponseParser fresh) {
+        if (mResponseParserCollection.get(fresh.getGrammarName()) != previous) return false;
+        fresh.setAnsweringMachine(this);
+        LinkedHashMap<String, IResponseParser> parsers = new LinkedHashMap<>(mResponseParserCollection);
+        parsers.put(fresh.getGrammarName(), fresh); //same key, same place in the routing order
+        if (previous == mCommonResponseParser) mCommonResponseParser = (CommonResponseParser) fresh;
+        publish(parsers);
+        return true;
+    }
+
+    private void publish(LinkedHashMap<String, IResponseParser> parsers) {
+        mResponseParserCollection = parsers;
+        mIntentRouter.setResponseParsers(parsers.values());
+    }
+
+    //the sessions idle for longer than idleMillis (0 for never, see passivateSessions) are written to the
+    //store and their dialogue state leaves the heap, the next utterance restores them where they were.
+    //Only the default session and the ones opened by newSession() afterwards are passivated; null turns
+    //passivation off, the sessions already passivated are still restored from their store
+    public synchronized void setPassivation(SessionStore store, long idleMillis) {
+        if (mSessionPassivator != null) mSessionPassivator.stop();
+        mSessionPassivator = store != null ? new SessionPassivator(store, idleMillis) : null;
+        if (mSessionPassivator != null) mSessionPassivator.track(mDefaultSession);
     }
 
-    public IResponseParser unRegisterResponseParser(String rpn) {
-        return mResponseParserCollection.remove(rpn);
+    //passivate now all the sessions not answering, i.e. when the app goes to background; returns how many
+    public int passivateSessions() {
+        SessionPassivator passivator = mSessionPassivator;
+        return passivator != null ? passivator.passivate(0) : 0;
     }
 
+    SessionStore getSessionStore() {
+        SessionPassivator passivator = mSessionPassivator;
+        return passivator != null ? passivator.getStore() : null;
+    }
+
+    //max number of lazily registered grammars kept loaded, the least recently used are unloaded first.
+    //It is a count, not a memory bound: the grammars in charge of a dialogue are never unloaded
+    public void setMaxLoadedGrammars(int maxLoadedGrammars) {
+        this.mMaxLoadedGrammars = maxLoadedGrammars;
+        trimLoadedGrammars(getCurrentSession());
+    }
 
-    public Bundle answer(String query) throws EmptyMessageSetException, NullRuleException {
-        query = query.replaceAll("[!?]", ""); // question and esclamation marks make trip the regex engine....
-        if (!isConversationRunning) {
-            for (IResponseParser responseParser : mResponseParserCollection.values()) {
-                if (responseParser.findRuleByQuery(query)) {
-                    isConversationRunning = true;
-                    break;
+    void trimLoadedGrammars(Session session) {
+        if (mMaxLoadedGrammars == Integer.MAX_VALUE) return;
+        synchronized (this) {
+            Collection<IResponseParser> parsers = mResponseParserCollection.values();
+            int loaded = 0;
+            for (IResponseParser rp : parsers) {
+                if ((rp instanceof LazyResponseParser) && ((LazyResponseParser) rp).isLoaded()) loaded++;
+            }
+            while (loaded > mMaxLoadedGrammars) {
+                LazyResponseParser lru = null;
+                for (IResponseParser rp : parsers) {
+                    if (!(rp instanceof LazyResponseParser)) continue;
+                    LazyResponseParser lazy = (LazyResponseParser) rp;
+                    //the grammar in charge of the session's dialogue is never unloaded, other sessions
+                    //keep using the parser they hold until their dialogue ends
+                    if (!lazy.isLoaded() || lazy.isLoadedAs(session.getCurrentResponseParser())) continue;
+                    if ((lru == null) || (lazy.getLastUse() < lru.getLastUse())) lru = lazy;
                 }
+                if (lru == null) break;
+                lru.unload();
+                mIntentRouter.invalidate();
+                loaded--;
             }
-            ;
-        } else mCurrentResponseParser.setQuery(query);
-        if (!((CommonResponseParser) mCommonResponseParser).isQuitQuery(query)) {
-            mBundleResult = mCurrentResponseParser.answer();
-        } else {
-            runQuitSequence();
         }
-        return mBundleResult;
     }
 
+    //the threads answering asynchronously and routing in parallel, by default virtual threads where the
+    //platform has them, otherwise a pool as big as the processors
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.mExecutor = executor;
+    }
+
+    //also used by the response parsers for their housekeeping, e.g. learning the rule order
+    public synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) mExecutor = newVirtualThreadExecutor();
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int mCount = 0;
 
-    public Bundle runRule(String ruleName, String... params) throws NullRuleException, EmptyMessageSetException {
-        if (!isConversationRunning) {
-            for (IResponseParser responseParser : mResponseParserCollection.values()) {
-                if (responseParser.findRuleByName(ruleName)) {
-                    isConversationRunning = true;
-                    break;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG + "-" + mCount++);
+                    thread.setDaemon(true);
+                    return thread;
                 }
-            }
-            ;
+            });
         }
-        mBundleResult = mCurrentResponseParser.runRule(ruleName);
-        return mBundleResult;
+        return mExecutor;
     }
 
-    public Bundle runStartingPrompt() throws NullRuleException, EmptyMessageSetException {
-        Bundle b = runRule(CommonResponseParser.COMMON_PROMPT);
-        reset();
-        ((CommonResponseParser)mCommonResponseParser).reset();
-        return b;
+    //Executors.newVirtualThreadPerTaskExecutor() of Java 21, looked up at run time: Android doesn't have it
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
     }
 
-    public Bundle runGreetAnnounce() throws NullRuleException, EmptyMessageSetException {
-        Bundle b = runRule(CommonResponseParser.LEAVE_GREETING);
-        reset();
-        ((CommonResponseParser)mCommonResponseParser).reset();
-        return b;
+    //the cache of the routes and of the results extracted from the utterances heard so far
+    public RoutingCache getRoutingCache() {
+        return mIntentRouter.getRoutingCache();
     }
 
-    public Bundle runNotUnderstood() throws NullRuleException, EmptyMessageSetException {
-        reset();
-        ((CommonResponseParser)mCommonResponseParser).reset();
-        Bundle b = runRule(CommonResponseParser.NOT_UNDERSTOOD);
-        return b;
+    CommonResponseParser getCommonResponseParser() {
+        return mCommonResponseParser;
     }
 
-    public Bundle runQuitSequence() throws EmptyMessageSetException, NullRuleException {
-        reset();
-        ((CommonResponseParser)mCommonResponseParser).reset();
-        Bundle b = runRule(CommonResponseParser.QUIT);
-        return b;
+    Collection<IResponseParser> getResponseParsers() {
+        return mResponseParserCollection.values();
     }
 
-    public void setCurrentResponseParser(IResponseParser baseResponseParser) {
-        mCurrentResponseParser = baseResponseParser;
+    IntentRouter getIntentRouter() {
+        return mIntentRouter;
+    }
+
+    public DialogueResult answer(String query) throws EmptyMessageSetException, NullRuleException {
+        return mDefaultSession.answer(query);
+    }
+
+    public Future<DialogueResult> answerAsync(String query, IAnswerCallback callback) {
+        return mDefaultSession.answerAsync(query, callback);
+    }
+
+    public Future<DialogueResult> replaceAsync(String query, IAnswerCallback callback) {
+        return mDefaultSession.replaceAsync(query, callback);
+    }
+
+    public DialogueResult answer(List<Hypothesis> hypotheses) throws EmptyMessageSetException, NullRuleException {
+        return mDefaultSession.answer(hypotheses);
+    }
+
+    public IntentRouter.Route interpretPartial(String partialQuery) {
+        return mDefaultSession.interpretPartial(partialQuery);
+    }
 
+    public DialogueResult runRule(String ruleName, String... params) throws NullRuleException, EmptyMessageSetException {
+        return mDefaultSession.runRule(ruleName, params);
+    }
+
+    public DialogueResult runStartingPrompt() throws NullRuleException, EmptyMessageSetException {
+        return mDefaultSession.runStartingPrompt();
+    }
+
+    public DialogueResult runGreetAnnounce() throws NullRuleException, EmptyMessageSetException {
+        return mDefaultSession.runGreetAnnounce();
+    }
+
+    public DialogueResult runNotUnderstood() throws NullRuleException, EmptyMessageSetException {
+        return mDefaultSession.runNotUnderstood();
+    }
+
+    public DialogueResult runQuitSequence() throws EmptyMessageSetException, NullRuleException {
+        return mDefaultSession.runQuitSequence();
+    }
+
+    //called by the response parsers whose browsable rules changed order: routing follows the new one
+    public void evaluationOrderChanged() {
+        mIntentRouter.invalidate();
+    }
+
+    //called by the response parsers: they act on the session answering on the calling thread
+    public void setCurrentResponseParser(IResponseParser baseResponseParser) {
+        getCurrentSession().setCurrentResponseParser(baseResponseParser);
     }
 
     public void reset() {
-        isConversationRunning = false;
-        mCurrentResponseParser.reset();
-        mCurrentResponseParser = mCommonResponseParser;
+        getCurrentSession().reset();
     }
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,306 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a sequence of (session id, utterance) turns, e.g. recognized utterances taken from call logs,
+ * through an AnsweringMachine. Turns are spread over worker threads by session id, so independent sessions
+ * are answered in parallel while the turns of one session keep their input order. Results are handed back
+ * as soon as they are ready, together with the position of their turn in the input.
+ * Each session id starts a new Session, private to the batch. The sessions in the middle of a dialogue are
+ * kept until it ends, or until their worker answered ABANDONED_TURNS turns of other sessions since their
+ * last one (call logs are full of dialogues left halfway): then they are dropped, and a later turn of theirs
+ * starts over. Of the others each worker keeps the ENDED_SESSIONS used last (they only remember their last
+ * answer, for a repeat), so the memory doesn't grow with the number of session ids in the input.
+ */
+public class BatchAnswerer {
+    private static final String TAG = BatchAnswerer.class.getSimpleName();
+
+    private static final int QUEUE_SIZE = 256; //turns waiting per worker, bounds the memory on big inputs
+    static final int ENDED_SESSIONS = 1024; //per worker
+    static final int ABANDONED_TURNS = 8192; //per worker, also the most sessions it keeps in a dialogue
+    private static final Object END = new Object();
+
+    public static final class Turn {
+        public final String sessionId;
+        public final String utterance;
+
+        public Turn(String sessionId, String utterance) {
+            this.sessionId = sessionId;
+            this.utterance = utterance;
+        }
+    }
+
+    public static final class Result {
+        public final Turn turn;
+        public final long index; //position of the turn in the input
+        public final DialogueResult dialogueResult; //null if the turn failed
+        public final Exception error;
+
+        Result(Turn turn, long index, DialogueResult dialogueResult, Exception error) {
+            this.turn = turn;
+            this.index = index;
+            this.dialogueResult = dialogueResult;
+            this.error = error;
+        }
+
+        public boolean isError() {
+            return error != null;
+        }
+    }
+
+    //a session in the middle of a dialogue, with the number of the last turn its worker answered for it
+    private static final class RunningSession {
+        final Session session;
+        long lastTurn;
+
+        RunningSession(Session session) {
+            this.session = session;
+        }
+    }
+
+    private static final class Item {
+        final Turn turn;
+        final long index;
+
+        Item(Turn turn, long index) {
+            this.turn = turn;
+            this.index = index;
+        }
+    }
+
+    private final AnsweringMachine mAnsweringMachine;
+    private final int mThreads;
+
+    public BatchAnswerer(AnsweringMachine answeringMachine) {
+        this(answeringMachine, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchAnswerer(AnsweringMachine answeringMachine, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("At least one thread is needed");
+        this.mAnsweringMachine = answeringMachine;
+        this.mThreads = threads;
+    }
+
+    public Batch answer(Iterable<Turn> turns) {
+        return answer(turns.iterator());
+    }
+
+    //starts answering right away, the input is read on a background thread
+    public Batch answer(Iterator<Turn> turns) {
+        Batch batch = new Batch(turns);
+        batch.start();
+        return batch;
+    }
+
+    /**
+     * A running batch: iterate it to get the results, in completion order.
+     */
+    public final class Batch implements Iterator<Result> {
+        private final Iterator<Turn> mTurns;
+        private final BlockingQueue<Object>[] mLanes;
+        private final BlockingQueue<Object> mResults;
+        private final Thread[] mWorkers;
+        private Thread mFeeder;
+        private final AtomicLong mProcessed = new AtomicLong();
+        private volatile long mStart, mEnd;
+        private volatile boolean isCancelled = false;
+        private volatile RuntimeException mInputFailure;
+        private int mEndedLanes = 0;
+        private Result mNext;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Batch(Iterator<Turn> turns) {
+            this.mTurns = turns;
+            mLanes = new BlockingQueue[mThreads];
+            mWorkers = new Thread[mThreads];
+            for (int i = 0; i < mThreads; i++) mLanes[i] = new ArrayBlockingQueue<>(QUEUE_SIZE);
+            mResults = new ArrayBlockingQueue<>(QUEUE_SIZE * mThreads);
+        }
+
+        private void start() {
+            mStart = System.nanoTime();
+            for (int i = 0; i < mThreads; i++) {
+                final BlockingQueue<Object> lane = mLanes[i];
+                mWorkers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        work(lane);
+                    }
+                }, TAG + "-" + i);
+                mWorkers[i].setDaemon(true);
+                mWorkers[i].start();
+            }
+            mFeeder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    feed();
+                }
+            }, TAG + "-feeder");
+            mFeeder.setDaemon(true);
+            mFeeder.start();
+        }
+
+        private void feed() {
+            long index = 0;
+            try {
+                while (!isCancelled && mTurns.hasNext()) {
+                    Turn turn = mTurns.next();
+                    int lane = (turn.sessionId.hashCode() & Integer.MAX_VALUE) % mThreads;
+                    mLanes[lane].put(new Item(turn, index++));
+                }
+            } catch (InterruptedException e) {
+                return; //cancelled
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Reading the turns failed: " + e.getMessage());
+                mInputFailure = e;
+            }
+            try {
+                for (BlockingQueue<Object> lane : mLanes) lane.put(END);
+            } catch (InterruptedException e) {
+                //cancelled
+            }
+        }
+
+        //the sessions of a lane are only touched by its worker
+        private void work(BlockingQueue<Object> lane) {
+            //in the order of their last turn
+            LinkedHashMap<String, RunningSession> running = new LinkedHashMap<>(16, 0.75f, true);
+            long turns = 0;
+            LinkedHashMap<String, Session> ended = new LinkedHashMap<String, Session>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                    return size() > ENDED_SESSIONS;
+                }
+            };
+            try {
+                Object o;
+                while ((o = lane.take()) != END) {
+                    Item item = (Item) o;
+                    String id = item.turn.sessionId;
+                    turns++;
+                    dropAbandoned(running, turns);
+                    RunningSession r = running.get(id);
+                    Session session = r != null ? r.session : ended.remove(id);
+                    if (session == null) {
+                        //not through newSession(): a batch session is never passivated nor restored from the store
+                        session = new Session(mAnsweringMachine, id);
+                    }
+                    Result result;
+                    try {
+                        //the result is reused by the session on its next turn
+                        result = new Result(item.turn, item.index, new DialogueResult(session.answer(item.turn.utterance)), null);
+                    } catch (Exception e) {
+                        session.reset();
+                        result = new Result(item.turn, item.index, null, e);
+                    }
+                    if (session.isConversationRunning()) {
+                        if (r == null) {
+                            r = new RunningSession(session);
+                            running.put(id, r);
+                        }
+                        r.lastTurn = turns;
+                    } else {
+                        running.remove(id);
+                        ended.put(id, session);
+                    }
+                    mProcessed.incrementAndGet();
+                    mResults.put(result);
+                }
+                mResults.put(END);
+            } catch (InterruptedException e) {
+                //cancelled
+            }
+        }
+
+        private void dropAbandoned(LinkedHashMap<String, RunningSession> running, long turns) {
+            Iterator<Map.Entry<String, RunningSession>> it = running.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, RunningSession> eldest = it.next();
+                if (turns - eldest.getValue().lastTurn <= ABANDONED_TURNS) break;
+                it.remove();
+                Log.w(TAG, "Session " + eldest.getKey() + " dropped in the middle of a dialogue, no turn of it in the last "
+                        + ABANDONED_TURNS + " of its worker");
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mNext != null) return true;
+            if (isCancelled) return false;
+            try {
+                while (mEndedLanes < mThreads) {
+                    Object o = mResults.take();
+                    if (o == END) {
+                        mEndedLanes++;
+                    } else {
+                        mNext = (Result) o;
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (mEnd == 0) mEnd = System.nanoTime();
+            if (mInputFailure != null) throw new IllegalStateException("Reading the turns failed", mInputFailure);
+            return false;
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Result result = mNext;
+            mNext = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        //stops reading the input and answering, results not taken yet are dropped
+        public void cancel() {
+            isCancelled = true;
+            mFeeder.interrupt();
+            for (Thread worker : mWorkers) worker.interrupt();
+            if (mEnd == 0) mEnd = System.nanoTime();
+        }
+
+        public long getProcessedCount() {
+            return mProcessed.get();
+        }
+
+        //utterances answered per second, up to now if the batch is still running
+        public double getThroughput() {
+            long end = mEnd == 0 ? System.nanoTime() : mEnd;
+            long elapsed = end - mStart;
+            return elapsed <= 0 ? 0 : mProcessed.get() * 1e9 / elapsed;
+        }
+    }
+}
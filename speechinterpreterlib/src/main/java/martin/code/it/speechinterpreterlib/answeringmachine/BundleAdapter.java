@@ -0,0 +1,46 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import android.os.Bundle;
+
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * Copies a DialogueResult in a Bundle with the keys used by the previous versions of SIL
+ * (AnsweringMachine.DIALOGUE_RESULT, AnsweringMachine.DIALOGUE_ENDING...), for app code
+ * still reading the results from a Bundle.
+ */
+public final class BundleAdapter {
+
+    private BundleAdapter() {
+    }
+
+    public static Bundle toBundle(DialogueResult result) {
+        return toBundle(result, new Bundle());
+    }
+
+    public static Bundle toBundle(DialogueResult result, Bundle b) {
+        if (result.getResult() != null) b.putString(AnsweringMachine.DIALOGUE_RESULT, result.getResult());
+        if (result.getEnding() != null) b.putString(AnsweringMachine.DIALOGUE_ENDING, result.getEnding().key);
+        if (result.getMessage() != null) b.putString(BaseResponseParser.MESSAGE, result.getMessage());
+        if (result.getPrequel() != null) b.putString(BaseResponseParser.PREQUEL_TO_MESSAGE, result.getPrequel());
+        if (result.getNextRule() != null) b.putString(BaseResponseParser.NEXT_RULE, result.getNextRule());
+        b.putBoolean(Rule.IS_PREQUEL, result.isPrequel());
+        return b;
+    }
+}
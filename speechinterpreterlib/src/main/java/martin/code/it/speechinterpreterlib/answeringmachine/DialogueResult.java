@@ -0,0 +1,141 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import java.util.ArrayList;
+
+/**
+ * The result of a dialogue turn: the text to tell the user and whether it ends the dialogue or asks for
+ * a further input. While a reply is composed it also carries the message chosen from the rule, with its
+ * placeholders and the rule to chain, if any.
+ * The instances are reused by a session turn after turn, so a result is valid until the next call
+ * on the same session: use the copy constructor to keep it longer.
+ * See BundleAdapter to get it as an android.os.Bundle.
+ */
+public final class DialogueResult {
+
+    public enum Ending {
+        PROMPT(AnsweringMachine.END_OF_PROMPT),
+        SPEAK(AnsweringMachine.END_OF_SPEAK);
+
+        public final String key; //value of AnsweringMachine.DIALOGUE_ENDING in a Bundle
+
+        Ending(String key) {
+            this.key = key;
+        }
+    }
+
+    private String mResult;
+    private Ending mEnding;
+    private String mMessage;
+    private String mPrequel;
+    private String mNextRule;
+    private boolean isPrequel;
+    private final ArrayList<String> mPlaceholders = new ArrayList<>();
+
+    public DialogueResult() {
+    }
+
+    public DialogueResult(DialogueResult other) {
+        set(other);
+    }
+
+    public void set(DialogueResult other) {
+        mResult = other.mResult;
+        mEnding = other.mEnding;
+        mMessage = other.mMessage;
+        mPrequel = other.mPrequel;
+        mNextRule = other.mNextRule;
+        isPrequel = other.isPrequel;
+        mPlaceholders.clear();
+        mPlaceholders.addAll(other.mPlaceholders);
+    }
+
+    public void clear() {
+        mResult = null;
+        mEnding = null;
+        mMessage = null;
+        mPrequel = null;
+        mNextRule = null;
+        isPrequel = false;
+        mPlaceholders.clear();
+    }
+
+    //text to tell the user
+    public String getResult() {
+        return mResult;
+    }
+
+    public void setResult(String result) {
+        this.mResult = result;
+    }
+
+    public Ending getEnding() {
+        return mEnding;
+    }
+
+    public void setEnding(Ending ending) {
+        this.mEnding = ending;
+    }
+
+    public boolean isPrompt() {
+        return mEnding == Ending.PROMPT;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    public void setMessage(String message) {
+        this.mMessage = message;
+    }
+
+    //text told before the prompt of the rule run next
+    public String getPrequel() {
+        return mPrequel;
+    }
+
+    public void setPrequel(String prequel) {
+        this.mPrequel = prequel;
+    }
+
+    public String getNextRule() {
+        return mNextRule;
+    }
+
+    public void setNextRule(String nextRule) {
+        this.mNextRule = nextRule;
+    }
+
+    //true if the chosen message is a prequel to the rule getNextRule()
+    public boolean isPrequel() {
+        return isPrequel;
+    }
+
+    public void setIsPrequel(boolean prequel) {
+        this.isPrequel = prequel;
+    }
+
+    //names of the result groups whose placeholder (#name#) is found in the message
+    public ArrayList<String> getPlaceholders() {
+        return mPlaceholders;
+    }
+
+    @Override
+    public String toString() {
+        return mResult + " [" + (mEnding == null ? null : mEnding.key) + "]";
+    }
+}
@@ -0,0 +1,97 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import martin.code.it.speechinterpreterlib.baseresponseparsers.IResponseParser;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.LazyResponseParser;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSnapshot;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSource;
+
+/**
+ * Builds new parsers for the registered grammars having a newer version in a directory and swaps them
+ * in the registry of the AnsweringMachine (see AnsweringMachine.reloadGrammars). A new parser is an
+ * instance of the class of the old one, built through its (Context, String) constructor, or through the
+ * factory of a LazyResponseParser. A grammar failing to load keeps its old version.
+ */
+final class GrammarReloader {
+    private static final String TAG = GrammarReloader.class.getSimpleName();
+
+    private final AnsweringMachine mAnsweringMachine;
+    private final Context mContext;
+    //by grammar, the modification time of the files it was last reloaded from
+    private final HashMap<String, Long> mVersions = new HashMap<>();
+
+    GrammarReloader(AnsweringMachine answeringMachine, Context context) {
+        this.mAnsweringMachine = answeringMachine;
+        this.mContext = context;
+    }
+
+    //the names of the grammars reloaded
+    synchronized List<String> reload(File dir) {
+        GrammarSource source = GrammarSource.fromDirectory(dir);
+        ArrayList<String> reloaded = new ArrayList<>();
+        for (IResponseParser rp : mAnsweringMachine.getResponseParsers()) {
+            String name = rp.getGrammarName();
+            long modified = Math.max(new File(dir, name).lastModified(),
+                    new File(dir, GrammarSnapshot.snapshotName(name)).lastModified());
+            Long version = mVersions.get(name);
+            if ((modified == 0) || ((version != null) && (version == modified))) continue; //none or already loaded
+            IResponseParser fresh = create(rp, source);
+            if ((fresh != null) && mAnsweringMachine.replaceResponseParser(rp, fresh)) {
+                mVersions.put(name, modified);
+                reloaded.add(name);
+                Log.v(TAG, "Grammar " + name + " reloaded from " + source);
+            }
+        }
+        return reloaded;
+    }
+
+    private IResponseParser create(IResponseParser rp, GrammarSource source) {
+        String name = rp.getGrammarName();
+        GrammarSource previous = GrammarSource.bind(source);
+        try {
+            if (rp instanceof LazyResponseParser) {
+                LazyResponseParser old = (LazyResponseParser) rp;
+                LazyResponseParser fresh = new LazyResponseParser(mContext, name, old.getFactory());
+                //the whole grammar is read here, so a broken one keeps the old version instead of failing
+                //later on a user's turn; it stays loaded only if the old one was
+                fresh.setAnsweringMachine(mAnsweringMachine);
+                fresh.load();
+                if (!old.isLoaded()) fresh.unload();
+                return fresh;
+            }
+            return rp.getClass().getConstructor(Context.class, String.class).newInstance(mContext, name);
+        } catch (NoSuchMethodException e) {
+            Log.w(TAG, rp.getClass().getSimpleName() + " has no (Context, String) constructor, " + name + " not reloaded");
+        } catch (InvocationTargetException e) {
+            Log.e(TAG, "Grammar " + name + " not reloaded: " + e.getCause());
+        } catch (Exception e) {
+            Log.e(TAG, "Grammar " + name + " not reloaded: " + e);
+        } finally {
+            GrammarSource.unbind(previous);
+        }
+        return null;
+    }
+}
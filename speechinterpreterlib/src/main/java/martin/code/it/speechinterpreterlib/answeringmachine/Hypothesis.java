@@ -0,0 +1,62 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of the alternative transcripts of an utterance given by a speech recognizer, with its confidence
+ * score between 0 and 1 (0 when the recognizer doesn't give any), see Session.answer(List).
+ */
+public final class Hypothesis {
+
+    private final String mText;
+    private final float mConfidence;
+
+    public Hypothesis(String text) {
+        this(text, 0f);
+    }
+
+    public Hypothesis(String text, float confidence) {
+        if (text == null) throw new IllegalArgumentException("The text of a hypothesis can't be null");
+        this.mText = text;
+        this.mConfidence = confidence > 0f ? Math.min(confidence, 1f) : 0f;
+    }
+
+    //from the extras SpeechRecognizer.RESULTS_RECOGNITION and SpeechRecognizer.CONFIDENCE_SCORES (may be null)
+    public static List<Hypothesis> of(List<String> texts, float[] confidences) {
+        ArrayList<Hypothesis> hypotheses = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            hypotheses.add(new Hypothesis(texts.get(i),
+                    (confidences != null) && (i < confidences.length) ? confidences[i] : 0f));
+        }
+        return hypotheses;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public float getConfidence() {
+        return mConfidence;
+    }
+
+    @Override
+    public String toString() {
+        return mText + " (" + mConfidence + ")";
+    }
+}
@@ -0,0 +1,353 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import martin.code.it.speechinterpreterlib.baseresponseparsers.IResponseParser;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.LazyResponseParser;
+import martin.code.it.speechinterpreterlib.grammar.NormalizationProfile;
+import martin.code.it.speechinterpreterlib.rules.LiteralIndex;
+import martin.code.it.speechinterpreterlib.rules.MatchBudget;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * Routes a query to the first browsable rule (in parser registration order, then rule declaration order)
+ * whose regex matches it. The browsable rules of all registered grammars are merged into a single
+ * ordered alternation, so one matcher run selects the winning parser and rule instead of one regex
+ * match per rule. The order of the alternatives keeps the first-registered-first-wins priority.
+ * A literal prefilter skips the segments where no rule can match and, when a single candidate is left,
+ * runs its own pattern only. Grammars registered for lazy loading take part in routing through their
+ * RoutingSummary and are loaded only when one of their literals is found in the query.
+ * Each grammar matches the query normalized with its own NormalizationProfile: rules of different
+ * profiles are never merged and each profile has its own literal prefilter.
+ * The interrupt rules of the loaded grammars (see Rule.Interrupt) are laid out the same way in a table
+ * of their own, checked by interrupt() before anything else.
+ * Both remember their outcome in the NormalizedQuery, together with the state of the literal prefilter,
+ * so partial recognition results can be routed as they grow (see Session.interpretPartial()).
+ * The routes found are kept in a RoutingCache too, so an utterance heard before is not routed again.
+ */
+public class IntentRouter {
+    private static final String TAG = IntentRouter.class.getSimpleName();
+
+    //numbered back references would point to the wrong group once the regex is merged with others
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]");
+
+    public static final class Route {
+        public final IResponseParser parser;
+        public final Rule rule;
+        public final int order; //position of the rule in the routing order, the lower the higher its priority
+
+        Route(IResponseParser parser, Rule rule, int order) {
+            this.parser = parser;
+            this.rule = rule;
+            this.order = order;
+        }
+    }
+
+    //a run of consecutive rules matched by one combined pattern, a single rule matched on its own
+    //or a grammar not loaded yet, which takes a single position
+    private static final class Segment {
+        private final Pattern combined;
+        private final int[] groupIndexes;
+        private final int first; //position of the first rule of the segment in the routing order
+        private final Route[] routes;
+        private final LazyResponseParser lazy;
+        private final NormalizationProfile profile;
+
+        Segment(Pattern combined, int[] groupIndexes, int first, Route[] routes, NormalizationProfile profile) {
+            this.combined = combined;
+            this.groupIndexes = groupIndexes;
+            this.first = first;
+            this.routes = routes;
+            this.lazy = null;
+            this.profile = profile;
+        }
+
+        Segment(LazyResponseParser lazy, int first) {
+            this.combined = null;
+            this.groupIndexes = null;
+            this.first = first;
+            this.routes = null;
+            this.lazy = lazy;
+            this.profile = lazy.getNormalizationProfile();
+        }
+
+        Route match(String query, BitSet candidates) {
+            int next = candidates.nextSetBit(first);
+            if ((next < 0) || (next >= first + routes.length)) return null; //no rule of this segment can match
+            int after = candidates.nextSetBit(next + 1);
+            if ((combined == null) || (after < 0) || (after >= first + routes.length)) {
+                //just one candidate left: its own pattern is cheaper than the combined one
+                Route route = routes[next - first];
+                return route.rule.getMatcher(query) != null ? route : null;
+            }
+            Matcher m = combined.matcher(MatchBudget.wrap(query));
+            try {
+                if (m.matches()) {
+                    for (int i = 0; i < groupIndexes.length; i++) {
+                        if (m.start(groupIndexes[i]) != -1) return routes[i];
+                    }
+                }
+                return null;
+            } catch (MatchBudget.Exceeded e) {
+                //one at a time, each rule with its own budget: only the one backtracking out of control fails
+                for (int i = next; (i >= 0) && (i < first + routes.length); i = candidates.nextSetBit(i + 1)) {
+                    Route route = routes[i - first];
+                    if (route.rule.getMatcher(query) != null) return route;
+                }
+                return null;
+            }
+        }
+    }
+
+    //segments and literal prefilters built from the currently registered parsers
+    private static final class Table {
+        private final ArrayList<Segment> segments;
+        private final NormalizationProfile[] profiles;
+        private final LiteralIndex[] literalIndexes; //one per profile, over the positions of its rules
+        private Table interrupts; //the interrupt rules, set before the table is published
+        private final int scanKind; //which scans of the query go with this table
+
+        Table(ArrayList<Segment> segments, NormalizationProfile[] profiles, LiteralIndex[] literalIndexes, int scanKind) {
+            this.segments = segments;
+            this.profiles = profiles;
+            this.literalIndexes = literalIndexes;
+            this.scanKind = scanKind;
+        }
+
+        //the scans of the query go on from the text scanned before, if the query grew since then
+        BitSet candidates(NormalizedQuery query) {
+            LiteralIndex.Scan[] scans = query.getScans(scanKind, this, literalIndexes);
+            BitSet candidates = (BitSet) scans[0].candidates(query.get(profiles[0])).clone();
+            for (int i = 1; i < profiles.length; i++) candidates.or(scans[i].candidates(query.get(profiles[i])));
+            return candidates;
+        }
+
+        //the query as seen by the rules of this table, one normalized form per profile
+        String cacheKey(NormalizedQuery query) {
+            if (profiles.length == 1) return query.get(profiles[0]);
+            StringBuilder sb = new StringBuilder();
+            for (NormalizationProfile profile : profiles) sb.append(query.get(profile)).append('\u0000');
+            return sb.toString();
+        }
+    }
+
+    private volatile Collection<IResponseParser> mResponseParsers = new ArrayList<>();
+    private volatile Table mTable;
+    private final RoutingCache mCache = new RoutingCache();
+
+    public IntentRouter() {
+    }
+
+    //to be called every time a parser is registered or unregistered, with the new (never modified) collection
+    public synchronized void setResponseParsers(Collection<IResponseParser> responseParsers) {
+        this.mResponseParsers = responseParsers;
+        mTable = null;
+        mCache.clear();
+    }
+
+    //to be called every time a grammar is loaded or unloaded
+    public synchronized void invalidate() {
+        mTable = null;
+        mCache.clear();
+    }
+
+    public RoutingCache getRoutingCache() {
+        return mCache;
+    }
+
+    //the query is normalized here for every profile
+    public Route route(String query) {
+        return route(new NormalizedQuery(query));
+    }
+
+    //lock free unless the table has to be rebuilt, the outcome is kept with the query and in the cache
+    public Route route(NormalizedQuery query) {
+        int generation = mCache.getGeneration(); //read before the table, see RoutingCache
+        Table table = mTable;
+        if (table == null) table = build();
+        if (query.mRouteTable == table) return query.mRoute;
+        String key = table.cacheKey(query);
+        Object cached = mCache.getRoute(key);
+        Route route = null;
+        if (cached != null) {
+            if (!RoutingCache.isNoRoute(cached)) route = (Route) cached;
+        } else {
+            BitSet candidates = table.candidates(query);
+            for (Segment segment : table.segments) {
+                if (segment.lazy != null) {
+                    if (!candidates.get(segment.first)) continue; //no need to load it
+                    route = routeLoading(segment.lazy, query.get(segment.profile), segment.first);
+                } else {
+                    route = segment.match(query.get(segment.profile), candidates);
+                }
+                if (route != null) break;
+            }
+            mCache.putRoute(key, route, generation);
+        }
+        query.mRoute = route;
+        query.mRouteTable = table;
+        return route;
+    }
+
+    //the interrupt rule (see Rule.Interrupt) matching the query, checked once per turn: the outcome
+    //is kept with the query. Costs a pass of the literal automaton when no interrupt can match
+    public Route interrupt(NormalizedQuery query) {
+        Table table = mTable;
+        if (table == null) table = build();
+        Table interrupts = table.interrupts;
+        if (query.mInterruptTable == interrupts) return query.mInterrupt;
+        Route route = null;
+        if (!interrupts.segments.isEmpty()) {
+            BitSet candidates = interrupts.candidates(query);
+            for (Segment segment : interrupts.segments) {
+                route = segment.match(query.get(segment.profile), candidates);
+                if (route != null) break;
+            }
+        }
+        query.mInterrupt = route;
+        query.mInterruptTable = interrupts;
+        return route;
+    }
+
+    //the query may be routed to a grammar not loaded yet: load it and try its rules in order
+    private Route routeLoading(LazyResponseParser lazy, String query, int order) {
+        invalidate(); //its rules will be merged with the others from the next query on
+        for (Rule rule : lazy.load().getBrowsableRules()) {
+            if (rule.getMatcher(query) != null) return new Route(lazy, rule, order);
+        }
+        return null;
+    }
+
+    private synchronized Table build() {
+        if (mTable != null) return mTable; //built meanwhile by another session
+        TableBuilder routing = new TableBuilder(NormalizedQuery.ROUTING_SCANS);
+        TableBuilder interrupts = new TableBuilder(NormalizedQuery.INTERRUPT_SCANS);
+        for (IResponseParser responseParser : mResponseParsers) {
+            NormalizationProfile profile = responseParser.getNormalizationProfile();
+            if ((responseParser instanceof LazyResponseParser) && !((LazyResponseParser) responseParser).isLoaded()) {
+                routing.addLazy((LazyResponseParser) responseParser, profile);
+                continue; //its interrupt rules are checked once it is loaded
+            }
+            for (Rule rule : responseParser.getBrowsableRules()) routing.addRule(responseParser, rule, profile);
+            for (Rule rule : responseParser.getInterruptRules()) interrupts.addRule(responseParser, rule, profile);
+        }
+        Table table = routing.build();
+        table.interrupts = interrupts.build();
+        mTable = table;
+        return table;
+    }
+
+    //lays the rules out in segments, in the order they are added, and indexes their literals
+    private static final class TableBuilder {
+        private final ArrayList<Segment> segments = new ArrayList<>();
+        private final ArrayList<Route> pending = new ArrayList<>();
+        private final ArrayList<Set<String>> literals = new ArrayList<>(); //one entry per position in the routing order
+        private final ArrayList<NormalizationProfile> profiles = new ArrayList<>(); //the profile of each position
+        private NormalizationProfile pendingProfile = null;
+        private final int scanKind;
+
+        TableBuilder(int scanKind) {
+            this.scanKind = scanKind;
+        }
+
+        void addLazy(LazyResponseParser lazy, NormalizationProfile profile) {
+            flush(pending, literals.size(), segments, pendingProfile);
+            segments.add(new Segment(lazy, literals.size()));
+            literals.add(lazy.getRoutingLiterals());
+            profiles.add(profile);
+        }
+
+        void addRule(IResponseParser responseParser, Rule rule, NormalizationProfile profile) {
+            if (profile != pendingProfile) { //rules matched on differently normalized queries can't be merged
+                flush(pending, literals.size(), segments, pendingProfile);
+                pendingProfile = profile;
+            }
+            Route route = new Route(responseParser, rule, literals.size());
+            if (isMergeable(rule)) {
+                pending.add(route);
+            } else {
+                flush(pending, literals.size(), segments, profile);
+                segments.add(new Segment(null, null, literals.size(), new Route[]{route}, profile));
+            }
+            literals.add(rule.getRequiredLiterals());
+            profiles.add(profile);
+        }
+
+        //one literal prefilter per profile, the positions of the other profiles are never candidates in it
+        Table build() {
+            flush(pending, literals.size(), segments, pendingProfile);
+            ArrayList<NormalizationProfile> distinct = new ArrayList<>(new LinkedHashSet<>(profiles));
+            if (distinct.isEmpty()) distinct.add(NormalizationProfile.DEFAULT);
+            LiteralIndex[] indexes = new LiteralIndex[distinct.size()];
+            Set<String> never = new HashSet<>();
+            for (int p = 0; p < indexes.length; p++) {
+                ArrayList<Set<String>> own = new ArrayList<>(literals.size());
+                for (int i = 0; i < literals.size(); i++)
+                    own.add(profiles.get(i) == distinct.get(p) ? literals.get(i) : never);
+                indexes[p] = LiteralIndex.ofLiterals(own);
+            }
+            return new Table(segments, distinct.toArray(new NormalizationProfile[distinct.size()]), indexes, scanKind);
+        }
+    }
+
+    //a risky rule merged where the MatchBudget can't count steps would stall the whole segment unbounded
+    private static boolean isMergeable(Rule rule) {
+        if (!MatchBudget.isStepCounted() && (rule.getBacktrackingRisk() != null)) return false;
+        return !BACK_REFERENCE.matcher(rule.getPattern().standardPattern()).find();
+    }
+
+    //merge the pending routes, that end just before position end, in one segment
+    private static void flush(ArrayList<Route> pending, int end, ArrayList<Segment> segments, NormalizationProfile profile) {
+        if (pending.isEmpty()) return;
+        int first = end - pending.size();
+        StringBuilder sb = new StringBuilder();
+        int[] groupIndexes = new int[pending.size()];
+        int group = 1;
+        for (int i = 0; i < pending.size(); i++) {
+            //named-regexp already turned named groups into plain ones, so names can't clash between rules
+            String regex = pending.get(i).rule.getPattern().standardPattern();
+            if (i > 0) sb.append('|');
+            sb.append('(').append(regex).append(')');
+            groupIndexes[i] = group;
+            group += 1 + Pattern.compile(regex, profile.getRegexFlags()).matcher("").groupCount();
+        }
+        Pattern combined = null;
+        try {
+            combined = Pattern.compile(sb.toString(), profile.getRegexFlags());
+        } catch (PatternSyntaxException e) {
+            Log.e(TAG, "Rules could not be merged in a single pattern, they will be matched one by one: " + e.getMessage());
+        }
+        if (combined != null) {
+            segments.add(new Segment(combined, groupIndexes, first, pending.toArray(new Route[pending.size()]), profile));
+        } else {
+            for (int i = 0; i < pending.size(); i++)
+                segments.add(new Segment(null, null, first + i, new Route[]{pending.get(i)}, profile));
+        }
+        pending.clear();
+    }
+}
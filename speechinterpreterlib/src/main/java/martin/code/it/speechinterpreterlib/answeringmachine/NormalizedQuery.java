@@ -0,0 +1,102 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import java.util.Arrays;
+
+import martin.code.it.speechinterpreterlib.grammar.NormalizationProfile;
+import martin.code.it.speechinterpreterlib.metrics.Metrics;
+import martin.code.it.speechinterpreterlib.rules.LiteralIndex;
+
+/**
+ * A query as typed or recognized, and its normalized forms: each one is computed the first time a grammar
+ * with that profile needs it, so a turn normalizes the query once per distinct profile (usually once).
+ * Reused turn after turn by its session. It also keeps what IntentRouter found for it and the literal
+ * scans of the routing tables, so a query growing through partial recognition results is scanned
+ * incrementally and a final result equal to the last partial one is not routed again.
+ */
+public final class NormalizedQuery {
+
+    private String mRaw;
+    private NormalizationProfile[] mProfiles = new NormalizationProfile[2];
+    private String[] mTexts = new String[2];
+    private int mCount;
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    //outcome of IntentRouter.interrupt() and route() for this query, valid for the table they were found in
+    Object mInterruptTable;
+    IntentRouter.Route mInterrupt;
+    Object mRouteTable;
+    IntentRouter.Route mRoute;
+
+    //literal scans of the routing and of the interrupt table, see IntentRouter
+    static final int ROUTING_SCANS = 0;
+    static final int INTERRUPT_SCANS = 1;
+    private final Object[] mScanTables = new Object[2];
+    private final LiteralIndex.Scan[][] mScans = new LiteralIndex.Scan[2][];
+
+    public NormalizedQuery() {
+    }
+
+    public NormalizedQuery(String raw) {
+        reset(raw);
+    }
+
+    //the same query again keeps everything found so far, the scans are kept anyway
+    public void reset(String raw) {
+        if ((raw != null) && raw.equals(mRaw)) return;
+        this.mRaw = raw;
+        Arrays.fill(mTexts, 0, mCount, null);
+        mCount = 0;
+        mInterruptTable = null;
+        mInterrupt = null;
+        mRouteTable = null;
+        mRoute = null;
+    }
+
+    public String getRaw() {
+        return mRaw;
+    }
+
+    public String get(NormalizationProfile profile) {
+        for (int i = 0; i < mCount; i++) {
+            if (mProfiles[i] == profile) return mTexts[i];
+        }
+        long start = Metrics.start();
+        mBuilder.setLength(0);
+        profile.normalize(mRaw, mBuilder);
+        String text = mBuilder.toString();
+        Metrics.stop(Metrics.Stage.NORMALIZE, start);
+        if (mCount == mProfiles.length) {
+            mProfiles = Arrays.copyOf(mProfiles, mCount * 2);
+            mTexts = Arrays.copyOf(mTexts, mCount * 2);
+        }
+        mProfiles[mCount] = profile;
+        mTexts[mCount++] = text;
+        return text;
+    }
+
+    //the scans of the given kind over the indexes of table, new ones if the table is not the last one used
+    LiteralIndex.Scan[] getScans(int kind, Object table, LiteralIndex[] indexes) {
+        if (mScanTables[kind] != table) {
+            LiteralIndex.Scan[] scans = new LiteralIndex.Scan[indexes.length];
+            for (int i = 0; i < indexes.length; i++) scans[i] = indexes[i].newScan();
+            mScans[kind] = scans;
+            mScanTables[kind] = table;
+        }
+        return mScans[kind];
+    }
+}
@@ -0,0 +1,205 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * Bounded LRU cache of what the normalized utterances turned out to be, shared by all the sessions:
+ * outside of a dialogue, the route IntentRouter found for them; in a dialogue, the values of the named
+ * groups the rule in charge extracted from them. Real traffic repeats the same few utterances over and over,
+ * and these are answered without running any regex.
+ * The entries are spread over SEGMENTS segments by hash, each an LRU with its own lock and an equal share
+ * of the size, so the sessions don't queue up on a single monitor; the least recently used utterance is
+ * evicted from its segment, not from the whole cache.
+ * Cleared every time a grammar is registered, unregistered, loaded or unloaded; what was being computed
+ * meanwhile is not stored. The hit and miss counters help to size it (see setMaxSize()).
+ */
+public final class RoutingCache {
+
+    public static final int DEFAULT_MAX_SIZE = 512;
+    static final int SEGMENTS = 16;
+
+    private static final Object NO_ROUTE = new Object();
+    private static final String[] NO_MATCH = new String[0];
+
+    private static final class Key {
+        private final Object context; //the rule in charge of the dialogue, null when routing
+        private final String text;
+        private final int hash;
+
+        Key(Object context, String text) {
+            this.context = context;
+            this.text = text;
+            this.hash = 31 * System.identityHashCode(context) + text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return (context == other.context) && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    //guarded by itself
+    private static final class Segment extends LinkedHashMap<Key, Object> {
+        private static final long serialVersionUID = 1L;
+        private int mMaxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.mMaxSize = maxSize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.mMaxSize = maxSize;
+            while (size() > maxSize) {
+                remove(keySet().iterator().next());
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > mMaxSize;
+        }
+    }
+
+    private final Segment[] mSegments = new Segment[SEGMENTS];
+    private volatile int mMaxSize = DEFAULT_MAX_SIZE;
+    //bumped before the segments are emptied, read by the stores under the lock of their segment
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    RoutingCache() {
+        for (int i = 0; i < SEGMENTS; i++) mSegments[i] = new Segment(segmentSize(DEFAULT_MAX_SIZE));
+    }
+
+    //0 disables the cache; each segment keeps up to maxSize / SEGMENTS entries, rounded up
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("The size of the cache can't be negative");
+        this.mMaxSize = maxSize;
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                segment.setMaxSize(segmentSize(maxSize));
+            }
+        }
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public void clear() {
+        mGeneration.incrementAndGet();
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    //the values of the named groups of the rule in the query (see Rule.extract()), null if it doesn't
+    //match. The array is shared, never modify it
+    public String[] extract(Rule rule, String query) {
+        Key key = new Key(rule, query);
+        int generation = mGeneration.get();
+        Object cached = lookup(key);
+        if (cached != null) return cached == NO_MATCH ? null : (String[]) cached;
+        String[] values = rule.extract(query);
+        store(key, values != null ? values : NO_MATCH, generation);
+        return values;
+    }
+
+    //the generation to pass to putRoute(), to be read before the routing table
+    int getGeneration() {
+        return mGeneration.get();
+    }
+
+    //null if not cached, check with isNoRoute()
+    Object getRoute(String text) {
+        return lookup(new Key(null, text));
+    }
+
+    static boolean isNoRoute(Object cached) {
+        return cached == NO_ROUTE;
+    }
+
+    void putRoute(String text, IntentRouter.Route route, int generation) {
+        store(new Key(null, text), route != null ? route : NO_ROUTE, generation);
+    }
+
+    private static int segmentSize(int maxSize) {
+        return (maxSize + SEGMENTS - 1) / SEGMENTS;
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.hash;
+        h ^= (h >>> 16);
+        return mSegments[(h ^ (h >>> 4)) & (SEGMENTS - 1)];
+    }
+
+    //a disabled cache counts neither hits nor misses, so the counters only measure the lookups it served
+    private Object lookup(Key key) {
+        if (mMaxSize <= 0) return null;
+        Object value;
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) mHits.incrementAndGet();
+        else mMisses.incrementAndGet();
+        return value;
+    }
+
+    //dropped if the cache was cleared since the value started being computed: clear() bumps the generation
+    //before it empties this segment under the same lock, so a stale value is either refused here or removed
+    private void store(Key key, Object value, int generation) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            if ((generation == mGeneration.get()) && (mMaxSize > 0)) segment.put(key, value);
+        }
+    }
+}
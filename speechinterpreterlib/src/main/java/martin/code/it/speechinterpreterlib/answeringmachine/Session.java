@@ -0,0 +1,699 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import martin.code.it.speechinterpreterlib.baseresponseparsers.CommonResponseParser;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.IResponseParser;
+import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
+import martin.code.it.speechinterpreterlib.exceptions.NullRuleException;
+import martin.code.it.speechinterpreterlib.metrics.Metrics;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * The dialogue state of one conversation: whether a dialogue is running, the parser in charge of it and,
+ * per parser, the results collected so far. Grammars, rules and patterns are shared by all the sessions of
+ * an AnsweringMachine and are never written while answering, so sessions can run on different threads
+ * without locking. A single session must be used by one thread at a time.
+ * While a session is answering it is bound to the calling thread, that's how the response parsers find
+ * their state (see AnsweringMachine.getCurrentSession()).
+ * An idle session can be passivated: its state is written to a SessionStore and dropped from the heap,
+ * and it is restored transparently on its next use (see passivate() and AnsweringMachine.setPassivation).
+ */
+public class Session {
+    private static final String TAG = Session.class.getSimpleName();
+
+    private static final ThreadLocal<Session> sBoundSession = new ThreadLocal<>();
+
+    //status of the session: it moves to IN_USE only from IDLE or PASSIVE, so a session is never passivated
+    //while answering
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+    private static final int PASSIVATING = 2;
+    private static final int PASSIVE = 3;
+
+    //score of each result a hypothesis gives, on top of its confidence (see answer(List))
+    private static final float SLOT_WEIGHT = 0.1f;
+    //from this number of hypotheses on, all but the first are routed in parallel
+    private static final int PARALLEL_HYPOTHESES = 4;
+
+    private final AnsweringMachine mAnsweringMachine;
+    private final String mId;
+    private boolean isConversationRunning = false;
+    private IResponseParser mCurrentResponseParser;
+    private DialogueResult mResult;
+    private final DialogueResult mInterruptResult = new DialogueResult(); //the answer to resume interrupts
+    private NormalizedQuery mQuery = new NormalizedQuery();
+    private NormalizedQuery[] mHypothesisQueries = new NormalizedQuery[0]; //see answer(List)
+    //turns waiting for answerAsync(), and the one running
+    private final ArrayDeque<Turn> mTurns = new ArrayDeque<>();
+    private Turn mRunningTurn;
+    //weak keys: the state of a lazily loaded grammar goes away with the grammar once unloaded
+    private final Map<IResponseParser, Object> mParserStates = new WeakHashMap<>();
+    private final AtomicInteger mStatus = new AtomicInteger(IDLE);
+    private volatile long mLastUse; //end of the last use, 0 if never used
+    private volatile SessionStore mStore; //where the session was passivated
+    private final Object mSnapshotLock = new Object();
+    private int mSnapshots; //written by this session, so that an old one is never removed after a new one is written
+
+    Session(AnsweringMachine answeringMachine, String id) {
+        this.mAnsweringMachine = answeringMachine;
+        this.mId = id;
+        this.mCurrentResponseParser = answeringMachine.getCommonResponseParser();
+    }
+
+    //the session answering on the calling thread, null if none
+    static Session getBound() {
+        return sBoundSession.get();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public boolean isConversationRunning() {
+        return isConversationRunning;
+    }
+
+    public boolean isPassive() {
+        return mStatus.get() == PASSIVE;
+    }
+
+    //System.nanoTime() at the end of the last use, 0 if never used
+    long getLastUse() {
+        return mLastUse;
+    }
+
+    public Object getParserState(IResponseParser responseParser) {
+        return mParserStates.get(responseParser);
+    }
+
+    public void setParserState(IResponseParser responseParser, Object state) {
+        mParserStates.put(responseParser, state);
+    }
+
+    public DialogueResult answer(String query) throws EmptyMessageSetException, NullRuleException {
+        Session previous = bind();
+        try {
+            mQuery.reset(query); //normalized once per grammar profile, already routed if seen by interpretPartial()
+            return answerQuery();
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Answers on the executor of the AnsweringMachine instead of the calling thread. The turns of a session
+     * run one at a time in the order they were asked, each one once the previous is over, and the callback
+     * (may be null) is called before the next one starts. The result is a copy, it is not reused.
+     * A turn cancelled through its Future before starting is skipped; once started it runs to the end.
+     * Don't mix with the blocking methods while turns are pending.
+     */
+    public Future<DialogueResult> answerAsync(String query, IAnswerCallback callback) {
+        Turn turn = new Turn(query, callback);
+        synchronized (mTurns) {
+            mTurns.addLast(turn);
+            if (mRunningTurn == null) runNextTurn();
+        }
+        return turn;
+    }
+
+    //a newer utterance replacing the ones still pending, e.g. repeated by the user before getting the answer:
+    //the turns not started yet are cancelled, the one running (if any) ends as usual
+    public Future<DialogueResult> replaceAsync(String query, IAnswerCallback callback) {
+        synchronized (mTurns) {
+            for (Turn turn : mTurns) turn.cancel(false);
+            mTurns.clear();
+        }
+        return answerAsync(query, callback);
+    }
+
+    //to be called holding mTurns
+    private void runNextTurn() {
+        Turn next;
+        do {
+            next = mTurns.pollFirst();
+        } while ((next != null) && next.isCancelled());
+        mRunningTurn = next;
+        if (next == null) return;
+        final Turn turn = next;
+        try {
+            mAnsweringMachine.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    turn.run();
+                    synchronized (mTurns) {
+                        runNextTurn();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            turn.fail(e);
+            runNextTurn();
+        }
+    }
+
+    private final class Turn extends FutureTask<DialogueResult> {
+        private final String mQuery;
+        private final IAnswerCallback mCallback;
+
+        Turn(final String query, IAnswerCallback callback) {
+            super(new Callable<DialogueResult>() {
+                @Override
+                public DialogueResult call() throws Exception {
+                    return new DialogueResult(answer(query));
+                }
+            });
+            this.mQuery = query;
+            this.mCallback = callback;
+        }
+
+        void fail(Exception e) {
+            setException(e);
+        }
+
+        @Override
+        protected void done() {
+            if ((mCallback == null) || isCancelled()) return;
+            DialogueResult result;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                mCallback.onError(Session.this, mQuery, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                return;
+            } catch (InterruptedException e) {
+                return; //can't happen, the turn is over
+            }
+            mCallback.onAnswer(Session.this, mQuery, result);
+        }
+    }
+
+    /**
+     * Answers with the best of the alternative transcripts of an utterance. Every hypothesis is matched
+     * without side effects, in parallel when they are many: against the interrupt rules and then against
+     * the rule in charge of the dialogue or, if none is running, against the rules of all the grammars.
+     * The understood hypotheses are scored by their confidence plus SLOT_WEIGHT for each result they give,
+     * ties go to the rule with the higher priority (interrupts first, then routing order) and then to the
+     * first in the list. If none is understood the most confident one is answered. Only the winner is
+     * answered, so it is the only one changing the dialogue.
+     */
+    public DialogueResult answer(List<Hypothesis> hypotheses) throws EmptyMessageSetException, NullRuleException {
+        if (hypotheses.isEmpty()) throw new IllegalArgumentException("At least one hypothesis is needed");
+        Session previous = bind();
+        try {
+            int count = hypotheses.size();
+            if (mHypothesisQueries.length < count) {
+                int i = mHypothesisQueries.length;
+                mHypothesisQueries = Arrays.copyOf(mHypothesisQueries, count);
+                for (; i < count; i++) mHypothesisQueries[i] = new NormalizedQuery();
+            }
+            for (int i = 0; i < count; i++) mHypothesisQueries[i].reset(hypotheses.get(i).getText());
+            routeHypotheses(count);
+            IntentRouter router = mAnsweringMachine.getIntentRouter();
+            int best = -1;
+            float bestScore = 0f;
+            int bestOrder = 0;
+            for (int i = 0; i < count; i++) {
+                NormalizedQuery query = mHypothesisQueries[i];
+                int filled;
+                int order;
+                IntentRouter.Route route = router.interrupt(query);
+                if (route != null) {
+                    filled = 0;
+                    order = -1;
+                } else if (isConversationRunning) {
+                    filled = mCurrentResponseParser.evaluateQuery(query.get(mCurrentResponseParser.getNormalizationProfile()));
+                    order = 0;
+                } else {
+                    route = router.route(query);
+                    filled = route == null ? -1 : route.rule.countFilledGroups(query.get(route.parser.getNormalizationProfile()));
+                    order = route == null ? 0 : route.order;
+                }
+                if (filled < 0) continue; //not understood
+                float score = hypotheses.get(i).getConfidence() + SLOT_WEIGHT * filled;
+                if ((best < 0) || (score > bestScore) || ((score == bestScore) && (order < bestOrder))) {
+                    best = i;
+                    bestScore = score;
+                    bestOrder = order;
+                }
+            }
+            if (best < 0) {
+                best = 0;
+                for (int i = 1; i < count; i++) {
+                    if (hypotheses.get(i).getConfidence() > hypotheses.get(best).getConfidence()) best = i;
+                }
+            }
+            //the winner becomes the query of the turn, with all that was found for it
+            NormalizedQuery winner = mHypothesisQueries[best];
+            mHypothesisQueries[best] = mQuery;
+            mQuery = winner;
+            return answerQuery();
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    //interrupts and routes of the hypotheses are kept in their queries: the first ones are done on the
+    //calling thread, the others by the executor of the AnsweringMachine. The caller runs itself the ones
+    //not started yet when it's done, so a busy executor (e.g. answering async turns) can't stall it
+    private void routeHypotheses(int count) {
+        final IntentRouter router = mAnsweringMachine.getIntentRouter();
+        final boolean routing = !isConversationRunning;
+        int serial = count < PARALLEL_HYPOTHESES ? count : 1;
+        ArrayList<FutureTask<Void>> tasks = null;
+        if (serial < count) {
+            tasks = new ArrayList<>(count - serial);
+            ExecutorService executor = mAnsweringMachine.getExecutor();
+            for (int i = serial; i < count; i++) {
+                final NormalizedQuery query = mHypothesisQueries[i];
+                FutureTask<Void> task = new FutureTask<>(new Runnable() {
+                    @Override
+                    public void run() {
+                        //a grammar loaded while routing resets its state in the session bound to the thread:
+                        //a scratch one, this session is never touched by other threads
+                        Session scratch = new Session(mAnsweringMachine, mId);
+                        Session previous = scratch.bind();
+                        try {
+                            if ((router.interrupt(query) == null) && routing) router.route(query);
+                        } finally {
+                            scratch.unbind(previous);
+                        }
+                    }
+                }, null);
+                tasks.add(task);
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    //run below by the caller
+                }
+            }
+        }
+        for (int i = 0; i < serial; i++) {
+            if ((router.interrupt(mHypothesisQueries[i]) == null) && routing) router.route(mHypothesisQueries[i]);
+        }
+        if (tasks == null) return;
+        boolean interrupted = false;
+        Throwable failure = null;
+        for (FutureTask<Void> task : tasks) {
+            task.run(); //nothing if already started
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; //the queries can't be read before the workers are done with them
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure != null) throw new IllegalStateException(failure);
+    }
+
+    //the rest of a turn, once mQuery holds the query of the user
+    private DialogueResult answerQuery() throws EmptyMessageSetException, NullRuleException {
+        IntentRouter router = mAnsweringMachine.getIntentRouter();
+        long start = Metrics.start();
+        IntentRouter.Route interrupt = router.interrupt(mQuery);
+        if (interrupt != null) {
+            Metrics.stop(Metrics.Stage.ROUTE, start);
+            Metrics.ruleHit(interrupt.rule);
+            return runInterrupt(interrupt);
+        }
+        if (!isConversationRunning) {
+            mCurrentResponseParser = mAnsweringMachine.getCommonResponseParser(); //a reloaded one, if any
+            IntentRouter.Route route = router.route(mQuery);
+            if (route != null) {
+                route.parser.selectRule(route.rule, mQuery.get(route.parser.getNormalizationProfile()));
+                isConversationRunning = true;
+            } else Metrics.notUnderstood();
+        } else mCurrentResponseParser.setQuery(mQuery.get(mCurrentResponseParser.getNormalizationProfile()));
+        Metrics.stop(Metrics.Stage.ROUTE, start);
+        mResult = mCurrentResponseParser.answer();
+        mAnsweringMachine.trimLoadedGrammars(this);
+        return mResult;
+    }
+
+    //speculative interpretation of a partial recognition result, the dialogue is left untouched: the
+    //interrupt or the rule the query would be routed to, null if none or if the running dialogue will
+    //take it. The work done here is kept, so when the final result equals the last partial one answer()
+    //goes straight to the rule, and when it extends it only the new chars are scanned for literals
+    public IntentRouter.Route interpretPartial(String partialQuery) {
+        Session previous = bind();
+        try {
+            mQuery.reset(partialQuery);
+            IntentRouter router = mAnsweringMachine.getIntentRouter();
+            IntentRouter.Route interrupt = router.interrupt(mQuery);
+            if (interrupt != null) return interrupt;
+            return isConversationRunning ? null : router.route(mQuery);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    //quit drops the running dialogue and runs the rule, resume answers with the rule's message and keeps
+    //the dialogue where it was, repeat gives the last answer again (or behaves like resume if none)
+    private DialogueResult runInterrupt(IntentRouter.Route route) throws EmptyMessageSetException, NullRuleException {
+        Rule rule = route.rule;
+        switch (rule.getInterrupt()) {
+            case QUIT:
+                reset();
+                mAnsweringMachine.getCommonResponseParser().reset();
+                route.parser.findRuleByName(rule.getName());
+                isConversationRunning = true;
+                mResult = mCurrentResponseParser.runRule(rule.getName());
+                mAnsweringMachine.trimLoadedGrammars(this);
+                return mResult;
+            case REPEAT:
+                return mResult != null ? mResult : resume(rule);
+            default:
+                return resume(rule);
+        }
+    }
+
+    //the message of the interrupt rule, then the dialogue goes on where it was
+    private DialogueResult resume(Rule rule) throws EmptyMessageSetException {
+        String message = rule.getMessageTemplate(Rule.NO_KEY_MASK, null).getBody();
+        mInterruptResult.clear();
+        mInterruptResult.setMessage(message);
+        mInterruptResult.setResult(message);
+        mInterruptResult.setEnding(isConversationRunning && (mResult != null) && mResult.isPrompt()
+                ? DialogueResult.Ending.PROMPT : DialogueResult.Ending.SPEAK);
+        return mInterruptResult;
+    }
+
+    public DialogueResult runRule(String ruleName, String... params) throws NullRuleException, EmptyMessageSetException {
+        Session previous = bind();
+        try {
+            if (!isConversationRunning) {
+                mCurrentResponseParser = mAnsweringMachine.getCommonResponseParser();
+                for (IResponseParser responseParser : mAnsweringMachine.getResponseParsers()) {
+                    if (responseParser.findRuleByName(ruleName)) {
+                        isConversationRunning = true;
+                        break;
+                    }
+                }
+            }
+            mResult = mCurrentResponseParser.runRule(ruleName);
+            mAnsweringMachine.trimLoadedGrammars(this);
+            return mResult;
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    public DialogueResult runStartingPrompt() throws NullRuleException, EmptyMessageSetException {
+        Session previous = bind();
+        try {
+            DialogueResult b = runRule(CommonResponseParser.COMMON_PROMPT);
+            reset();
+            mAnsweringMachine.getCommonResponseParser().reset();
+            return b;
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    public DialogueResult runGreetAnnounce() throws NullRuleException, EmptyMessageSetException {
+        Session previous = bind();
+        try {
+            DialogueResult b = runRule(CommonResponseParser.LEAVE_GREETING);
+            reset();
+            mAnsweringMachine.getCommonResponseParser().reset();
+            return b;
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    public DialogueResult runNotUnderstood() throws NullRuleException, EmptyMessageSetException {
+        Session previous = bind();
+        try {
+            Metrics.notUnderstood();
+            reset();
+            mAnsweringMachine.getCommonResponseParser().reset();
+            return runRule(CommonResponseParser.NOT_UNDERSTOOD);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    public DialogueResult runQuitSequence() throws EmptyMessageSetException, NullRuleException {
+        Session previous = bind();
+        try {
+            reset();
+            mAnsweringMachine.getCommonResponseParser().reset();
+            return runRule(CommonResponseParser.QUIT);
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    public void setCurrentResponseParser(IResponseParser responseParser) {
+        mCurrentResponseParser = responseParser;
+    }
+
+    IResponseParser getCurrentResponseParser() {
+        return mCurrentResponseParser;
+    }
+
+    public void reset() {
+        Session previous = bind();
+        try {
+            isConversationRunning = false;
+            mCurrentResponseParser.reset();
+            mCurrentResponseParser = mAnsweringMachine.getCommonResponseParser();
+        } finally {
+            unbind(previous);
+        }
+    }
+
+    /**
+     * Writes the state of the dialogue to the SessionStore of the AnsweringMachine and drops it from the heap,
+     * the next use of the session restores it. The snapshot names the parsers by grammar and the rules and
+     * groups by their ids (see SlotPlan), so it is a few bytes per result collected. A grammar reloaded with
+     * other rules meanwhile loses its part of the state, and the dialogue it was running starts over.
+     * False if the session is answering or the snapshot could not be written, nothing changes then.
+     */
+    public boolean passivate() {
+        SessionStore store = mAnsweringMachine.getSessionStore();
+        if (store == null) throw new IllegalStateException("No SessionStore, see AnsweringMachine.setPassivation");
+        return passivate(store);
+    }
+
+    boolean passivate(SessionStore store) {
+        if (!mStatus.compareAndSet(IDLE, PASSIVATING)) return false;
+        Session previous = attach(); //the parsers write the state of the session bound to the thread
+        try {
+            byte[] snapshot = writeSnapshot();
+            synchronized (mSnapshotLock) {
+                mSnapshots++;
+                store.save(mId, snapshot);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Session " + mId + " could not be passivated in " + store + ": " + e.getMessage());
+            mStatus.set(IDLE);
+            return false;
+        } finally {
+            detach(previous);
+        }
+        mParserStates.clear();
+        mResult = null;
+        mQuery = new NormalizedQuery();
+        mHypothesisQueries = new NormalizedQuery[0];
+        mCurrentResponseParser = mAnsweringMachine.getCommonResponseParser();
+        mStore = store;
+        mStatus.set(PASSIVE);
+        return true;
+    }
+
+    //a session never used yet starts from the snapshot of its id, i.e. left in the store by a previous run
+    void markPassive(SessionStore store) {
+        if (mLastUse != 0) return;
+        mStore = store;
+        mStatus.compareAndSet(IDLE, PASSIVE);
+    }
+
+    private byte[] writeSnapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        DataOutputStream stateOut = new DataOutputStream(state);
+        out.writeByte(SessionSnapshot.VERSION);
+        out.writeBoolean(isConversationRunning);
+        SessionSnapshot.writeString(out, mCurrentResponseParser.getGrammarName());
+        ArrayList<IResponseParser> parsers = new ArrayList<>(mParserStates.keySet());
+        SessionSnapshot.writeVarInt(out, parsers.size());
+        for (IResponseParser rp : parsers) { //each state after its size, so an unknown grammar can be skipped
+            state.reset();
+            rp.writeState(stateOut);
+            stateOut.flush();
+            SessionSnapshot.writeString(out, rp.getGrammarName());
+            SessionSnapshot.writeVarInt(out, state.size());
+            state.writeTo(out);
+        }
+        out.writeBoolean(mResult != null);
+        if (mResult != null) SessionSnapshot.writeResult(out, mResult);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    //on the thread the session is bound to, before it answers. The snapshot read is removed by the
+    //executor of the AnsweringMachine: deleting a file just synced may take longer than the restore
+    private void restore() {
+        long start = Metrics.start();
+        final SessionStore store = mStore;
+        mStore = null;
+        try {
+            byte[] snapshot = store.read(mId);
+            if (snapshot != null) {
+                removeSnapshot(store);
+                readSnapshot(snapshot);
+            }
+        } catch (IOException e) {
+            startOver(store, e);
+        } catch (RuntimeException e) { //i.e. a grammar of the dialogue failing to load
+            startOver(store, e);
+        }
+        Metrics.stop(Metrics.Stage.SESSION_RESTORE, start);
+    }
+
+    private void removeSnapshot(final SessionStore store) {
+        final int read;
+        synchronized (mSnapshotLock) {
+            read = mSnapshots;
+        }
+        Runnable remove = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mSnapshotLock) {
+                    if (mSnapshots == read) store.remove(mId); //not passivated again meanwhile
+                }
+            }
+        };
+        try {
+            mAnsweringMachine.getExecutor().execute(remove);
+        } catch (RejectedExecutionException e) {
+            remove.run();
+        }
+    }
+
+    private void startOver(SessionStore store, Exception e) {
+        Log.w(TAG, "Session " + mId + " could not be restored from " + store + ", it starts over: " + e.getMessage());
+        mParserStates.clear();
+        isConversationRunning = false;
+        mCurrentResponseParser = mAnsweringMachine.getCommonResponseParser();
+        mResult = null;
+    }
+
+    private void readSnapshot(byte[] snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        if (in.readUnsignedByte() != SessionSnapshot.VERSION) throw new IOException("Not a session snapshot of the current version");
+        boolean running = in.readBoolean();
+        String current = SessionSnapshot.readString(in);
+        IResponseParser inCharge = null;
+        int count = SessionSnapshot.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            String grammarName = SessionSnapshot.readString(in);
+            byte[] state = new byte[SessionSnapshot.readVarInt(in)];
+            in.readFully(state);
+            IResponseParser rp = findResponseParser(grammarName);
+            IResponseParser holder = rp == null ? null : rp.readState(new DataInputStream(new ByteArrayInputStream(state)));
+            if (holder == null) {
+                Log.v(TAG, "Session " + mId + ": the state of " + grammarName + " doesn't fit the grammar loaded, dropped");
+                continue;
+            }
+            if (grammarName.equals(current)) inCharge = holder;
+        }
+        if (in.readBoolean()) {
+            mResult = new DialogueResult();
+            SessionSnapshot.readResult(in, mResult);
+        } else mResult = null;
+        isConversationRunning = running && (inCharge != null);
+        mCurrentResponseParser = inCharge != null ? inCharge : mAnsweringMachine.getCommonResponseParser();
+    }
+
+    private IResponseParser findResponseParser(String grammarName) {
+        for (IResponseParser rp : mAnsweringMachine.getResponseParsers()) {
+            if (rp.getGrammarName().equals(grammarName)) return rp;
+        }
+        return null;
+    }
+
+    //bind this session to the calling thread, returns the one bound before (sessions may be nested).
+    //A passivated session is restored here
+    private Session bind() {
+        Session previous = attach();
+        if (previous != this) enter();
+        return previous;
+    }
+
+    private void unbind(Session previous) {
+        if (previous == this) return;
+        mLastUse = System.nanoTime();
+        mStatus.set(IDLE);
+        detach(previous);
+    }
+
+    private void enter() {
+        while (true) {
+            int status = mStatus.get();
+            if (status == PASSIVATING) {
+                Thread.yield(); //the snapshot is being written, it will be read back at once
+                continue;
+            }
+            if (!mStatus.compareAndSet(status, IN_USE)) continue;
+            if (status == PASSIVE) restore();
+            return;
+        }
+    }
+
+    private Session attach() {
+        Session previous = sBoundSession.get();
+        if (previous != this) sBoundSession.set(this);
+        return previous;
+    }
+
+    private void detach(Session previous) {
+        if (previous == this) return;
+        if (previous == null) sBoundSession.remove(); //don't leave anything behind on pooled threads
+        else sBoundSession.set(previous);
+    }
+}
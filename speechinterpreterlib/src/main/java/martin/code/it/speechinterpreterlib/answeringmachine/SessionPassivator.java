@@ -0,0 +1,93 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passivates the sessions of an AnsweringMachine idle for longer than a timeout (see
+ * AnsweringMachine.setPassivation). The sessions are held weakly: one dropped by its owner is not kept
+ * alive here. The check runs on a daemon thread twice per timeout.
+ */
+final class SessionPassivator {
+    private static final String TAG = SessionPassivator.class.getSimpleName();
+
+    private final SessionStore mStore;
+    private final long mIdleNanos;
+    private final Map<Session, Boolean> mSessions = new WeakHashMap<>();
+    private final ScheduledExecutorService mTimer; //null if passivating only on request
+
+    SessionPassivator(SessionStore store, long idleMillis) {
+        this.mStore = store;
+        this.mIdleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        if (idleMillis <= 0) {
+            mTimer = null;
+            return;
+        }
+        mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(idleMillis / 2, 1);
+        mTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                passivate(mIdleNanos);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    SessionStore getStore() {
+        return mStore;
+    }
+
+    synchronized void track(Session session) {
+        mSessions.put(session, Boolean.TRUE);
+        if (mStore.contains(session.getId())) session.markPassive(mStore);
+    }
+
+    //the sessions used at least once and idle since idleNanos, returns how many were passivated
+    int passivate(long idleNanos) {
+        ArrayList<Session> sessions;
+        synchronized (this) {
+            sessions = new ArrayList<>(mSessions.keySet());
+        }
+        long now = System.nanoTime();
+        int passivated = 0;
+        for (Session session : sessions) {
+            long lastUse = session.getLastUse();
+            if ((lastUse != 0) && (now - lastUse >= idleNanos) && session.passivate(mStore)) passivated++;
+        }
+        if (passivated > 0) Log.v(TAG, passivated + " sessions passivated in " + mStore);
+        return passivated;
+    }
+
+    void stop() {
+        if (mTimer != null) mTimer.shutdown();
+    }
+}
@@ -0,0 +1,104 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * The encoding of the session snapshots written by Session.passivate(): variable length ints, strings
+ * that may be null and dialogue results. The response parsers use it to write their part of the state.
+ */
+public final class SessionSnapshot {
+
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //DialogueResult flags: the ending ordinal + 1 (0 for none), then isPrequel
+    private static final int ENDING_MASK = 3;
+    private static final int PREQUEL = 4;
+
+    private SessionSnapshot() {
+    }
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupted session snapshot, varint too long");
+    }
+
+    //UTF-8 bytes after their count + 1, 0 for null
+    public static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    public static void writeResult(DataOutput out, DialogueResult result) throws IOException {
+        int flags = result.getEnding() == null ? 0 : result.getEnding().ordinal() + 1;
+        if (result.isPrequel()) flags |= PREQUEL;
+        out.writeByte(flags);
+        writeString(out, result.getResult());
+        writeString(out, result.getMessage());
+        writeString(out, result.getPrequel());
+        writeString(out, result.getNextRule());
+        writeVarInt(out, result.getPlaceholders().size());
+        for (String placeholder : result.getPlaceholders()) writeString(out, placeholder);
+    }
+
+    //into result, replacing what it held
+    public static void readResult(DataInput in, DialogueResult result) throws IOException {
+        result.clear();
+        int flags = in.readUnsignedByte();
+        int ending = flags & ENDING_MASK;
+        if (ending > DialogueResult.Ending.values().length) throw new IOException("Corrupted session snapshot, unknown ending " + ending);
+        result.setEnding(ending == 0 ? null : DialogueResult.Ending.values()[ending - 1]);
+        result.setIsPrequel((flags & PREQUEL) != 0);
+        result.setResult(readString(in));
+        result.setMessage(readString(in));
+        result.setPrequel(readString(in));
+        result.setNextRule(readString(in));
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) result.getPlaceholders().add(readString(in));
+    }
+}
@@ -0,0 +1,120 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import android.content.Context;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * A directory holding the snapshots of the passivated sessions, one file per session id.
+ * A snapshot is there only while its session is passivated: it is removed once the session is restored,
+ * in the background, so a crash right after a restore may leave it behind. Snapshots are written to a
+ * temporary file and then renamed, so a crash leaves either the old one or the new one.
+ * See AnsweringMachine.setPassivation.
+ */
+public class SessionStore {
+
+    public static final String EXTENSION = ".session";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final File mDir;
+
+    public SessionStore(File dir) {
+        this.mDir = dir;
+    }
+
+    //the "sessions" directory among the private files of the app
+    public static SessionStore inFilesDir(Context context) {
+        return new SessionStore(new File(context.getFilesDir(), "sessions"));
+    }
+
+    public File getDirectory() {
+        return mDir;
+    }
+
+    public boolean contains(String sessionId) {
+        return file(sessionId).isFile();
+    }
+
+    public void remove(String sessionId) {
+        file(sessionId).delete();
+    }
+
+    void save(String sessionId, byte[] snapshot) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) throw new IOException("Cannot create " + mDir);
+        File file = file(sessionId);
+        File temp = new File(mDir, file.getName() + TEMP_EXTENSION);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(snapshot);
+            out.getFD().sync();
+        } finally {
+            close(out);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+    }
+
+    //the snapshot of the session, null if there is none
+    byte[] read(String sessionId) throws IOException {
+        File file = file(sessionId);
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            byte[] snapshot = new byte[(int) file.length()];
+            in.readFully(snapshot);
+            return snapshot;
+        } finally {
+            close(in);
+        }
+    }
+
+    private File file(String sessionId) {
+        try {
+            return new File(mDir, URLEncoder.encode(sessionId, "UTF-8") + EXTENSION);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); //UTF-8 is always there
+        }
+    }
+
+    private static void close(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            //nothing to do, what was read or written is complete
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mDir.toString();
+    }
+}
@@ -16,71 +16,102 @@
 package martin.code.it.speechinterpreterlib.baseresponseparsers;
 
 import android.content.Context;
-import android.content.res.AssetManager;
-import android.os.Bundle;
 import android.util.Log;
 
 import com.google.code.regexp.Matcher;
 
-import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
 
 import code.martin.it.eventbuswrapper.EventbusObject;
 import martin.code.it.maps.MultiLinkedHashMap;
 import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
+import martin.code.it.speechinterpreterlib.answeringmachine.Session;
+import martin.code.it.speechinterpreterlib.answeringmachine.SessionSnapshot;
 import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
 import martin.code.it.speechinterpreterlib.exceptions.NullGrammarException;
 import martin.code.it.speechinterpreterlib.exceptions.NullRuleException;
 import martin.code.it.speechinterpreterlib.exceptions.ResultNotAvailableException;
+import martin.code.it.speechinterpreterlib.grammar.GrammarBuilder;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSnapshot;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSource;
+import martin.code.it.speechinterpreterlib.grammar.NormalizationProfile;
+import martin.code.it.speechinterpreterlib.grammar.XmlGrammarReader;
+import martin.code.it.speechinterpreterlib.metrics.Metrics;
+import martin.code.it.speechinterpreterlib.rules.EvaluationOrder;
+import martin.code.it.speechinterpreterlib.rules.LiteralIndex;
+import martin.code.it.speechinterpreterlib.rules.MessageTemplate;
 import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.SlotPlan;
 import martin.code.it.speechinterpreterlib.rules.group.Group;
-import martin.code.it.speechinterpreterlib.rules.group.GroupKey;
 
 public class BaseResponseParser  extends EventbusObject implements IResponseParser {
 
-    //tags const declaration
-    private final String RULE_TAG = "rule";
-    private final String PREAMBLE_TAG = "preamble";
-    private final String PROMPT_TAG = "prompt";
-    private final String REGEX_TAG = "regex";
-    private final String MSG_TAG = "msg";
-    private final String MSGGROUP_TAG = "msggroup";
-    private final String ITEM_TAG = "item";
-
-    //attribute const declaration
-    private final String NAME_ATTR = "name";
-    private final String BROWSBLE_ATTR = "browsable";
-    private final String KEY_ATTR = "key";
-
     public static final String MESSAGE = "message";
     public static final String PREQUEL_TO_MESSAGE = "prequel_to_message";
     public static final String NEXT_RULE = "next_rule";
     public static final String REPLACEMENT_ARRAY = "REPLACEMENT_ARRAY";
+    public static final String HITS_EXTENSION = ".hits";
 
     protected final Context mContext;
     private final String mGrammarName;
 
-    protected String mQuery;
-
+    //grammar, shared by all the sessions and never modified once loaded
     protected MultiLinkedHashMap<Boolean, String, Rule> mRuleMap;
+    private volatile EvaluationOrder mEvaluationOrder;
+    private volatile LiteralIndex mLiteralIndex;
+    private volatile RuleHits mRuleHits; //null unless the order is learnt from the traffic
+    private ArrayList<Rule> mInterruptRules;
+    private SlotPlan mSlotPlan;
+    private NormalizationProfile mProfile;
     protected LinkedHashMap<String,Group> mGroupMap;
-    protected Rule mCurrentRule;
     private AnsweringMachine mAnsweringMachine;
-    protected  MultiLinkedHashMap<String,Group,String> mResults;
-    protected LinkedHashMap<String,Group> mCurrentRuleGroups;
-    protected Queue<Group> mResultToGetFifo;
-    protected Bundle mResultBdl;
-    private String mDiagResponse;
-    private String mDiagEnding;
+
+    /**
+     * What this parser collected so far in the dialogue of one session, see state().
+     */
+    protected static class DialogueState {
+        protected String mQuery = "";
+        protected Rule mCurrentRule;
+        protected DialogueResult mResult = new DialogueResult();
+        //results by slot of the SlotPlan, the slots holding one and the ids of the groups still to ask for
+        private String[] mValues;
+        private BitSet mFilled;
+        private BitSet mMissing;
+        private MessageTemplate.Resolver mResolver;
+        private final StringBuilder mRender = new StringBuilder();
+        private final ArrayList<String> mMsgKey = new ArrayList<>();
+    }
+
+    //the placeholders of the messages are replaced with the results collected for the current rule
+    private final class ResultResolver implements MessageTemplate.Resolver {
+        private final DialogueState mState;
+
+        ResultResolver(DialogueState state) {
+            this.mState = state;
+        }
+
+        @Override
+        public String resolve(String placeholder) {
+            Group group = mGroupMap.get(placeholder);
+            if (group == null) return null;
+            SlotPlan.RulePlan plan = mSlotPlan.getPlan(mState.mCurrentRule);
+            int i = plan.indexOf(group.getId());
+            return i < 0 ? null : mState.mValues[plan.getSlot(i)];
+        }
+    }
 
     public BaseResponseParser(Context context, String grammarName)
             throws XmlPullParserException, IOException, NullGrammarException {
@@ -90,112 +121,48 @@ public class BaseResponseParser  extends EventbusObject implements IResponsePars
         this.mGrammarName = grammarName.replaceAll("(?i).xml", "") + ".xml";
         mRuleMap = new MultiLinkedHashMap<>();
         mGroupMap=new LinkedHashMap<>();
-        mResults=new MultiLinkedHashMap<>();
-        mCurrentRuleGroups =new LinkedHashMap<>();
-        mResultToGetFifo=new LinkedList<Group>();
-        mResultBdl=new Bundle();
+        long start = Metrics.start();
         readGrammar(this.mGrammarName);
-        setDiagResponse("");
-        setDiagEnding(AnsweringMachine.END_OF_SPEAK);
+        Metrics.grammarLoaded(this.mGrammarName, start);
+    }
+
+    //the state of this parser in the session answering on the calling thread, created on first use
+    protected final DialogueState state() {
+        Session session = mAnsweringMachine.getCurrentSession();
+        DialogueState st = (DialogueState) session.getParserState(this);
+        if (st == null) {
+            st = newDialogueState();
+            st.mResolver = new ResultResolver(st);
+            st.mValues = new String[mSlotPlan.getSlotCount()];
+            st.mFilled = new BitSet(mSlotPlan.getSlotCount());
+            st.mMissing = new BitSet(mSlotPlan.getGroupCount());
+            session.setParserState(this, st);
+            reset();
+        }
+        return st;
+    }
+
+    //to be overridden by descendant class needing more per session fields in a DialogueState subclass
+    protected DialogueState newDialogueState() {
+        DialogueState st = new DialogueState();
+        st.mResult.setResult("");
+        st.mResult.setEnding(DialogueResult.Ending.SPEAK);
+        return st;
     }
 
     private void readGrammar(String grammarName)
             throws XmlPullParserException, IOException, NullGrammarException {
         InputStream is = null;
+        GrammarSource source = GrammarSource.current(mContext);
+        GrammarBuilder builder = new GrammarBuilder(grammarName, mRuleMap, mGroupMap);
         try {
-            AssetManager am = mContext.getAssets();
-            String text = "";
-            XmlPullParser parser;
-            Rule rule = null;
-            is = am.open(grammarName);
-            parser = XmlPullParserFactory.newInstance().newPullParser();
-            parser.setInput(is, "utf8");
-            int eventType = parser.getEventType();
-            String tagName;
-            String tempKey = null;
-            GroupKey tempGroupKey = GroupKey.getNoKey();
-            ArrayList<String> tempArrayKey = null;
-            ArrayList<String> tempList = new ArrayList<>();
-
-            while (eventType != XmlPullParser.END_DOCUMENT) {
-                tagName = parser.getName();
-                switch (eventType) {
-                    case XmlPullParser.START_TAG:
-                        if (tagName.equalsIgnoreCase(RULE_TAG)) {
-                            rule = new Rule();
-                            String nameAttr = parser.getAttributeValue(null, NAME_ATTR);
-                            if (nameAttr != null) {
-                                rule.setName(nameAttr);
-                            } else throw new IllegalStateException("A rule in grammar file " +
-                                    grammarName + " has no attribute name defined");
-                            String browsableAttr = parser.getAttributeValue(null, BROWSBLE_ATTR);
-                            if (browsableAttr != null) {
-                                rule.setBrowsable(Boolean.parseBoolean(browsableAttr));
-                            }
-                            mRuleMap.put(rule.isBrowsable(),rule.getName(), rule);
-
-                        } else if (tagName.equalsIgnoreCase(PROMPT_TAG)) {
-                            tempKey = parser.getAttributeValue(null, KEY_ATTR);
-
-                        } else if (tagName.equalsIgnoreCase(PREAMBLE_TAG)) {
-                            tempKey = parser.getAttributeValue(null, KEY_ATTR);
-
-                        } else if (tagName.equalsIgnoreCase(MSG_TAG)) {
-                            String key = parser.getAttributeValue(null, KEY_ATTR);
-                            if (key != null) { //if attribute is not empty or void
-                                tempArrayKey = new ArrayList<>(Arrays.asList(key.split(",")));
-                            } else tempArrayKey = null;
-
-                        } else if (tagName.equalsIgnoreCase(MSGGROUP_TAG)) {
-                            String key = parser.getAttributeValue(null, KEY_ATTR);
-                            ArrayList<String> al = null;
-                            if (key != null) { //if attribute is not empty or void
-                                tempGroupKey=new GroupKey();
-                                al = new ArrayList<>(Arrays.asList(key.split(",")));
-                                for (String s : al) {
-                                    Group g = rule.getGroups().get(s);
-                                    if (g != null) tempGroupKey.add(g);
-                                }
-                            } else tempGroupKey=GroupKey.getNoKey();
-
-                        }
-                        break;
-                    case XmlPullParser.TEXT:
-                        text = parser.getText();
-                        break;
-                    case XmlPullParser.END_TAG:
-                        if (tagName.equalsIgnoreCase(RULE_TAG)) {
-                            if (rule.isBrowsable() && (rule.getRegex().equalsIgnoreCase(".*")))
-                                throw new
-                                        IllegalStateException("Rule with generic regex '.*' cannot be 'browsable' state to true.\n" +
-                                        "				Check rule definition in " + grammarName + " xml file.");
-                        } else if (tagName.equalsIgnoreCase(REGEX_TAG)) {
-                            rule.setRegex(text);
-                            mGroupMap.putAll(rule.getGroups());
-                        } else if (tagName.equalsIgnoreCase(ITEM_TAG)) {
-                            tempList.add(text);
-                        } else if (tagName.equalsIgnoreCase(PROMPT_TAG)) {
-                            rule.addPrompt(tempKey, tempList);
-                            tempList.clear();
-                            tempKey = null;
-                        } else if (tagName.equalsIgnoreCase(PREAMBLE_TAG)) {
-                            rule.addPreamble(tempKey, tempList);
-                            tempList.clear();
-                            tempKey = null;
-                        } else if (tagName.equalsIgnoreCase(MSG_TAG)) {
-                            rule.addMessage(tempGroupKey, tempArrayKey, tempList);
-                            tempArrayKey = null;
-                            tempList.clear();
-                        } else if (tagName.equalsIgnoreCase(MSGGROUP_TAG)) {
-                            tempGroupKey=GroupKey.getNoKey();
-                        }
-                        break;
-                    default:
-                        break;
-                }
-                eventType = parser.next();
+            is = source.openSnapshot(grammarName);
+            if (is != null) { //a precompiled grammar is available: no xml parsing needed
+                GrammarSnapshot.read(is, builder);
+            } else {
+                is = source.open(grammarName);
+                XmlGrammarReader.read(is, grammarName, builder);
             }
-
         } finally {
             if (is != null) {
                 is.close();
@@ -204,36 +171,127 @@ public class BaseResponseParser  extends EventbusObject implements IResponsePars
                 throw Nge;
             }
         }
-
-        for (Rule r:mRuleMap.valuesByArrayList()) {
-            //check if in the group map every rule has a corresponding group
-            if (!mGroupMap.containsKey(r.getName()))
-                //if not present add it to allow rule iteration if rule was explicitly run and user input does not match regex
-                mGroupMap.put(r.getName(),new Group(r.getName(),false,false));
-
-            r.setRootGroup(mGroupMap.get(r.getName()));
+        builder.finish();
+        mProfile = builder.getNormalizationProfile();
+        mSlotPlan = new SlotPlan(mRuleMap.valuesByArrayList());
+        LinkedHashMap<String, Rule> browsable = mRuleMap.getByKey1(true);
+        mEvaluationOrder = new EvaluationOrder(browsable != null ? browsable.values() : Collections.<Rule>emptyList());
+        if (mEvaluationOrder.isChanged()) Log.v(TAG, grammarName + " rules evaluation order:\n" + mEvaluationOrder);
+        //index the browsable rules by their required literals, so that only the rules whose literals
+        //appear in the query have to run their regex
+        mLiteralIndex = new LiteralIndex(new ArrayList<>(getBrowsableRules()));
+        mInterruptRules = new ArrayList<>();
+        for (Rule r : mRuleMap.valuesByArrayList()) {
+            if (r.getInterrupt() != null) mInterruptRules.add(r);
+            String risk = r.getBacktrackingRisk();
+            if (risk != null) Log.w(TAG, grammarName + "/" + r.getName() + " may be slow to match, " + risk);
         }
     }
 
     public final Boolean findRuleByQuery(String query) {
         Boolean result = false;
         Matcher mtc;
-        LinkedHashMap<String,Rule> lhm=mRuleMap.getByKey1(true);
-        if (lhm!=null) {
-            for (Rule currentRule : lhm.values()) {
-                mtc = currentRule.getMatcher(query);
-                if (mtc != null) {
-                    mAnsweringMachine.setCurrentResponseParser(this);
-                    mCurrentRule = currentRule;
-                    mQuery = query;
-                    result = true;
-                    break;
-                }
+        Rule currentRule;
+        LiteralIndex literalIndex = mLiteralIndex;
+        BitSet candidates = literalIndex.candidates(query);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            currentRule = literalIndex.getRule(i);
+            mtc = currentRule.getMatcher(query);
+            if (mtc != null) {
+                selectRule(currentRule, query);
+                result = true;
+                break;
             }
         }
         return result;
     }
 
+    //in evaluation order: the same first match as in declaration order, found sooner
+    public final Collection<Rule> getBrowsableRules() {
+        return mEvaluationOrder.getRules();
+    }
+
+    //the order the browsable rules are tried in, with the estimated cost saved (see toString())
+    public final EvaluationOrder getEvaluationOrder() {
+        return mEvaluationOrder;
+    }
+
+    //learn the evaluation order from the traffic: the browsable rules hit are counted, and every period
+    //hits the rules hit most are moved first, among the ones free to move (see EvaluationOrder). The counts
+    //are kept in the files dir of the app, so a restarted process starts with the order learnt.
+    //0, the default, stops learning and keeps the current order
+    public final void setAdaptiveOrder(int period) {
+        if ((period > 0) && (mContext == null))
+            throw new IllegalStateException("No Context to keep the hits of " + mGrammarName + " in, pass their dir");
+        setAdaptiveOrder(period, period > 0 ? mContext.getFilesDir() : null);
+    }
+
+    //the same, keeping the counts in dir (e.g. for a parser built without a Context)
+    public final synchronized void setAdaptiveOrder(int period, File dir) {
+        if (period < 0) throw new IllegalArgumentException("Negative period: " + period);
+        if (period == 0) {
+            mRuleHits = null;
+            return;
+        }
+        if (dir == null) throw new IllegalArgumentException("No dir for the hits of " + mGrammarName);
+        File file = new File(dir, mGrammarName.replaceAll("(?i)\\.xml$", "") + HITS_EXTENSION);
+        RuleHits ruleHits = new RuleHits(mEvaluationOrder.getDeclaredRules().size(), period, file);
+        ruleHits.load(mEvaluationOrder);
+        reorder(ruleHits);
+        mRuleHits = ruleHits;
+    }
+
+    private void countHit(Rule rule) {
+        RuleHits ruleHits = mRuleHits;
+        if (ruleHits == null) return;
+        int i = mEvaluationOrder.indexOf(rule);
+        if ((i < 0) || !ruleHits.count(i)) return;
+        //the new order, the router rebuilt on it and the counts saved: not on the thread answering
+        final RuleHits counted = ruleHits;
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mRuleHits == counted) reorder(counted); //unless learning was stopped meanwhile
+                } finally {
+                    counted.done();
+                }
+            }
+        };
+        try {
+            if (mAnsweringMachine != null) mAnsweringMachine.getExecutor().execute(task);
+            else task.run();
+        } catch (RejectedExecutionException e) {
+            counted.done(); //the next period will try again
+        }
+    }
+
+    private synchronized void reorder(RuleHits ruleHits) {
+        long[] hits = ruleHits.take();
+        EvaluationOrder current = mEvaluationOrder;
+        EvaluationOrder order = current.withHits(hits);
+        if (!order.getRules().equals(current.getRules())) {
+            mLiteralIndex = new LiteralIndex(new ArrayList<>(order.getRules()));
+            mEvaluationOrder = order;
+            Log.v(TAG, mGrammarName + " rules evaluation order learnt:\n" + order);
+            if (mAnsweringMachine != null) mAnsweringMachine.evaluationOrderChanged();
+        } else mEvaluationOrder = order;
+        ruleHits.save(order, hits);
+    }
+
+    public final Collection<Rule> getInterruptRules() {
+        return Collections.unmodifiableList(mInterruptRules);
+    }
+
+    //make this parser the one in charge of reply, with the rule already matched by the query
+    public final void selectRule(Rule rule, String query) {
+        countHit(rule);
+        mAnsweringMachine.setCurrentResponseParser(this);
+        DialogueState st = state();
+        st.mCurrentRule = rule;
+        st.mQuery = query;
+    }
+
     public final Boolean findRuleByName(String ruleName) {
         boolean result = mRuleMap.get(true,ruleName) != null;
         result|=mRuleMap.get(false,ruleName)!=null;
@@ -249,15 +307,17 @@ public class BaseResponseParser  extends EventbusObject implements IResponsePars
             this.mAnsweringMachine.reset();
         }
         */
-        mResultToGetFifo.clear();
-        mResults.clear();
-        mQuery = "";
+        DialogueState st = state();
+        st.mMissing.clear();
+        for (int i = st.mFilled.nextSetBit(0); i >= 0; i = st.mFilled.nextSetBit(i + 1)) st.mValues[i] = null;
+        st.mFilled.clear();
+        st.mQuery = "";
     }
 
 
 
 
-    public final Bundle runRule(String ruleName) throws NullRuleException, EmptyMessageSetException {
+    public final DialogueResult runRule(String ruleName) throws NullRuleException, EmptyMessageSetException {
         ArrayList<Rule> al=mRuleMap.getByKey2(ruleName);
         if ((al!=null)&&(!al.isEmpty())) {
             return runRule(al.get(0));
@@ -268,91 +328,98 @@ public class BaseResponseParser  extends EventbusObject implements IResponsePars
         }
     }
 
-    public final Bundle runRule(Rule ruleToRun) throws EmptyMessageSetException {
+    public final DialogueResult runRule(Rule ruleToRun) throws EmptyMessageSetException {
         if (ruleToRun != null) {
             //tell to AnsweringMachine that this is the ResponseParser in charge of reply
             mAnsweringMachine.setCurrentResponseParser(this);
+            DialogueState st = state();
             if (ruleToRun.hasPrompt()) { //extract prompt string if rule has regex to parse the user query...
                 String prompt = "";
-                if (mResultBdl != null)
-                    prompt = mResultBdl.getString(PREQUEL_TO_MESSAGE) == null ? "" : mResultBdl.getString(PREQUEL_TO_MESSAGE);
-                setDiagResponse(prompt.trim() + " " + ruleToRun.getPrompt());
-                setDiagEnding(AnsweringMachine.END_OF_PROMPT);
+                if (st.mResult.getPrequel() != null) prompt = st.mResult.getPrequel();
+                st.mResult.setResult(prompt.trim() + " " + ruleToRun.getPrompt());
+                st.mResult.setEnding(DialogueResult.Ending.PROMPT);
                 //set the rule to run for the next pass
-                mCurrentRule = ruleToRun;
+                st.mCurrentRule = ruleToRun;
             } else { //....or extract msg string if there is only some message to tell
-                String msg=ruleToRun.getMessage(null,null).getString(MESSAGE);
-                setDiagResponse(msg);
-                setDiagEnding(AnsweringMachine.END_OF_SPEAK);
+                MessageTemplate template = ruleToRun.getMessageTemplate(Rule.NO_KEY_MASK, null);
+                st.mResult.setResult(template.isPrequel() ? null : template.getBody());
+                st.mResult.setEnding(DialogueResult.Ending.SPEAK);
                 mAnsweringMachine.reset(); //reset the parser after the msg, nothing more to do at the moment
             }
-            return mResultBdl;
+            return st.mResult;
         } else {
             return null;
         }
     }
 
     @Override
-    public final Bundle answer() throws IllegalStateException, EmptyMessageSetException {
+    public final DialogueResult answer() throws IllegalStateException, EmptyMessageSetException {
+        DialogueState st = state();
 
-        if (mCurrentRule != null) {
+        if (st.mCurrentRule != null) {
             //mCurrentRule == null shall never happen....otherwise throw exception because the method answer() shall run only
             //after the mCurrentRule has been defined
             String currentResult = "";
-            Matcher mtc = mCurrentRule.getMatcher(mQuery); //get the matcher from the rule
-            if (mtc != null) { //if matcher==null, the current rule is not going to be removed from the FiFo queue to attempt again to get the result
-                mResultToGetFifo.remove(mCurrentRule.getRootGroup());//if matcher was not null, question was understood and at the moment shall not be repeated anymore
-                mCurrentRuleGroups = mCurrentRule.getGroups();
-                for (Group group : mCurrentRuleGroups.values()) { //parse through named groups to seek for results
-                    if (mResults.get(mCurrentRule.getName(),group) == null) { //if result is already present jump over
-                        currentResult = mtc.group(group.getName()); //get the current named group content
+            SlotPlan.RulePlan plan = mSlotPlan.getPlan(st.mCurrentRule);
+            //the values of the rule's named groups, from the cache if the query was heard before
+            long start = Metrics.start();
+            String[] values = mAnsweringMachine.getRoutingCache().extract(st.mCurrentRule, st.mQuery);
+            if (values != null) { //if values==null, the current rule is not going to be removed from the missing ones to attempt again to get the result
+                Metrics.ruleHit(st.mCurrentRule);
+                st.mMissing.clear(plan.getRootGroupId());//if the rule matched, question was understood and at the moment shall not be repeated anymore
+                for (int i = 0; i < plan.size(); i++) { //parse through named groups to seek for results
+                    int slot = plan.getSlot(i);
+                    if (st.mValues[slot] == null) { //if result is already present jump over
+                        Group group = plan.getGroup(i);
+                        currentResult = values[i]; //get the current named group content
                         if ((currentResult == null) || (currentResult.equalsIgnoreCase(""))) {
-                            //if the expected result is null or empty then the related rule has to run
-                            boolean b = group.isOptional();
-                            if ((!mResultToGetFifo.contains(group)) && !b) {
-                                // check if it is already present to avoid duplicates and if the rule is not optional
-                                mResultToGetFifo.add(group);
-                            }
+                            //if the expected result is null or empty then the related rule has to run, unless it is optional
+                            if (!group.isOptional()) st.mMissing.set(group.getId());
                         } else {
-                            //otherwise if there is a result store it and remove its key from the FiFo queue
+                            //otherwise if there is a result store it and remove it from the missing ones
                             Log.v(TAG, "result for group name " + group
                                     + " found!");
-                            mResults.put(mCurrentRule.getName(),group, currentResult.trim());
-                            mResultToGetFifo.remove(group);
+                            st.mValues[slot] = currentResult.trim();
+                            st.mFilled.set(slot);
+                            st.mMissing.clear(group.getId());
                         }
                     }
                 }//end of for iteration
             } else {
-                if (!mResultToGetFifo.contains(mGroupMap.get(mCurrentRule.getName()))) {
-                    // if the matcher is null, it means that the question was not understood, so shall be repeated
-                    // check also if the rule to be run is not already present in the FiFo queue
-                    mResultToGetFifo.add(mGroupMap.get(mCurrentRule.getName()));
-                    mResultBdl.putString(PREQUEL_TO_MESSAGE, mCurrentRule.getPreamble());
+                if (!st.mMissing.get(plan.getRootGroupId())) {
+                    // if there are no values, it means that the question was not understood, so shall be repeated
+                    // check also if the rule to be run is not already among the missing ones
+                    st.mMissing.set(plan.getRootGroupId());
+                    st.mResult.setPrequel(st.mCurrentRule.getPreamble());
                 }
+                if (st.mCurrentRule.hasPrompt()) Metrics.reprompt();
             }
-            if (mResultToGetFifo.isEmpty()) { //if results FiFo is empty then we collected all expected results and can process the final response
+            int next = st.mMissing.nextSetBit(0);
+            Metrics.stop(Metrics.Stage.SLOT_FILL, start);
+            if (next < 0) { //if no result is missing then we collected all expected results and can process the final response
                 //setMsgKey();
+                start = Metrics.start();
                 try {
                     if (processResponse())
                         mAnsweringMachine.reset(); //if process() method returns true everything went fine and parser can be reset
                 } catch (NullRuleException e) {
                     Log.e(TAG,e.getMessage());
                 }
+                Metrics.stop(Metrics.Stage.PROCESS_RESPONSE, start);
                 //in fact during response processing something could be wrong or not as expected, so further rule could be run from there
                 //otherwise further rule has to run to get all expected results
             } else {
-                String ruleName=mResultToGetFifo.element().getName();//extract the first rule's name to run to complete results collection
-                ArrayList<Rule> alR=mRuleMap.getByKey2(ruleName);//extract the rule from the map using the name
-                if ((!alR.isEmpty())&&(alR.get(0)!=null)) { //check the result is not empty or null
-                    mResultBdl = runRule(mRuleMap.getByKey2(ruleName).get(0));
+                Rule filler=mSlotPlan.getFiller(next);//the rule named as the first missing group runs to complete results collection
+                if (filler!=null) {
+                    runRule(filler);
                 } else throw new IllegalStateException("It seems there is no rule defined in the XML grammar related to result group '"+
-                        ruleName+
+                        mSlotPlan.getGroup(next).getName()+
                         "' or this result it has been declared as non-optional with symbol '%' as suffix in the rule's regex");
             }
 
         } else
             throw new IllegalStateException("There was a problem with the rules parsing process");
-        return mResultBdl;
+        return st.mResult;
     }
 
 
@@ -360,58 +427,114 @@ public class BaseResponseParser  extends EventbusObject implements IResponsePars
     //all the mResults required by the selected rule are collected
     protected boolean processResponse() throws NullRuleException, EmptyMessageSetException {
         Boolean mProcessed;
-        GroupKey groupKey;
-        ArrayList<String> alKey;
-        LinkedHashMap<Group,String> Lhm1=mResults.getByKey1(mCurrentRule.getName());
-        if (Lhm1!=null){
-            groupKey= new GroupKey(Lhm1.keySet());//get the keyset of linkedhashmap related to results of currentrule
-            alKey=new ArrayList<>();//get the valuesByArrayList of linkedhashmap related to results of currentrule
-            for (Group gg:Lhm1.keySet()){
-                if (gg.isSubstitute()) alKey.add(gg.getName());
-                else alKey.add(Lhm1.get(gg));
-            }
-        } else {
-            groupKey=GroupKey.getNoKey();
-            alKey=null;
+        long groupMask=0L;
+        ArrayList<String> alKey=null;
+        DialogueState st = state();
+        SlotPlan.RulePlan plan = mSlotPlan.getPlan(st.mCurrentRule);
+        for (int i = 0; i < plan.size(); i++) {
+            if (st.mValues[plan.getSlot(i)] != null) groupMask|=1L<<i;//the groups of the results of currentrule as a bitmask
         }
-        mResultBdl=mCurrentRule.getMessage(groupKey,alKey);//get the suitable message from the current rule messages set
-        boolean isPrequel=mResultBdl.getBoolean(Rule.IS_PREQUEL);//check if the result is a prequel to launch an other rule
-        ArrayList<String> al = mResultBdl.getStringArrayList(BaseResponseParser.REPLACEMENT_ARRAY);
-
-        if (isPrequel) {
-            String p = mResultBdl.getString(PREQUEL_TO_MESSAGE);
-            if (al != null) {
-                String nm= mCurrentRule.getName();
-                Group gr;
-                for (String ss : al) { //each groupname placeholder found in the REPLACEMENT_ARRAY will be replaced with actual result
-                    gr=mGroupMap.get(ss);
-                    p = p.replace("#"+ss+"#", mResults.get(nm,gr));
+        if (groupMask!=0L){
+            if (st.mCurrentRule.isMessageKeyed(groupMask)) {
+                alKey=st.mMsgKey;//the values of the results of currentrule, needed only when the messages depend on them
+                alKey.clear();
+                for (int i = 0; i < plan.size(); i++) {
+                    String value = st.mValues[plan.getSlot(i)];
+                    if (value == null) continue;
+                    if (plan.getGroup(i).isSubstitute()) alKey.add(plan.getGroup(i).getName());
+                    else alKey.add(value);
                 }
             }
-            mResultBdl.putString(PREQUEL_TO_MESSAGE, p);
-            runRule((mResultBdl.getString(BaseResponseParser.NEXT_RULE)));
+        } else {
+            groupMask=Rule.NO_KEY_MASK;
+        }
+        MessageTemplate template = st.mCurrentRule.getMessageTemplate(groupMask,alKey);//get the suitable message from the current rule messages set
+        long start = Metrics.start();
+        st.mRender.setLength(0);
+        String text = template.render(st.mRender, st.mResolver).toString();//placeholders replaced with actual results
+        Metrics.stop(Metrics.Stage.RENDER, start);
+        st.mResult.clear();
+        st.mResult.getPlaceholders().addAll(template.getPlaceholders());
+
+        if (template.isPrequel()) { //the message is a prequel to launch an other rule
+            st.mResult.setPrequel(text);
+            st.mResult.setNextRule(template.getNextRule());
+            st.mResult.setIsPrequel(true);
+            runRule(template.getNextRule());
             mProcessed = false;
         } else {
-            String s = mResultBdl.getString(BaseResponseParser.MESSAGE);
-            if (al != null) {
-                String nm= mCurrentRule.getName();
-                String r;
-                Group gr;
-                for (String ss : al) {
-                    gr=mGroupMap.get(ss);
-                    r=mResults.get(nm,gr);
-                    s = s.replace("#"+ss+"#", r);
-                }
-            }
-            setDiagResponse(s);
-            setDiagEnding(AnsweringMachine.END_OF_SPEAK);
+            st.mResult.setMessage(template.getBody());
+            st.mResult.setResult(text);
+            st.mResult.setEnding(DialogueResult.Ending.SPEAK);
             mProcessed = true;
         }
         return mProcessed;
     }
 
     public final void setQuery(String query) {
-        this.mQuery = query;
+        state().mQuery = query;
+    }
+
+    public final int evaluateQuery(String query) {
+        DialogueState st = state();
+        if (st.mCurrentRule == null) return -1;
+        String[] values = mAnsweringMachine.getRoutingCache().extract(st.mCurrentRule, query);
+        if (values == null) return -1;
+        SlotPlan.RulePlan plan = mSlotPlan.getPlan(st.mCurrentRule);
+        int filled = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            if (st.mValues[plan.getSlot(i)] != null) continue;
+            String value = values[i];
+            if ((value != null) && !value.trim().isEmpty()) filled++;
+        }
+        return filled;
+    }
+
+    //the rule in charge and the results collected by the ids of the SlotPlan. Descendant classes with more
+    //per session fields (see newDialogueState) override both writeState and readState, calling these first
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        DialogueState st = state();
+        SlotPlan.RulePlan plan = st.mCurrentRule == null ? null : mSlotPlan.getPlan(st.mCurrentRule);
+        out.writeInt(mSlotPlan.getSignature());
+        SessionSnapshot.writeVarInt(out, plan == null ? 0 : plan.getRuleId() + 1);
+        SessionSnapshot.writeString(out, st.mQuery);
+        SessionSnapshot.writeVarInt(out, st.mMissing.cardinality());
+        for (int id = st.mMissing.nextSetBit(0); id >= 0; id = st.mMissing.nextSetBit(id + 1)) {
+            SessionSnapshot.writeVarInt(out, id);
+        }
+        SessionSnapshot.writeVarInt(out, st.mFilled.cardinality());
+        for (int slot = st.mFilled.nextSetBit(0); slot >= 0; slot = st.mFilled.nextSetBit(slot + 1)) {
+            SessionSnapshot.writeVarInt(out, slot);
+            SessionSnapshot.writeString(out, st.mValues[slot]);
+        }
+        SessionSnapshot.writeResult(out, st.mResult);
+    }
+
+    @Override
+    public IResponseParser readState(DataInput in) throws IOException {
+        if (in.readInt() != mSlotPlan.getSignature()) return null; //ids of another version of the grammar
+        DialogueState st = state();
+        reset();
+        int ruleId = SessionSnapshot.readVarInt(in) - 1;
+        if (ruleId >= mSlotPlan.getRuleCount()) throw new IOException("Corrupted session snapshot, unknown rule " + ruleId);
+        st.mCurrentRule = ruleId < 0 ? null : mSlotPlan.getRule(ruleId);
+        st.mQuery = SessionSnapshot.readString(in);
+        int count = SessionSnapshot.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            int id = SessionSnapshot.readVarInt(in);
+            if (id >= mSlotPlan.getGroupCount()) throw new IOException("Corrupted session snapshot, unknown group " + id);
+            st.mMissing.set(id);
+        }
+        count = SessionSnapshot.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            int slot = SessionSnapshot.readVarInt(in);
+            if (slot >= mSlotPlan.getSlotCount()) throw new IOException("Corrupted session snapshot, unknown slot " + slot);
+            st.mValues[slot] = SessionSnapshot.readString(in);
+            st.mFilled.set(slot);
+        }
+        SessionSnapshot.readResult(in, st.mResult);
+        return this;
     }
 
     public final void setAnsweringMachine(AnsweringMachine mAnsweringMachine) {
@@ -422,32 +545,47 @@ public class BaseResponseParser  extends EventbusObject implements IResponsePars
         return mGrammarName;
     }
 
+    public final NormalizationProfile getNormalizationProfile() {
+        return mProfile;
+    }
+
     protected final String getDiagResponse() {
-        return new String(mDiagResponse);
+        return state().mResult.getResult();
     }
 
 
     protected final void setDiagResponse(String diagResponse) {
-        this.mDiagResponse = new String(diagResponse);
-        mResultBdl.putString(AnsweringMachine.DIALOGUE_RESULT, mDiagResponse);
+        state().mResult.setResult(diagResponse);
     }
 
 
     protected final String getDiagEnding() {
-        return new String(mDiagEnding);
+        DialogueResult.Ending ending = state().mResult.getEnding();
+        return ending == null ? null : ending.key;
     }
 
 
-    protected final void setDiagEnding(String mDiagEnding) {
-        this.mDiagEnding = new String(mDiagEnding);
-        mResultBdl.putString(AnsweringMachine.DIALOGUE_ENDING, mDiagEnding);
+    //AnsweringMachine.END_OF_PROMPT or AnsweringMachine.END_OF_SPEAK
+    protected final void setDiagEnding(String diagEnding) {
+        setDiagEnding(AnsweringMachine.END_OF_PROMPT.equals(diagEnding) ?
+                DialogueResult.Ending.PROMPT : DialogueResult.Ending.SPEAK);
+    }
+
+    protected final void setDiagEnding(DialogueResult.Ending diagEnding) {
+        state().mResult.setEnding(diagEnding);
     }
 
     public final String getResultFromMsgGroupName(String name) throws ResultNotAvailableException {
         String res= null;
-        try {
-            res = mResults.getByKey2(mGroupMap.get(name)).get(0);
-        } catch (IndexOutOfBoundsException e) {
+        Group group = mGroupMap.get(name);
+        if (group != null) {
+            DialogueState st = state();
+            for (int slot : mSlotPlan.getSlots(group.getId())) { //the first rule holding a result for this group
+                res = st.mValues[slot];
+                if (res != null) break;
+            }
+        }
+        if (res == null) {
             throw new ResultNotAvailableException("No results have been found by name '"+name+
                     "'. Check if group name in rule's regex has properly been defined as non-optional" +
                     " with flag %");
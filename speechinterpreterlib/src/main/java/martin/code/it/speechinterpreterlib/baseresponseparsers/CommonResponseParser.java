@@ -17,8 +17,6 @@ package martin.code.it.speechinterpreterlib.baseresponseparsers;
 
 import android.content.Context;
 
-import com.google.code.regexp.Matcher;
-
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
@@ -38,7 +36,6 @@ public class CommonResponseParser  extends BaseResponseParser{
             throws XmlPullParserException, IOException, NullGrammarException {
 
         super(context,grammarName);
-        mCurrentRule=mRuleMap.get(false,NOT_UNDERSTOOD);
     }
 
 
@@ -50,14 +47,7 @@ public class CommonResponseParser  extends BaseResponseParser{
     @Override
     public void reset(){
         super.reset();
-        mCurrentRule=mRuleMap.get(false,NOT_UNDERSTOOD);
-    }
-
-    public boolean isQuitQuery(String query){
-        boolean ret=false;
-        Matcher mtc=mRuleMap.getByKey2(QUIT).get(0).getMatcher(query);
-        if (mtc!=null) ret=true;
-        return ret;
+        state().mCurrentRule=mRuleMap.get(false,NOT_UNDERSTOOD);
     }
 
 
@@ -15,21 +15,41 @@
  *******************************************************************/
 package martin.code.it.speechinterpreterlib.baseresponseparsers;
 
-import android.os.Bundle;
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
 
 import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
 import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
 import martin.code.it.speechinterpreterlib.exceptions.NullRuleException;
+import martin.code.it.speechinterpreterlib.grammar.NormalizationProfile;
 import martin.code.it.speechinterpreterlib.rules.Rule;
 
 public interface IResponseParser {
-    public Bundle answer() throws EmptyMessageSetException;
+    public DialogueResult answer() throws EmptyMessageSetException;
     public void reset();
     public void setAnsweringMachine(AnsweringMachine mAnsweringMachine);
     public String getGrammarName();
+    //how the queries are normalized before this parser matches them
+    public NormalizationProfile getNormalizationProfile();
     public Boolean findRuleByQuery(String query);
     public Boolean findRuleByName(String ruleName);
+    public Collection<Rule> getBrowsableRules();
+    //the rules declared as interrupts, browsable or not
+    public Collection<Rule> getInterruptRules();
+    public void selectRule(Rule rule, String query);
     public void setQuery(String query);
-    public Bundle runRule(String ruleName) throws NullRuleException, EmptyMessageSetException;
-    public Bundle runRule(Rule ruleToRun) throws EmptyMessageSetException;
+    //side effect free: -1 if the rule in charge of the dialogue doesn't match the query, otherwise how many
+    //of the results still missing the query would give
+    public int evaluateQuery(String query);
+    public DialogueResult runRule(String ruleName) throws NullRuleException, EmptyMessageSetException;
+    public DialogueResult runRule(Rule ruleToRun) throws EmptyMessageSetException;
+    //the state of this parser in the session answering on the calling thread, see Session.passivate()
+    public void writeState(DataOutput out) throws IOException;
+    //restores what writeState wrote, returns the parser now holding the state (the loaded one for a lazy
+    //parser) or null if the state doesn't fit the grammar as it is now, i.e. reloaded with other rules
+    public IResponseParser readState(DataInput in) throws IOException;
 }
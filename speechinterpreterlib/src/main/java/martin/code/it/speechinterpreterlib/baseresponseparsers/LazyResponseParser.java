@@ -0,0 +1,217 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.baseresponseparsers;
+
+import android.content.Context;
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+
+import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
+import martin.code.it.speechinterpreterlib.exceptions.NullGrammarException;
+import martin.code.it.speechinterpreterlib.exceptions.NullRuleException;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSource;
+import martin.code.it.speechinterpreterlib.grammar.NormalizationProfile;
+import martin.code.it.speechinterpreterlib.grammar.RoutingSummary;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * Stands for a response parser whose grammar is loaded only the first time it is needed,
+ * i.e. when the router finds one of its literals in a query or one of its rules is run by name.
+ * Until then only its RoutingSummary is kept in memory. The grammar can be unloaded again
+ * (see AnsweringMachine.setMaxLoadedGrammars) and it will be reloaded on next use.
+ */
+public class LazyResponseParser implements IResponseParser {
+    private static final String TAG = LazyResponseParser.class.getSimpleName();
+
+    private final Context mContext;
+    private final String mGrammarName;
+    private final IResponseParserFactory mFactory;
+    private final GrammarSource mSource;
+    private final RoutingSummary mSummary;
+    private AnsweringMachine mAnsweringMachine;
+    private volatile IResponseParser mParser;
+    private volatile long mLastUse;
+
+    public LazyResponseParser(Context context, String grammarName, IResponseParserFactory factory)
+            throws XmlPullParserException, IOException, NullGrammarException {
+        this.mContext = context;
+        this.mGrammarName = grammarName.replaceAll("(?i).xml", "") + ".xml"; //same name the parser will have
+        this.mFactory = factory;
+        this.mSource = GrammarSource.current(context); //the grammar is loaded later, maybe on another thread
+        this.mSummary = RoutingSummary.load(mSource, mGrammarName);
+    }
+
+    public IResponseParserFactory getFactory() {
+        return mFactory;
+    }
+
+    public boolean isLoaded() {
+        return mParser != null;
+    }
+
+    public long getLastUse() {
+        return mLastUse;
+    }
+
+    public Set<String> getRoutingLiterals() {
+        return mSummary.getLiterals();
+    }
+
+    //true if the loaded parser is the given one
+    public boolean isLoadedAs(IResponseParser responseParser) {
+        return (mParser != null) && (mParser == responseParser);
+    }
+
+    public synchronized IResponseParser load() {
+        mLastUse = System.nanoTime();
+        if (mParser == null) {
+            GrammarSource previous = GrammarSource.bind(mSource);
+            try {
+                IResponseParser rp = mFactory.create(mContext, mGrammarName);
+                rp.setAnsweringMachine(mAnsweringMachine);
+                rp.reset();
+                mParser = rp;
+                Log.v(TAG, "Grammar " + mGrammarName + " loaded");
+            } catch (XmlPullParserException e) {
+                throw new IllegalStateException("Grammar " + mGrammarName + " could not be loaded", e);
+            } catch (IOException e) {
+                throw new IllegalStateException("Grammar " + mGrammarName + " could not be loaded", e);
+            } catch (NullGrammarException e) {
+                throw new IllegalStateException("Grammar " + mGrammarName + " could not be loaded", e);
+            } finally {
+                GrammarSource.unbind(previous);
+            }
+        }
+        return mParser;
+    }
+
+    public synchronized void unload() {
+        mParser = null;
+        Log.v(TAG, "Grammar " + mGrammarName + " unloaded");
+    }
+
+    @Override
+    public DialogueResult answer() throws EmptyMessageSetException {
+        return load().answer();
+    }
+
+    @Override
+    public void reset() {
+        IResponseParser rp = mParser;
+        if (rp != null) rp.reset();
+    }
+
+    @Override
+    public void setAnsweringMachine(AnsweringMachine answeringMachine) {
+        this.mAnsweringMachine = answeringMachine;
+        IResponseParser rp = mParser;
+        if (rp != null) rp.setAnsweringMachine(answeringMachine);
+    }
+
+    @Override
+    public String getGrammarName() {
+        return mGrammarName;
+    }
+
+    @Override
+    public NormalizationProfile getNormalizationProfile() {
+        return mSummary.getNormalizationProfile();
+    }
+
+    @Override
+    public Boolean findRuleByQuery(String query) {
+        Set<String> literals = mSummary.getLiterals();
+        if (literals != null) {
+            String lowerQuery = query.toLowerCase(Locale.ROOT); //not the default locale: "QUIT" must not become "quıt" in Turkish
+            boolean found = false;
+            for (String literal : literals) {
+                if (lowerQuery.contains(literal)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false; //no need to load the grammar, none of its rules can match
+        }
+        return load().findRuleByQuery(query);
+    }
+
+    @Override
+    public Boolean findRuleByName(String ruleName) {
+        if (!mSummary.hasRule(ruleName)) return false;
+        return load().findRuleByName(ruleName);
+    }
+
+    //empty until the grammar is loaded, as the interrupt rules: listing the rules doesn't load it
+    @Override
+    public Collection<Rule> getBrowsableRules() {
+        IResponseParser rp = mParser;
+        return rp != null ? rp.getBrowsableRules() : Collections.<Rule>emptyList();
+    }
+
+    //empty until the grammar is loaded: its interrupts can't stop a dialogue of another grammar before
+    @Override
+    public Collection<Rule> getInterruptRules() {
+        IResponseParser rp = mParser;
+        return rp != null ? rp.getInterruptRules() : Collections.<Rule>emptyList();
+    }
+
+    @Override
+    public int evaluateQuery(String query) {
+        return load().evaluateQuery(query);
+    }
+
+    @Override
+    public void selectRule(Rule rule, String query) {
+        load().selectRule(rule, query);
+    }
+
+    @Override
+    public void setQuery(String query) {
+        load().setQuery(query);
+    }
+
+    @Override
+    public DialogueResult runRule(String ruleName) throws NullRuleException, EmptyMessageSetException {
+        return load().runRule(ruleName);
+    }
+
+    @Override
+    public DialogueResult runRule(Rule ruleToRun) throws EmptyMessageSetException {
+        return load().runRule(ruleToRun);
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        load().writeState(out);
+    }
+
+    //the grammar is loaded: a dialogue restored on it goes on where it was
+    @Override
+    public IResponseParser readState(DataInput in) throws IOException {
+        return load().readState(in);
+    }
+}
@@ -0,0 +1,141 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.baseresponseparsers;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import martin.code.it.speechinterpreterlib.rules.EvaluationOrder;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * Hits of the browsable rules of a grammar, by declaration position, for BaseResponseParser.setAdaptiveOrder.
+ * Counting never locks; every period hits one of the threads counting is told to order the rules again,
+ * then the counts are halved, so the order follows the traffic of the last periods. The counts are kept
+ * in a file by rule name, so they survive a restart and a grammar whose rules changed.
+ */
+final class RuleHits {
+    private static final String TAG = RuleHits.class.getSimpleName();
+    private static final int VERSION = 1;
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final AtomicLongArray mHits;
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicBoolean mReordering = new AtomicBoolean();
+    private final int mPeriod;
+    private final File mFile;
+
+    RuleHits(int ruleCount, int period, File file) {
+        this.mHits = new AtomicLongArray(ruleCount);
+        this.mPeriod = period;
+        this.mFile = file;
+    }
+
+    //true if the caller has to order the rules again, then call done()
+    boolean count(int position) {
+        mHits.incrementAndGet(position);
+        return (mTotal.incrementAndGet() % mPeriod == 0) && mReordering.compareAndSet(false, true);
+    }
+
+    void done() {
+        mReordering.set(false);
+    }
+
+    //the counts so far, halved afterwards
+    long[] take() {
+        long[] hits = new long[mHits.length()];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = mHits.get(i);
+            mHits.addAndGet(i, -(hits[i] / 2));
+        }
+        return hits;
+    }
+
+    //the counts saved for the rules still there
+    void load(EvaluationOrder order) {
+        if (!mFile.exists()) return;
+        HashMap<String, Long> saved = new HashMap<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != VERSION) return;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) saved.put(in.readUTF(), in.readLong());
+        } catch (IOException e) {
+            Log.w(TAG, "Rule hits could not be read from " + mFile + ": " + e.getMessage());
+            return;
+        } finally {
+            close(in);
+        }
+        List<Rule> rules = order.getDeclaredRules();
+        for (int i = 0; i < rules.size(); i++) {
+            Long hits = saved.get(rules.get(i).getName());
+            if (hits != null) mHits.set(i, hits);
+        }
+    }
+
+    //to a temporary file renamed when complete, so a crash leaves either the old counts or the new ones
+    void save(EvaluationOrder order, long[] hits) {
+        List<Rule> rules = order.getDeclaredRules();
+        File temp = new File(mFile.getPath() + TEMP_EXTENSION);
+        DataOutputStream out = null;
+        try {
+            File dir = mFile.getParentFile();
+            if ((dir != null) && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            FileOutputStream fos = new FileOutputStream(temp);
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeInt(rules.size());
+            for (int i = 0; i < rules.size(); i++) {
+                out.writeUTF(rules.get(i).getName());
+                out.writeLong(hits[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) throw new IOException("Cannot rename " + temp + " to " + mFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Rule hits could not be saved in " + mFile + ": " + e.getMessage());
+            temp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            Log.w(TAG, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import martin.code.it.maps.MultiLinkedHashMap;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+import martin.code.it.speechinterpreterlib.rules.group.GroupKey;
+
+/**
+ * Builds the rules and the group map of a grammar from the content read by XmlGrammarReader or GrammarSnapshot.
+ * Group names are interned to dense ids, so the groups of the grammar compare by id.
+ */
+public class GrammarBuilder implements GrammarListener {
+
+    private final String mGrammarName;
+    private final MultiLinkedHashMap<Boolean, String, Rule> mRuleMap;
+    private final LinkedHashMap<String, Group> mGroupMap;
+    private final HashMap<String, Integer> mGroupIds = new HashMap<>();
+    private Rule mRule;
+    private NormalizationProfile mProfile = NormalizationProfile.DEFAULT;
+
+    public GrammarBuilder(String grammarName, MultiLinkedHashMap<Boolean, String, Rule> ruleMap,
+                          LinkedHashMap<String, Group> groupMap) {
+        this.mGrammarName = grammarName;
+        this.mRuleMap = ruleMap;
+        this.mGroupMap = groupMap;
+    }
+
+    @Override
+    public void onNormalization(NormalizationProfile profile) {
+        mProfile = profile;
+    }
+
+    public NormalizationProfile getNormalizationProfile() {
+        return mProfile;
+    }
+
+    @Override
+    public void onRule(String name, boolean browsable, Rule.Interrupt interrupt) {
+        mRule = new Rule();
+        mRule.setInterrupt(interrupt);
+        mRule.setRegexFlags(mProfile.getRegexFlags());
+        mRule.setName(name);
+        mRule.setGrammarName(mGrammarName);
+        mRule.setBrowsable(browsable);
+        mRuleMap.put(mRule.isBrowsable(), mRule.getName(), mRule);
+    }
+
+    @Override
+    public void onRegex(String regex, Collection<Group> groups) {
+        ArrayList<Group> interned = new ArrayList<>(groups.size());
+        for (Group g : groups) interned.add(intern(g.getName(), g.isOptional(), g.isSubstitute()));
+        mRule.setPreparedRegex(regex, interned);
+        mGroupMap.putAll(mRule.getGroups());
+    }
+
+    @Override
+    public void onPreamble(String key, ArrayList<String> items) {
+        mRule.addPreamble(key, items);
+    }
+
+    @Override
+    public void onPrompt(String key, ArrayList<String> items) {
+        mRule.addPrompt(key, items);
+    }
+
+    @Override
+    public void onMessage(ArrayList<String> groupNames, ArrayList<String> msgKey, ArrayList<String> items) {
+        GroupKey groupKey;
+        if (groupNames != null) {
+            groupKey = new GroupKey();
+            for (String s : groupNames) {
+                Group g = mRule.getGroups().get(s);
+                if (g != null) groupKey.add(g);
+            }
+        } else groupKey = GroupKey.getNoKey();
+        mRule.addMessage(groupKey, msgKey, items);
+    }
+
+    @Override
+    public void onRuleEnd() {
+        if (mRule.isBrowsable() && (mRule.getRegex().equalsIgnoreCase(".*")))
+            throw new
+                    IllegalStateException("Rule with generic regex '.*' cannot be 'browsable' state to true.\n" +
+                    "				Check rule definition in " + mGrammarName + " xml file.");
+        mRule = null;
+    }
+
+    //to be called once the whole grammar has been read
+    public void finish() {
+        for (Rule r : mRuleMap.valuesByArrayList()) {
+            //check if in the group map every rule has a corresponding group
+            if (!mGroupMap.containsKey(r.getName()))
+                //if not present add it to allow rule iteration if rule was explicitly run and user input does not match regex
+                mGroupMap.put(r.getName(), intern(r.getName(), false, false));
+
+            r.setRootGroup(mGroupMap.get(r.getName()));
+            r.compileMessages();
+        }
+    }
+
+    private Group intern(String name, boolean isOptional, boolean isSubstitute) {
+        Integer id = mGroupIds.get(name);
+        if (id == null) {
+            id = mGroupIds.size();
+            mGroupIds.put(name, id);
+        }
+        return new Group(name, isOptional, isSubstitute, id);
+    }
+}
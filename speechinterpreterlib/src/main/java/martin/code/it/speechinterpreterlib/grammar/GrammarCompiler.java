@@ -0,0 +1,81 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Offline compiler of XML grammars into binary snapshots (see GrammarSnapshot).
+ * It runs on a plain JVM through the compileGrammars gradle task of this module:
+ * <p/>
+ * GrammarCompiler &lt;grammar dir&gt; [&lt;output dir&gt;]
+ * <p/>
+ * Every *.xml file of the grammar dir is compiled in a .silg file with the same name, by default next to
+ * the grammars. The gradle task writes them in a generated assets folder of the app instead, so they are
+ * compiled again on every build where a grammar changed and never end up in the sources.
+ */
+public final class GrammarCompiler {
+
+    private GrammarCompiler() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: GrammarCompiler <grammar dir> [<output dir>]");
+            System.exit(1);
+        }
+        File inputDir = new File(args[0]);
+        File outputDir = args.length > 1 ? new File(args[1]) : inputDir;
+        File[] grammars = inputDir.listFiles();
+        if (grammars == null) throw new IllegalArgumentException(inputDir + " is not a directory");
+        if (!outputDir.isDirectory() && !outputDir.mkdirs())
+            throw new IllegalArgumentException("Cannot create " + outputDir);
+        for (File grammar : grammars) {
+            if (!grammar.getName().toLowerCase(Locale.ROOT).endsWith(".xml")) continue;
+            File snapshot = new File(outputDir, GrammarSnapshot.snapshotName(grammar.getName()));
+            compile(grammar, snapshot);
+            System.out.println(grammar.getName() + " -> " + snapshot.getName() + " (" + snapshot.length() + " bytes)");
+        }
+    }
+
+    public static void compile(File grammar, File snapshot) throws Exception {
+        InputStream is = new FileInputStream(grammar);
+        GrammarSnapshot.Writer writer;
+        try {
+            writer = new GrammarSnapshot.Writer(GrammarSnapshot.fingerprint(is));
+        } finally {
+            is.close();
+        }
+        is = new FileInputStream(grammar);
+        try {
+            XmlGrammarReader.read(is, grammar.getName(), writer);
+        } finally {
+            is.close();
+        }
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(snapshot));
+        try {
+            writer.writeTo(os);
+        } finally {
+            os.close();
+        }
+    }
+}
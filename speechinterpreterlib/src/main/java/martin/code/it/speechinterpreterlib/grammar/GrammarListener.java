@@ -0,0 +1,41 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+
+/**
+ * Receives the content of a grammar, rule by rule, in declaration order.
+ * Implemented by the builder that creates the rules and by the writer of precompiled grammars,
+ * so that XML and binary grammars are read the same way.
+ */
+public interface GrammarListener {
+    //called before the first rule, with NormalizationProfile.DEFAULT if the grammar declares none
+    public void onNormalization(NormalizationProfile profile);
+    //interrupt is null for the rules that are not interrupts
+    public void onRule(String name, boolean browsable, Rule.Interrupt interrupt);
+    //regex already cleaned by Rule.prepareRegex, with its named groups
+    public void onRegex(String regex, Collection<Group> groups);
+    public void onPreamble(String key, ArrayList<String> items);
+    public void onPrompt(String key, ArrayList<String> items);
+    //groupNames is null for messages outside a keyed msggroup
+    public void onMessage(ArrayList<String> groupNames, ArrayList<String> msgKey, ArrayList<String> items);
+    public void onRuleEnd();
+}
@@ -0,0 +1,308 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+
+/**
+ * Binary, precompiled form of an XML grammar, written offline by GrammarCompiler.
+ * It holds the RoutingSummary of the grammar, a string table and the grammar content as it would be
+ * read from the XML, with regexes already cleaned and their groups already extracted, so loading it
+ * is a single streaming pass without XML parsing nor regex processing. The summary comes first, so it
+ * can be read alone without loading the rules. The header holds the fingerprint of the XML the snapshot
+ * was compiled from, so that a snapshot left behind by a change of the XML is not loaded in its place
+ * (see GrammarSource.openSnapshot).
+ */
+public final class GrammarSnapshot {
+
+    public static final String EXTENSION = ".silg";
+
+    private static final int MAGIC = 0x53494C47; //"SILG"
+    private static final int VERSION = 4;
+    static final int HEADER_SIZE = 14; //magic, version, fingerprint
+
+    private static final int OP_END = 0;
+    private static final int OP_RULE = 1;
+    private static final int OP_REGEX = 2;
+    private static final int OP_PREAMBLE = 3;
+    private static final int OP_PROMPT = 4;
+    private static final int OP_MESSAGE = 5;
+    private static final int OP_RULE_END = 6;
+
+    //rule flags: browsable, then the interrupt ordinal + 1 (0 for none)
+    private static final int BROWSABLE = 1;
+    private static final int INTERRUPT_SHIFT = 1;
+
+    private static final int OPTIONAL = 1;
+    private static final int SUBSTITUTE = 2;
+
+    private GrammarSnapshot() {
+    }
+
+    //name of the snapshot of an xml grammar, i.e. calculator_grammar.xml -> calculator_grammar.silg
+    public static String snapshotName(String grammarName) {
+        return grammarName.replaceAll("(?i)\\.xml$", "") + EXTENSION;
+    }
+
+    /**
+     * Streams a snapshot into the listener. Throws IOException, before any content is handed over,
+     * if the stream is not a snapshot of the current version.
+     */
+    public static void read(InputStream is, GrammarListener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        readHeader(in);
+        RoutingSummary summary = RoutingSummary.readFrom(in);
+        listener.onNormalization(summary.getNormalizationProfile());
+        String[] strings = new String[readVarInt(in)];
+        for (int i = 0; i < strings.length; i++) strings[i] = in.readUTF();
+
+        int op;
+        while ((op = in.read()) != OP_END) {
+            switch (op) {
+                case OP_RULE: {
+                    String name = strings[readVarInt(in)];
+                    int flags = in.read();
+                    int interrupt = flags >> INTERRUPT_SHIFT;
+                    listener.onRule(name, (flags & BROWSABLE) != 0,
+                            interrupt == 0 ? null : Rule.Interrupt.values()[interrupt - 1]);
+                    break;
+                }
+                case OP_REGEX: {
+                    String regex = strings[readVarInt(in)];
+                    ArrayList<Group> groups = new ArrayList<>();
+                    int count = readVarInt(in);
+                    for (int i = 0; i < count; i++) {
+                        String name = strings[readVarInt(in)];
+                        int flags = in.read();
+                        groups.add(new Group(name, (flags & OPTIONAL) != 0, (flags & SUBSTITUTE) != 0));
+                    }
+                    listener.onRegex(regex, groups);
+                    break;
+                }
+                case OP_PREAMBLE:
+                    listener.onPreamble(readString(in, strings), readList(in, strings));
+                    break;
+                case OP_PROMPT:
+                    listener.onPrompt(readString(in, strings), readList(in, strings));
+                    break;
+                case OP_MESSAGE:
+                    listener.onMessage(readList(in, strings), readList(in, strings), readList(in, strings));
+                    break;
+                case OP_RULE_END:
+                    listener.onRuleEnd();
+                    break;
+                default:
+                    throw new IOException("Corrupted grammar snapshot, unknown entry " + op);
+            }
+        }
+    }
+
+    public static RoutingSummary readSummary(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        readHeader(in);
+        return RoutingSummary.readFrom(in);
+    }
+
+    //the fingerprint of the XML the snapshot was compiled from, reading only the header
+    public static long readFingerprint(InputStream is) throws IOException {
+        return readHeader(new DataInputStream(is));
+    }
+
+    //length and CRC32 of the XML grammar, read to the end
+    public static long fingerprint(InputStream xml) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        long length = 0;
+        int n;
+        while ((n = xml.read(buffer)) > 0) {
+            crc.update(buffer, 0, n);
+            length += n;
+        }
+        return (length << 32) | crc.getValue();
+    }
+
+    private static long readHeader(DataInputStream in) throws IOException {
+        if ((in.readInt() != MAGIC) || (in.readShort() != VERSION))
+            throw new IOException("Not a grammar snapshot or unsupported version");
+        return in.readLong();
+    }
+
+    private static String readString(DataInputStream in, String[] strings) throws IOException {
+        int i = readVarInt(in);
+        return i == 0 ? null : strings[i - 1];
+    }
+
+    private static ArrayList<String> readList(DataInputStream in, String[] strings) throws IOException {
+        int size = readVarInt(in);
+        if (size == 0) return null;
+        ArrayList<String> list = new ArrayList<>(size - 1);
+        for (int i = 1; i < size; i++) list.add(strings[readVarInt(in)]);
+        return list;
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Records the grammar content handed by a reader and writes it as a snapshot of the XML with the
+     * given fingerprint.
+     */
+    public static class Writer implements GrammarListener {
+        private final long mFingerprint;
+        private final ArrayList<String> mStrings = new ArrayList<>();
+        private final HashMap<String, Integer> mStringIds = new HashMap<>();
+        private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+        private final DataOutputStream mOut = new DataOutputStream(mBody);
+        private final RoutingSummary mSummary = new RoutingSummary();
+
+        public Writer(long fingerprint) {
+            this.mFingerprint = fingerprint;
+        }
+
+        @Override
+        public void onNormalization(NormalizationProfile profile) {
+            mSummary.onNormalization(profile); //written with the summary
+        }
+
+        @Override
+        public void onRule(String name, boolean browsable, Rule.Interrupt interrupt) {
+            mSummary.onRule(name, browsable, interrupt);
+            try {
+                mOut.write(OP_RULE);
+                writeVarInt(mOut, id(name));
+                mOut.write((browsable ? BROWSABLE : 0) | ((interrupt == null ? 0 : interrupt.ordinal() + 1) << INTERRUPT_SHIFT));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onRegex(String regex, Collection<Group> groups) {
+            mSummary.onRegex(regex, groups);
+            try {
+                mOut.write(OP_REGEX);
+                writeVarInt(mOut, id(regex));
+                writeVarInt(mOut, groups.size());
+                for (Group g : groups) {
+                    writeVarInt(mOut, id(g.getName()));
+                    mOut.write((g.isOptional() ? OPTIONAL : 0) | (g.isSubstitute() ? SUBSTITUTE : 0));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onPreamble(String key, ArrayList<String> items) {
+            writeKeyed(OP_PREAMBLE, key, items);
+        }
+
+        @Override
+        public void onPrompt(String key, ArrayList<String> items) {
+            writeKeyed(OP_PROMPT, key, items);
+        }
+
+        @Override
+        public void onMessage(ArrayList<String> groupNames, ArrayList<String> msgKey, ArrayList<String> items) {
+            try {
+                mOut.write(OP_MESSAGE);
+                writeList(groupNames);
+                writeList(msgKey);
+                writeList(items);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onRuleEnd() {
+            mSummary.onRuleEnd();
+            mBody.write(OP_RULE_END);
+        }
+
+        public void writeTo(OutputStream os) throws IOException {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(mFingerprint);
+            mSummary.writeTo(out);
+            writeVarInt(out, mStrings.size());
+            for (String s : mStrings) out.writeUTF(s);
+            mBody.writeTo(out);
+            out.write(OP_END);
+            out.flush();
+        }
+
+        private void writeKeyed(int op, String key, ArrayList<String> items) {
+            try {
+                mOut.write(op);
+                writeVarInt(mOut, key == null ? 0 : id(key) + 1);
+                writeList(items);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void writeList(ArrayList<String> list) throws IOException {
+            if (list == null) {
+                writeVarInt(mOut, 0);
+                return;
+            }
+            writeVarInt(mOut, list.size() + 1);
+            for (String s : list) writeVarInt(mOut, id(s));
+        }
+
+        private int id(String s) {
+            Integer id = mStringIds.get(s);
+            if (id == null) {
+                id = mStrings.size();
+                mStrings.add(s);
+                mStringIds.put(s, id);
+            }
+            return id;
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
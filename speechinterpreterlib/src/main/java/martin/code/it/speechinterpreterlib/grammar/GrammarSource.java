@@ -0,0 +1,138 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the grammar files (xml and snapshots) are read from: the assets of the app, or a directory
+ * holding newer versions of them (see AnsweringMachine.reloadGrammars). The parsers constructed on a
+ * thread read their grammar from the source bound to it, the assets of their Context if there is none:
+ * <pre>
+ * GrammarSource previous = GrammarSource.bind(GrammarSource.fromDirectory(dir));
+ * try {
+ *     parser = new MyResponseParser(context, grammarName);
+ * } finally {
+ *     GrammarSource.unbind(previous);
+ * }
+ * </pre>
+ */
+public abstract class GrammarSource {
+
+    private static final String TAG = GrammarSource.class.getSimpleName();
+
+    private static final ThreadLocal<GrammarSource> sBoundSource = new ThreadLocal<>();
+
+    //the file with the given name, IOException if there is none
+    public abstract InputStream open(String fileName) throws IOException;
+
+    /**
+     * The snapshot of the grammar (see GrammarSnapshot), null if there is none or it was not compiled
+     * from the XML grammar found next to it: after a change of the XML an old snapshot would be loaded in
+     * its place. The check reads the bytes of the XML, far less than parsing it. A snapshot shipped
+     * without its XML is always loaded.
+     */
+    public InputStream openSnapshot(String grammarName) {
+        String snapshotName = GrammarSnapshot.snapshotName(grammarName);
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(open(snapshotName));
+            is.mark(GrammarSnapshot.HEADER_SIZE);
+            long compiledFrom = GrammarSnapshot.readFingerprint(is);
+            is.reset();
+            Long current = fingerprint(grammarName);
+            if ((current == null) || (current == compiledFrom)) return is;
+            Log.w(TAG, snapshotName + " was compiled from another version of " + grammarName + ", the XML is read");
+        } catch (IOException e) {
+            //no snapshot, or of another version: the XML is read
+        }
+        close(is);
+        return null;
+    }
+
+    //of the XML grammar, null if there is none
+    private Long fingerprint(String grammarName) throws IOException {
+        InputStream is;
+        try {
+            is = open(grammarName);
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            return GrammarSnapshot.fingerprint(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void close(InputStream is) {
+        if (is == null) return;
+        try {
+            is.close();
+        } catch (IOException e) {
+            //nothing left to read from it
+        }
+    }
+
+    public static GrammarSource fromAssets(final AssetManager am) {
+        return new GrammarSource() {
+            @Override
+            public InputStream open(String fileName) throws IOException {
+                return am.open(fileName);
+            }
+        };
+    }
+
+    public static GrammarSource fromDirectory(final File dir) {
+        return new GrammarSource() {
+            @Override
+            public InputStream open(String fileName) throws IOException {
+                return new BufferedInputStream(new FileInputStream(new File(dir, fileName)));
+            }
+
+            @Override
+            public String toString() {
+                return dir.getPath();
+            }
+        };
+    }
+
+    //the source of the grammars loaded on the calling thread
+    public static GrammarSource current(Context context) {
+        GrammarSource source = sBoundSource.get();
+        return source != null ? source : fromAssets(context.getAssets());
+    }
+
+    //bind the source to the calling thread, returns the one bound before
+    public static GrammarSource bind(GrammarSource source) {
+        GrammarSource previous = sBoundSource.get();
+        sBoundSource.set(source);
+        return previous;
+    }
+
+    public static void unbind(GrammarSource previous) {
+        if (previous == null) sBoundSource.remove(); //don't leave anything behind on pooled threads
+        else sBoundSource.set(previous);
+    }
+}
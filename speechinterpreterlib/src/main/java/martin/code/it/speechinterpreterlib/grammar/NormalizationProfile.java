@@ -0,0 +1,182 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import java.util.HashMap;
+
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * How the queries are normalized before the rules of a grammar match them, declared on the root element:
+ * <pre>
+ * &lt;root normalize="punctuation whitespace lowercase numbers" punctuation="!?.,;:"&gt;
+ * </pre>
+ * punctuation removes the given chars ('.' and ',' between two digits are kept), whitespace collapses
+ * blanks into a single space, lowercase folds the case once so that the rules are matched case sensitively
+ * (their regex must be written in lower case), numbers turns number words up to ninety-nine into digits.
+ * All of it is done in a single pass over the chars. Grammars declaring no profile get DEFAULT, which only
+ * removes '!' and '?'. Profiles are interned, so grammars declaring the same one share it.
+ */
+public final class NormalizationProfile {
+
+    public static final String PUNCTUATION = "punctuation";
+    public static final String WHITESPACE = "whitespace";
+    public static final String LOWERCASE = "lowercase";
+    public static final String NUMBERS = "numbers";
+
+    private static final String DEFAULT_PUNCTUATION = "!?.,;:\"";
+
+    private static final String[] UNITS = {"zero", "one", "two", "three", "four", "five", "six", "seven", "eight",
+            "nine", "ten", "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen", "seventeen", "eighteen",
+            "nineteen"};
+    private static final String[] TENS = {null, null, "twenty", "thirty", "forty", "fifty", "sixty", "seventy",
+            "eighty", "ninety"};
+
+    private static final HashMap<String, NormalizationProfile> sProfiles = new HashMap<>();
+
+    //question and exclamation marks make trip the regex engine
+    public static final NormalizationProfile DEFAULT = of(PUNCTUATION, "!?");
+
+    private final String mOptions;
+    private final String mDeclaredPunctuation;
+    private final String mPunctuation;
+    private final boolean mStripPunctuation;
+    private final boolean mCollapseWhitespace;
+    private final boolean mLowerCase;
+    private final boolean mNumbers;
+
+    private NormalizationProfile(String options, String punctuation) {
+        this.mOptions = options;
+        this.mDeclaredPunctuation = punctuation;
+        boolean strip = false, collapse = false, lowerCase = false, numbers = false;
+        for (String option : options.trim().split("[ ,]+")) {
+            if (option.isEmpty()) continue;
+            if (option.equalsIgnoreCase(PUNCTUATION)) strip = true;
+            else if (option.equalsIgnoreCase(WHITESPACE)) collapse = true;
+            else if (option.equalsIgnoreCase(LOWERCASE)) lowerCase = true;
+            else if (option.equalsIgnoreCase(NUMBERS)) numbers = true;
+            else throw new IllegalStateException("Unknown normalization option '" + option + "'");
+        }
+        this.mStripPunctuation = strip;
+        this.mPunctuation = punctuation != null ? punctuation : DEFAULT_PUNCTUATION;
+        this.mCollapseWhitespace = collapse;
+        this.mLowerCase = lowerCase;
+        this.mNumbers = numbers;
+    }
+
+    //the profile declared by the attributes of a grammar root element, DEFAULT if options is null
+    public static NormalizationProfile of(String options, String punctuation) {
+        if (options == null) return DEFAULT;
+        String key = options + '\u0000' + punctuation;
+        synchronized (sProfiles) {
+            NormalizationProfile profile = sProfiles.get(key);
+            if (profile == null) {
+                profile = new NormalizationProfile(options, punctuation);
+                sProfiles.put(key, profile);
+            }
+            return profile;
+        }
+    }
+
+    public String getOptions() {
+        return mOptions;
+    }
+
+    //the chars to remove as declared, null for the default ones
+    public String getPunctuation() {
+        return mDeclaredPunctuation;
+    }
+
+    //flags the rules of a grammar with this profile are compiled with
+    public int getRegexFlags() {
+        return mLowerCase ? 0 : Rule.REGEX_FLAGS;
+    }
+
+    public String normalize(CharSequence query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        normalize(query, sb);
+        return sb.toString();
+    }
+
+    //appends the normalized query to out
+    public void normalize(CharSequence query, StringBuilder out) {
+        int base = out.length();
+        int n = query.length();
+        int wordStart = -1; //where the word being written starts in out
+        int tensAt = -1; //where the last number written starts in out, if it is a multiple of ten a unit can join
+        int tens = 0;
+        for (int i = 0; i < n; i++) {
+            char c = query.charAt(i);
+            if (mStripPunctuation && (mPunctuation.indexOf(c) >= 0) && !isDecimalSeparator(query, i, c)) continue;
+            if (mNumbers && (wordStart >= 0) && !Character.isLetter(c)) {
+                tensAt = endWord(out, wordStart, tensAt, tens);
+                if (tensAt >= 0) tens = out.charAt(tensAt) - '0';
+                wordStart = -1;
+            }
+            if (Character.isWhitespace(c)) {
+                if (!mCollapseWhitespace) out.append(c);
+                else if ((out.length() > base) && (out.charAt(out.length() - 1) != ' ')) out.append(' ');
+                continue;
+            }
+            if (Character.isLetter(c)) {
+                if (wordStart < 0) wordStart = out.length();
+            } else if (c != '-') {
+                tensAt = -1; //only blanks or a hyphen can be found between the tens and the unit
+            }
+            out.append(mLowerCase ? Character.toLowerCase(c) : c);
+        }
+        if (mNumbers && (wordStart >= 0)) endWord(out, wordStart, tensAt, tens);
+        if (mCollapseWhitespace && (out.length() > base) && (out.charAt(out.length() - 1) == ' '))
+            out.setLength(out.length() - 1);
+    }
+
+    private static boolean isDecimalSeparator(CharSequence query, int i, char c) {
+        return ((c == '.') || (c == ',')) && (i > 0) && (i + 1 < query.length())
+                && Character.isDigit(query.charAt(i - 1)) && Character.isDigit(query.charAt(i + 1));
+    }
+
+    //replaces the word ending out with its digits if it is a number, returns where a unit may join it
+    private static int endWord(StringBuilder out, int wordStart, int tensAt, int tens) {
+        int value = numberValue(out, wordStart);
+        if (value < 0) return -1;
+        if ((tensAt >= 0) && (value > 0) && (value < 10)) {
+            out.setLength(tensAt);
+            out.append(tens * 10 + value);
+            return -1;
+        }
+        out.setLength(wordStart);
+        out.append(value);
+        return (value >= 20) && (value % 10 == 0) ? wordStart : -1;
+    }
+
+    private static int numberValue(StringBuilder out, int wordStart) {
+        for (int i = 0; i < UNITS.length; i++) {
+            if (wordEquals(out, wordStart, UNITS[i])) return i;
+        }
+        for (int i = 2; i < TENS.length; i++) {
+            if (wordEquals(out, wordStart, TENS[i])) return i * 10;
+        }
+        return -1;
+    }
+
+    private static boolean wordEquals(StringBuilder out, int wordStart, String word) {
+        if (out.length() - wordStart != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(out.charAt(wordStart + i)) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+}
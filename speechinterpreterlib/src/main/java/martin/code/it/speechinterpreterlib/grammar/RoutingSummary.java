@@ -0,0 +1,154 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import martin.code.it.speechinterpreterlib.exceptions.NullGrammarException;
+import martin.code.it.speechinterpreterlib.rules.RegexLiterals;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+
+/**
+ * The little a grammar needs to take part in routing before its rules are loaded: the names of its rules,
+ * the literals required by its browsable rules (see RegexLiterals) and its NormalizationProfile. A grammar with a browsable rule
+ * that requires no literal is a candidate for every query.
+ */
+public class RoutingSummary implements GrammarListener {
+
+    private final LinkedHashSet<String> mRuleNames = new LinkedHashSet<>();
+    private final LinkedHashSet<String> mLiterals = new LinkedHashSet<>();
+    private boolean mAlwaysCandidate = false;
+    private NormalizationProfile mProfile = NormalizationProfile.DEFAULT;
+
+    //state of the rule being read
+    private boolean mBrowsable;
+    private boolean mHasRegex;
+
+    public static RoutingSummary load(GrammarSource source, String grammarName)
+            throws XmlPullParserException, IOException, NullGrammarException {
+        InputStream is = null;
+        RoutingSummary summary = null;
+        try {
+            is = source.openSnapshot(grammarName);
+            if (is != null) {
+                summary = GrammarSnapshot.readSummary(is);
+            } else { //no precompiled grammar, read the xml one
+                is = source.open(grammarName);
+                summary = new RoutingSummary();
+                XmlGrammarReader.read(is, grammarName, summary);
+            }
+        } finally {
+            if (is != null) {
+                is.close();
+            } else {
+                throw new NullGrammarException("Not valid grammar found");
+            }
+        }
+        return summary;
+    }
+
+    public boolean hasRule(String ruleName) {
+        return mRuleNames.contains(ruleName);
+    }
+
+    //literals of which at least one is contained in any query the grammar can route, null if there are none
+    public Set<String> getLiterals() {
+        return mAlwaysCandidate ? null : Collections.unmodifiableSet(mLiterals);
+    }
+
+    public NormalizationProfile getNormalizationProfile() {
+        return mProfile;
+    }
+
+    @Override
+    public void onNormalization(NormalizationProfile profile) {
+        mProfile = profile;
+    }
+
+    @Override
+    public void onRule(String name, boolean browsable, Rule.Interrupt interrupt) {
+        mRuleNames.add(name);
+        mBrowsable = browsable;
+        mHasRegex = false;
+    }
+
+    @Override
+    public void onRegex(String regex, Collection<Group> groups) {
+        mHasRegex = true;
+        if (mBrowsable) addRequiredLiterals(regex);
+    }
+
+    @Override
+    public void onPreamble(String key, ArrayList<String> items) {
+    }
+
+    @Override
+    public void onPrompt(String key, ArrayList<String> items) {
+    }
+
+    @Override
+    public void onMessage(ArrayList<String> groupNames, ArrayList<String> msgKey, ArrayList<String> items) {
+    }
+
+    @Override
+    public void onRuleEnd() {
+        if (mBrowsable && !mHasRegex) addRequiredLiterals(""); //same as a rule with the default empty regex
+    }
+
+    private void addRequiredLiterals(String regex) {
+        Set<String> literals = RegexLiterals.requiredLiterals(regex);
+        if (literals == null) mAlwaysCandidate = true;
+        else mLiterals.addAll(literals);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mRuleNames.size());
+        for (String s : mRuleNames) out.writeUTF(s);
+        out.writeBoolean(mAlwaysCandidate);
+        out.writeInt(mLiterals.size());
+        for (String s : mLiterals) out.writeUTF(s);
+        out.writeUTF(mProfile.getOptions());
+        writeNullable(out, mProfile.getPunctuation());
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    static RoutingSummary readFrom(DataInputStream in) throws IOException {
+        RoutingSummary summary = new RoutingSummary();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) summary.mRuleNames.add(in.readUTF());
+        summary.mAlwaysCandidate = in.readBoolean();
+        count = in.readInt();
+        for (int i = 0; i < count; i++) summary.mLiterals.add(in.readUTF());
+        String options = in.readUTF();
+        summary.mProfile = NormalizationProfile.of(options, in.readBoolean() ? in.readUTF() : null);
+        return summary;
+    }
+}
@@ -0,0 +1,142 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+
+/**
+ * Reads an XML grammar and hands its content to a GrammarListener.
+ */
+public final class XmlGrammarReader {
+
+    //tags const declaration
+    private static final String ROOT_TAG = "root";
+    private static final String RULE_TAG = "rule";
+    private static final String PREAMBLE_TAG = "preamble";
+    private static final String PROMPT_TAG = "prompt";
+    private static final String REGEX_TAG = "regex";
+    private static final String MSG_TAG = "msg";
+    private static final String MSGGROUP_TAG = "msggroup";
+    private static final String ITEM_TAG = "item";
+
+    //attribute const declaration
+    private static final String NAME_ATTR = "name";
+    private static final String BROWSBLE_ATTR = "browsable";
+    private static final String INTERRUPT_ATTR = "interrupt";
+    private static final String KEY_ATTR = "key";
+    private static final String NORMALIZE_ATTR = "normalize";
+    private static final String PUNCTUATION_ATTR = "punctuation";
+
+    private XmlGrammarReader() {
+    }
+
+    public static void read(InputStream is, String grammarName, GrammarListener listener)
+            throws XmlPullParserException, IOException {
+        String text = "";
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(is, "utf8");
+        int eventType = parser.getEventType();
+        String tagName;
+        String tempKey = null;
+        ArrayList<String> tempGroupNames = null;
+        ArrayList<String> tempArrayKey = null;
+        ArrayList<String> tempList = new ArrayList<>();
+
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            tagName = parser.getName();
+            switch (eventType) {
+                case XmlPullParser.START_TAG:
+                    if (tagName.equalsIgnoreCase(ROOT_TAG)) {
+                        listener.onNormalization(NormalizationProfile.of(parser.getAttributeValue(null, NORMALIZE_ATTR),
+                                parser.getAttributeValue(null, PUNCTUATION_ATTR)));
+
+                    } else if (tagName.equalsIgnoreCase(RULE_TAG)) {
+                        String nameAttr = parser.getAttributeValue(null, NAME_ATTR);
+                        if (nameAttr == null) throw new IllegalStateException("A rule in grammar file " +
+                                grammarName + " has no attribute name defined");
+                        boolean browsable = true;
+                        String browsableAttr = parser.getAttributeValue(null, BROWSBLE_ATTR);
+                        if (browsableAttr != null) {
+                            browsable = Boolean.parseBoolean(browsableAttr);
+                        }
+                        listener.onRule(nameAttr, browsable,
+                                Rule.Interrupt.fromKey(parser.getAttributeValue(null, INTERRUPT_ATTR)));
+
+                    } else if (tagName.equalsIgnoreCase(PROMPT_TAG)) {
+                        tempKey = parser.getAttributeValue(null, KEY_ATTR);
+
+                    } else if (tagName.equalsIgnoreCase(PREAMBLE_TAG)) {
+                        tempKey = parser.getAttributeValue(null, KEY_ATTR);
+
+                    } else if (tagName.equalsIgnoreCase(MSG_TAG)) {
+                        String key = parser.getAttributeValue(null, KEY_ATTR);
+                        if (key != null) { //if attribute is not empty or void
+                            tempArrayKey = new ArrayList<>(Arrays.asList(key.split(",")));
+                        } else tempArrayKey = null;
+
+                    } else if (tagName.equalsIgnoreCase(MSGGROUP_TAG)) {
+                        String key = parser.getAttributeValue(null, KEY_ATTR);
+                        if (key != null) { //if attribute is not empty or void
+                            tempGroupNames = new ArrayList<>(Arrays.asList(key.split(",")));
+                        } else tempGroupNames = null;
+                    }
+                    break;
+                case XmlPullParser.TEXT:
+                    text = parser.getText();
+                    break;
+                case XmlPullParser.END_TAG:
+                    if (tagName.equalsIgnoreCase(RULE_TAG)) {
+                        listener.onRuleEnd();
+                    } else if (tagName.equalsIgnoreCase(REGEX_TAG)) {
+                        LinkedHashMap<String, Group> groups = new LinkedHashMap<>();
+                        String regex = Rule.prepareRegex(text, groups);
+                        listener.onRegex(regex, groups.values());
+                    } else if (tagName.equalsIgnoreCase(ITEM_TAG)) {
+                        tempList.add(text);
+                    } else if (tagName.equalsIgnoreCase(PROMPT_TAG)) {
+                        listener.onPrompt(tempKey, tempList);
+                        tempList.clear();
+                        tempKey = null;
+                    } else if (tagName.equalsIgnoreCase(PREAMBLE_TAG)) {
+                        listener.onPreamble(tempKey, tempList);
+                        tempList.clear();
+                        tempKey = null;
+                    } else if (tagName.equalsIgnoreCase(MSG_TAG)) {
+                        listener.onMessage(tempGroupNames, tempArrayKey, tempList);
+                        tempArrayKey = null;
+                        tempList.clear();
+                    } else if (tagName.equalsIgnoreCase(MSGGROUP_TAG)) {
+                        tempGroupNames = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            eventType = parser.next();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in power of two buckets of nanoseconds: bucket i counts the latencies
+ * from 2^(i-1) (excluded) to 2^i ns (included), bucket 0 the ones up to 1 ns.
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 64;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        mBuckets.incrementAndGet(nanos == 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMaxNanos.get())) {
+            if (mMaxNanos.compareAndSet(max, nanos)) break;
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) mBuckets.set(i, 0);
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    //not atomic as a whole: taken while recording, the counts may be a few samples apart
+    Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) buckets[i] = mBuckets.get(i);
+        return new Snapshot(buckets, mCount.get(), mTotalNanos.get(), mMaxNanos.get());
+    }
+
+    public static final class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mTotalNanos;
+        private final long mMaxNanos;
+
+        Snapshot(long[] buckets, long count, long totalNanos, long maxNanos) {
+            this.mBuckets = buckets;
+            this.mCount = count;
+            this.mTotalNanos = totalNanos;
+            this.mMaxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+
+        //samples in bucket i, see LatencyHistogram
+        public long getBucket(int i) {
+            return mBuckets[i];
+        }
+
+        //upper bound of the bucket holding the given percentile (0-100), so at most twice the real value
+        public long getPercentileNanos(double percentile) {
+            long total = 0;
+            for (long b : mBuckets) total += b;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * percentile / 100d);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets[i];
+                if ((seen >= rank) && (mBuckets[i] > 0)) return Math.min(1L << Math.min(i, 62), mMaxNanos);
+            }
+            return mMaxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + " mean=" + getMeanNanos() + "ns p50=" + getPercentileNanos(50)
+                    + "ns p99=" + getPercentileNanos(99) + "ns max=" + mMaxNanos + "ns";
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+/**
+ * Counters and latency histograms of the interpreter hot path, for the whole process. Off by default: then
+ * every probe is a single volatile read. Once enabled the probes only use atomic counters, so they never
+ * lock. The data is pulled with snapshot(), e.g. by a service exporting it.
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.stop(Metrics.Stage.ROUTE, start);
+ * </pre>
+ */
+public final class Metrics {
+
+    public enum Stage {
+        NORMALIZE, //a query normalized with a profile
+        ROUTE, //interrupt rules and routing of a query, outside of a dialogue too
+        SLOT_FILL, //the results of the rule in charge of the dialogue taken from a query
+        PROCESS_RESPONSE, //processResponse() of a parser, message rendering included
+        RENDER, //a message with its placeholders replaced
+        GRAMMAR_LOAD, //a grammar read from xml or from a snapshot
+        SESSION_RESTORE //a passivated session read back from its store
+    }
+
+    private static volatile boolean sEnabled = false;
+
+    private static final EnumMap<Stage, LatencyHistogram> sHistograms = new EnumMap<>(Stage.class);
+    //by "grammar/rule" (see Rule.getQualifiedName()), not by instance: a grammar reloaded or unloaded is not
+    //kept in memory by its counters, and its new rules go on counting where the old ones left off
+    private static final ConcurrentHashMap<String, AtomicLong> sRuleHits = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Long> sGrammarLoadNanos = new ConcurrentHashMap<>();
+    private static final AtomicLong sNotUnderstood = new AtomicLong();
+    private static final AtomicLong sReprompts = new AtomicLong();
+    private static final ConcurrentHashMap<String, AtomicLong> sBudgetExceeded = new ConcurrentHashMap<>();
+
+    static {
+        for (Stage stage : Stage.values()) sHistograms.put(stage, new LatencyHistogram());
+    }
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    //the start of a measured stage, 0 when disabled
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0L;
+    }
+
+    public static void stop(Stage stage, long start) {
+        if (start != 0L) sHistograms.get(stage).record(System.nanoTime() - start);
+    }
+
+    public static void grammarLoaded(String grammarName, long start) {
+        if (start == 0L) return;
+        long nanos = System.nanoTime() - start;
+        sHistograms.get(Stage.GRAMMAR_LOAD).record(nanos);
+        sGrammarLoadNanos.put(grammarName, nanos);
+    }
+
+    //the rule matched the query of the user (routed to it, in charge of the dialogue or an interrupt)
+    public static void ruleHit(Rule rule) {
+        if (sEnabled) count(sRuleHits, rule.getQualifiedName());
+    }
+
+    //the regex of the rule gave up on a query, see MatchBudget
+    public static void matchBudgetExceeded(Rule rule) {
+        if (sEnabled) count(sBudgetExceeded, rule.getQualifiedName());
+    }
+
+    private static void count(ConcurrentHashMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) counter = created;
+        }
+        counter.incrementAndGet();
+    }
+
+    public static void notUnderstood() {
+        if (sEnabled) sNotUnderstood.incrementAndGet();
+    }
+
+    //a rule asked again for what it could not understand
+    public static void reprompt() {
+        if (sEnabled) sReprompts.incrementAndGet();
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : sHistograms.values()) histogram.reset();
+        sRuleHits.clear();
+        sGrammarLoadNanos.clear();
+        sNotUnderstood.set(0);
+        sReprompts.set(0);
+        sBudgetExceeded.clear();
+    }
+
+    public static Snapshot snapshot() {
+        EnumMap<Stage, LatencyHistogram.Snapshot> latencies = new EnumMap<>(Stage.class);
+        for (Map.Entry<Stage, LatencyHistogram> e : sHistograms.entrySet()) latencies.put(e.getKey(), e.getValue().snapshot());
+        return new Snapshot(latencies, copy(sRuleHits), new LinkedHashMap<>(sGrammarLoadNanos), sNotUnderstood.get(),
+                sReprompts.get(), copy(sBudgetExceeded));
+    }
+
+    private static LinkedHashMap<String, Long> copy(ConcurrentHashMap<String, AtomicLong> counters) {
+        LinkedHashMap<String, Long> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) copy.put(e.getKey(), e.getValue().get());
+        return copy;
+    }
+
+    /**
+     * The metrics at some point in time, never changed afterwards.
+     */
+    public static final class Snapshot {
+        private final Map<Stage, LatencyHistogram.Snapshot> mLatencies;
+        private final Map<String, Long> mRuleHits;
+        private final Map<String, Long> mGrammarLoadNanos;
+        private final long mNotUnderstood;
+        private final long mReprompts;
+        private final Map<String, Long> mBudgetExceeded;
+
+        Snapshot(Map<Stage, LatencyHistogram.Snapshot> latencies, Map<String, Long> ruleHits,
+                 Map<String, Long> grammarLoadNanos, long notUnderstood, long reprompts, Map<String, Long> budgetExceeded) {
+            this.mLatencies = Collections.unmodifiableMap(latencies);
+            this.mRuleHits = Collections.unmodifiableMap(ruleHits);
+            this.mGrammarLoadNanos = Collections.unmodifiableMap(grammarLoadNanos);
+            this.mNotUnderstood = notUnderstood;
+            this.mReprompts = reprompts;
+            this.mBudgetExceeded = Collections.unmodifiableMap(budgetExceeded);
+        }
+
+        public LatencyHistogram.Snapshot getLatency(Stage stage) {
+            return mLatencies.get(stage);
+        }
+
+        //by "grammar/rule"
+        public Map<String, Long> getRuleHits() {
+            return mRuleHits;
+        }
+
+        //by grammar, the time of its last load
+        public Map<String, Long> getGrammarLoadNanos() {
+            return mGrammarLoadNanos;
+        }
+
+        public long getNotUnderstood() {
+            return mNotUnderstood;
+        }
+
+        public long getReprompts() {
+            return mReprompts;
+        }
+
+        //by "grammar/rule", the matches given up for exceeding the MatchBudget
+        public Map<String, Long> getBudgetExceeded() {
+            return mBudgetExceeded;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Stage, LatencyHistogram.Snapshot> e : mLatencies.entrySet())
+                sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+            sb.append("not understood: ").append(mNotUnderstood).append(", reprompts: ").append(mReprompts).append('\n');
+            sb.append("rule hits: ").append(mRuleHits).append('\n');
+            sb.append("grammar load ns: ").append(mGrammarLoadNanos).append('\n');
+            sb.append("match budget exceeded: ").append(mBudgetExceeded);
+            return sb.toString();
+        }
+    }
+}
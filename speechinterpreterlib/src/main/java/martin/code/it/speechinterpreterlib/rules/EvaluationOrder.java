@@ -0,0 +1,250 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The order the browsable rules of a grammar are tried in. Only the first rule matching a query counts,
+ * so two rules may swap places only if no query can match both. That is proven from the strings they
+ * match (see RegexLiterals): two finite sets with nothing in common, or a finite set none of whose strings
+ * contains a literal the other rule requires. Rules not proven apart keep their declaration order, so
+ * every query is routed as before.
+ * <p/>
+ * Among the rules free to move, the ones with the lowest matching cost over match probability go first,
+ * which is the order trying the fewest rules on average. Both are estimated from the regex alone
+ * (RegexRisk.Shape, the literals): a literal start makes most queries fail at once, while a leading
+ * wildcard, more wildcards, lookarounds and nested quantifiers make the matcher try more splits of the
+ * query. The costs are in chars read on a query of NOMINAL_LENGTH, only good for comparing the rules.
+ * withHits() orders the rules again with the probabilities learnt from the rules actually hit.
+ */
+public final class EvaluationOrder {
+
+    public static final int NOMINAL_LENGTH = 24;
+
+    private static final double MIN_SELECTIVITY = 0.001;
+    private static final double MAX_SELECTIVITY = 0.9;
+    private static final double PRIOR_HITS = 20; //weight of the static estimates against the hits counted
+
+
+    private final Rule[] mDeclared;
+    private final double[] mCost;
+    private final double[] mSelectivity;
+    private final double[] mProbability; //the match probabilities the order is based on
+    private final BitSet[] mDisjoint; //by declaration position, the positions of the rules it never matches with
+    private final IdentityHashMap<Rule, Integer> mPositions;
+    private final int[] mOrder; //declaration positions, in evaluation order
+    private final List<Rule> mRules;
+
+    public EvaluationOrder(Collection<Rule> declared) {
+        mDeclared = declared.toArray(new Rule[declared.size()]);
+        int n = mDeclared.length;
+        mCost = new double[n];
+        mSelectivity = new double[n];
+        mDisjoint = new BitSet[n];
+        mPositions = new IdentityHashMap<>(n);
+        Set<String>[] exact = newSetArray(n);
+        Set<String>[] required = newSetArray(n);
+        for (int i = 0; i < n; i++) {
+            Rule rule = mDeclared[i];
+            mPositions.put(rule, i);
+            exact[i] = RegexLiterals.exactStrings(rule.getRegex());
+            required[i] = rule.getRequiredLiterals();
+            mSelectivity[i] = estimateSelectivity(exact[i], required[i]);
+            mCost[i] = estimateCost(RegexRisk.analyze(rule.getRegex()), mSelectivity[i]);
+            mDisjoint[i] = new BitSet(n);
+            for (int j = 0; j < i; j++) {
+                if (disjoint(exact[i], required[i], exact[j], required[j])) {
+                    mDisjoint[i].set(j);
+                    mDisjoint[j].set(i);
+                }
+            }
+        }
+        mProbability = mSelectivity;
+        mOrder = order(mProbability);
+        mRules = rules(mDeclared, mOrder);
+    }
+
+    private EvaluationOrder(EvaluationOrder estimates, double[] probability) {
+        mDeclared = estimates.mDeclared;
+        mCost = estimates.mCost;
+        mSelectivity = estimates.mSelectivity;
+        mDisjoint = estimates.mDisjoint;
+        mPositions = estimates.mPositions;
+        mProbability = probability;
+        mOrder = order(mProbability);
+        mRules = rules(mDeclared, mOrder);
+    }
+
+    private static List<Rule> rules(Rule[] declared, int[] order) {
+        Rule[] rules = new Rule[order.length];
+        for (int i = 0; i < order.length; i++) rules[i] = declared[order[i]];
+        return Collections.unmodifiableList(Arrays.asList(rules));
+    }
+
+    //the order for the hits counted so far, by declaration position: the share of the hits of a rule,
+    //smoothed with its static estimate, is its match probability
+    public EvaluationOrder withHits(long[] hits) {
+        if (hits.length != mDeclared.length) throw new IllegalArgumentException("Hits of " + hits.length + " rules, not " + mDeclared.length);
+        long total = 0;
+        for (long h : hits) total += h;
+        double[] probability = new double[hits.length];
+        for (int i = 0; i < hits.length; i++)
+            probability[i] = (hits[i] + PRIOR_HITS * mSelectivity[i]) / (total + PRIOR_HITS);
+        return new EvaluationOrder(this, probability);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Set<String>[] newSetArray(int n) {
+        return (Set<String>[]) new Set[n];
+    }
+
+    //the rules in evaluation order
+    public List<Rule> getRules() {
+        return mRules;
+    }
+
+    //the rules in declaration order
+    public List<Rule> getDeclaredRules() {
+        return Collections.unmodifiableList(Arrays.asList(mDeclared));
+    }
+
+    //declaration position of the rule, -1 if it is not one of them
+    public int indexOf(Rule rule) {
+        Integer i = mPositions.get(rule);
+        return i != null ? i : -1;
+    }
+
+    //true if the order differs from the declared one
+    public boolean isChanged() {
+        for (int i = 0; i < mOrder.length; i++) {
+            if (mOrder[i] != i) return true;
+        }
+        return false;
+    }
+
+    //estimated cost of routing a query through the rules in declaration order
+    public double getDeclaredCost() {
+        int[] declared = new int[mDeclared.length];
+        for (int i = 0; i < declared.length; i++) declared[i] = i;
+        return expectedCost(declared, mProbability);
+    }
+
+    //estimated cost of routing a query through the rules in evaluation order
+    public double getCost() {
+        return expectedCost(mOrder, mProbability);
+    }
+
+    //estimated share of the routing cost saved by the evaluation order
+    public double getSavings() {
+        double declared = getDeclaredCost();
+        return declared > 0 ? 1 - getCost() / declared : 0;
+    }
+
+    //declaration positions in the order of increasing cost over probability, each rule moving ahead only
+    //of the rules it never matches together with, so relative order of the others is kept
+    private int[] order(double[] probability) {
+        int n = mDeclared.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            int k = i;
+            while ((k > 0) && mDisjoint[i].get(order[k - 1])
+                    && (mCost[order[k - 1]] * probability[i] > mCost[i] * probability[order[k - 1]])) {
+                order[k] = order[k - 1];
+                k--;
+            }
+            order[k] = i;
+        }
+        return order;
+    }
+
+    //the cost of a rule is paid by the queries not matched by the rules before it
+    private double expectedCost(int[] order, double[] probability) {
+        double cost = 0;
+        double reach = 1;
+        for (int i : order) {
+            cost += reach * mCost[i];
+            reach *= 1 - probability[i];
+        }
+        return cost;
+    }
+
+    private static boolean disjoint(Set<String> exactA, Set<String> requiredA, Set<String> exactB, Set<String> requiredB) {
+        if ((exactA != null) && (exactB != null)) {
+            for (String s : exactA) {
+                if (exactB.contains(s)) return false;
+            }
+            return true;
+        }
+        if ((exactA != null) && (requiredB != null)) return noneContains(exactA, requiredB);
+        if ((exactB != null) && (requiredA != null)) return noneContains(exactB, requiredA);
+        return false;
+    }
+
+    private static boolean noneContains(Set<String> strings, Set<String> literals) {
+        for (String s : strings) {
+            for (String literal : literals) {
+                if (s.contains(literal)) return false;
+            }
+        }
+        return true;
+    }
+
+    //the chance that a query matches: a few exact strings are unlikely, a long required literal too
+    private static double estimateSelectivity(Set<String> exact, Set<String> required) {
+        double p;
+        if (exact != null) p = 0.02 * exact.size();
+        else if (required != null) {
+            p = 0;
+            for (String literal : required) p += 1.0 / (2 * literal.length() * literal.length());
+        } else p = MAX_SELECTIVITY;
+        return Math.max(MIN_SELECTIVITY, Math.min(MAX_SELECTIVITY, p));
+    }
+
+    private static double estimateCost(RegexRisk.Shape shape, double selectivity) {
+        double n = NOMINAL_LENGTH;
+        if (shape == null) return n; //not understood: a plain scan
+        //every wildcard after the first one multiplies the splits of the query tried
+        double cost = n * Math.pow(n, Math.max(0, shape.getWildcards() - 1));
+        if (shape.hasLeadingWildcard()) cost *= 1 + shape.getLookarounds(); //tried at every split
+        else cost += 2 * shape.getLookarounds();
+        if (shape.isExponential()) cost *= n * n;
+        //only the queries getting past the first chars go on
+        if (shape.hasLiteralStart()) cost = 2 + selectivity * cost;
+        return cost;
+    }
+
+    //the rules in evaluation order with their estimates, and the saving
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mOrder.length; i++) {
+            int d = mOrder[i];
+            sb.append(String.format(Locale.US, "%2d. %-24s declared %2d, cost %10.1f, p %.3f%n",
+                    i + 1, mDeclared[d].getName(), d + 1, mCost[d], mProbability[d]));
+        }
+        sb.append(String.format(Locale.US, "estimated cost %.1f, declared order %.1f, saving %.1f%%",
+                getCost(), getDeclaredCost(), 100 * getSavings()));
+        return sb.toString();
+    }
+}
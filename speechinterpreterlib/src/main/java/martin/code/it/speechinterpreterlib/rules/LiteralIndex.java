@@ -0,0 +1,193 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Inverted index from the required literals of a list of rules (or of plain literal sets) to their positions.
+ * All literals are compiled in an Aho-Corasick automaton, so one pass over the query gives the
+ * positions of the rules whose regex can possibly match it; rules without any required literal
+ * are always candidates.
+ */
+public class LiteralIndex {
+
+    private final Rule[] mRules;
+    private final BitSet mAlwaysCandidates;
+
+    //automaton: per state the sorted transition chars and their target states, the failure link
+    //and the rule positions whose literal ends in this state (failure chain included)
+    private char[][] mChars;
+    private int[][] mNext;
+    private int[] mFail;
+    private int[][] mOutput;
+
+    public LiteralIndex(List<Rule> rules) {
+        mRules = rules.toArray(new Rule[rules.size()]);
+        ArrayList<Set<String>> literalSets = new ArrayList<>(mRules.length);
+        for (Rule rule : mRules) literalSets.add(rule.getRequiredLiterals());
+        mAlwaysCandidates = new BitSet(mRules.length);
+        build(literalSets);
+    }
+
+    private LiteralIndex(List<Set<String>> literalSets, boolean noRules) {
+        mRules = null;
+        mAlwaysCandidates = new BitSet(literalSets.size());
+        build(literalSets);
+    }
+
+    //index of plain literal sets (a null set is always a candidate), positions are the ones of the list
+    public static LiteralIndex ofLiterals(List<Set<String>> literalSets) {
+        return new LiteralIndex(literalSets, true);
+    }
+
+    public Rule getRule(int position) {
+        return mRules[position];
+    }
+
+    public boolean hasLiterals(int position) {
+        return !mAlwaysCandidates.get(position);
+    }
+
+    /**
+     * A pass over a text that may grow between calls, as the partial results of a speech recognizer do:
+     * when the text extends the one scanned before, the automaton goes on from where it stopped.
+     */
+    public static final class Scan {
+        private final LiteralIndex mIndex;
+        private String mText = "";
+        private int mState = 0;
+        private final BitSet mCandidates;
+
+        private Scan(LiteralIndex index) {
+            mIndex = index;
+            mCandidates = (BitSet) index.mAlwaysCandidates.clone();
+        }
+
+        //positions of the rules that may match the text, the returned set belongs to the scan
+        public BitSet candidates(String text) {
+            if (!text.startsWith(mText)) { //not a continuation: start over
+                mText = "";
+                mState = 0;
+                mCandidates.clear();
+                mCandidates.or(mIndex.mAlwaysCandidates);
+            }
+            mState = mIndex.scan(text, mText.length(), mState, mCandidates);
+            mText = text;
+            return mCandidates;
+        }
+    }
+
+    public Scan newScan() {
+        return new Scan(this);
+    }
+
+    //positions (in the list given at construction) of the rules that may match the query
+    public BitSet candidates(CharSequence query) {
+        BitSet result = (BitSet) mAlwaysCandidates.clone();
+        scan(query, 0, 0, result);
+        return result;
+    }
+
+    //run the automaton over the query from position from and state, returns the state reached
+    private int scan(CharSequence query, int from, int state, BitSet result) {
+        int next;
+        for (int i = from; i < query.length(); i++) {
+            char c = Character.toLowerCase(query.charAt(i));
+            while (((next = transition(state, c)) < 0) && (state != 0)) state = mFail[state];
+            state = next < 0 ? 0 : next;
+            for (int position : mOutput[state]) result.set(position);
+        }
+        return state;
+    }
+
+    private int transition(int state, char c) {
+        int i = Arrays.binarySearch(mChars[state], c);
+        return i < 0 ? -1 : mNext[state][i];
+    }
+
+    private void build(List<Set<String>> literalSets) {
+        ArrayList<HashMap<Character, Integer>> gotos = new ArrayList<>();
+        ArrayList<BitSet> outputs = new ArrayList<>();
+        gotos.add(new HashMap<Character, Integer>());
+        outputs.add(new BitSet());
+        for (int position = 0; position < literalSets.size(); position++) {
+            Set<String> literals = literalSets.get(position);
+            if (literals == null) {
+                mAlwaysCandidates.set(position);
+                continue;
+            }
+            for (String literal : literals) {
+                int state = 0;
+                for (int i = 0; i < literal.length(); i++) {
+                    Integer next = gotos.get(state).get(literal.charAt(i));
+                    if (next == null) {
+                        next = gotos.size();
+                        gotos.add(new HashMap<Character, Integer>());
+                        outputs.add(new BitSet());
+                        gotos.get(state).put(literal.charAt(i), next);
+                    }
+                    state = next;
+                }
+                outputs.get(state).set(position);
+            }
+        }
+
+        int states = gotos.size();
+        mChars = new char[states][];
+        mNext = new int[states][];
+        mFail = new int[states];
+        mOutput = new int[states][];
+        for (int s = 0; s < states; s++) {
+            Character[] keys = gotos.get(s).keySet().toArray(new Character[0]);
+            Arrays.sort(keys);
+            mChars[s] = new char[keys.length];
+            mNext[s] = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                mChars[s][i] = keys[i];
+                mNext[s][i] = gotos.get(s).get(keys[i]);
+            }
+        }
+
+        //breadth first visit to set failure links and merge the outputs along the failure chain
+        LinkedList<Integer> queue = new LinkedList<>();
+        for (int child : mNext[0]) queue.add(child);
+        while (!queue.isEmpty()) {
+            int s = queue.removeFirst();
+            for (int i = 0; i < mChars[s].length; i++) {
+                int child = mNext[s][i];
+                int f = mFail[s];
+                int t;
+                while (((t = transition(f, mChars[s][i])) < 0) && (f != 0)) f = mFail[f];
+                mFail[child] = ((t < 0) || (t == child)) ? 0 : t;
+                outputs.get(child).or(outputs.get(mFail[child]));
+                queue.add(child);
+            }
+        }
+        for (int s = 0; s < states; s++) {
+            BitSet out = outputs.get(s);
+            mOutput[s] = new int[out.cardinality()];
+            int j = 0;
+            for (int p = out.nextSetBit(0); p >= 0; p = out.nextSetBit(p + 1)) mOutput[s][j++] = p;
+        }
+    }
+}
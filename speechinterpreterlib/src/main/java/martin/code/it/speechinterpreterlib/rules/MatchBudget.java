@@ -0,0 +1,246 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import com.google.code.regexp.Matcher;
+import com.google.code.regexp.Pattern;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounds the work of a regex match, so that a pattern backtracking catastrophically on some query can
+ * not stall the interpreter. Both limits are for the whole process, 0 disables one.
+ * Where the matcher reads the query through charAt() (the plain JVM) the query is handed to it through a
+ * CharSequence counting the characters read: past the max steps, or past the max time, the read throws
+ * Exceeded and the match is abandoned.
+ * <pre>
+ * try {
+ *     matched = pattern.matcher(MatchBudget.wrap(query)).matches();
+ * } catch (MatchBudget.Exceeded e) {
+ *     matched = false;
+ * }
+ * </pre>
+ * Android's matcher copies the query and matches it natively in ICU, so nothing can be counted: there
+ * only the patterns RegexRisk flags are bounded, by time alone, running them on a watchdog thread the
+ * caller stops waiting for at the deadline (see match()). ICU can't be stopped, the thread goes on until
+ * the match ends, so at most WATCHDOG_THREADS runaway matches run at once and the next risky matches are
+ * given up straight away. The other patterns are matched as they are, unbounded.
+ */
+public final class MatchBudget {
+
+    public static final long DEFAULT_MAX_STEPS = 1000000L;
+    public static final long DEFAULT_MAX_MILLIS = 50L;
+
+    private static final int CLOCK_MASK = 0x3FF; //the clock is read once every 1024 steps
+    private static final int WATCHDOG_THREADS = 2;
+
+    //whether the matcher of this platform reads the input through charAt(), so that wrap() can count
+    private static final boolean sStepsCounted = countsSteps();
+    private static ThreadPoolExecutor sWatchdog; //created on the first risky match where steps aren't counted
+
+    private static volatile long sMaxSteps = DEFAULT_MAX_STEPS;
+    private static volatile long sMaxNanos = DEFAULT_MAX_MILLIS * 1000000L;
+
+    private MatchBudget() {
+    }
+
+    //max characters read by a single match, 0 for no limit
+    public static void setMaxSteps(long maxSteps) {
+        if (maxSteps < 0) throw new IllegalArgumentException("Negative max steps: " + maxSteps);
+        sMaxSteps = maxSteps;
+    }
+
+    public static long getMaxSteps() {
+        return sMaxSteps;
+    }
+
+    //max duration of a single match, 0 for no limit
+    public static void setMaxMillis(long maxMillis) {
+        if (maxMillis < 0) throw new IllegalArgumentException("Negative max millis: " + maxMillis);
+        sMaxNanos = maxMillis * 1000000L;
+    }
+
+    public static long getMaxMillis() {
+        return sMaxNanos / 1000000L;
+    }
+
+    //false on Android: wrap() has no effect, only the risky patterns are bounded (see match())
+    public static boolean isStepCounted() {
+        return sStepsCounted;
+    }
+
+    /**
+     * The matcher of the pattern over the whole query, null if it doesn't match. The match runs under the
+     * budget where steps are counted, or, where they are not, on a watchdog thread if the pattern is risky
+     * (see RegexRisk). Throws Exceeded when the budget is over.
+     */
+    public static Matcher match(Pattern pattern, String query, boolean risky) {
+        if (sStepsCounted) {
+            Matcher m = pattern.matcher(wrap(query));
+            return m.matches() ? m : null;
+        }
+        long maxNanos = sMaxNanos;
+        if (!risky || (maxNanos == 0)) {
+            Matcher m = pattern.matcher(query);
+            return m.matches() ? m : null;
+        }
+        final Matcher m = pattern.matcher(query);
+        Future<Boolean> future;
+        try {
+            future = watchdog().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return m.matches();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw Exceeded.INSTANCE; //all the watchdog threads are stuck in runaway matches
+        }
+        try {
+            return future.get(maxNanos, TimeUnit.NANOSECONDS) ? m : null;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw Exceeded.INSTANCE;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw Exceeded.INSTANCE;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor watchdog() {
+        if (sWatchdog == null) {
+            sWatchdog = new ThreadPoolExecutor(0, WATCHDOG_THREADS, 30L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, MatchBudget.class.getSimpleName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sWatchdog;
+    }
+
+    private static boolean countsSteps() {
+        final boolean[] read = new boolean[1];
+        CharSequence probe = new CharSequence() {
+            @Override
+            public char charAt(int index) {
+                read[0] = true;
+                return 'a';
+            }
+
+            @Override
+            public int length() {
+                return 1;
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return "a".subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return "a";
+            }
+        };
+        java.util.regex.Pattern.compile("a").matcher(probe).matches();
+        return read[0];
+    }
+
+    //the query to match under the current budget, the query itself if there is no limit.
+    //Where steps are not counted (see isStepCounted()) the matcher doesn't read through it
+    public static CharSequence wrap(String query) {
+        long maxSteps = sMaxSteps;
+        long maxNanos = sMaxNanos;
+        if ((maxSteps == 0) && (maxNanos == 0)) return query;
+        return new Budgeted(query, maxSteps == 0 ? Long.MAX_VALUE : maxSteps,
+                maxNanos == 0 ? Long.MAX_VALUE : System.nanoTime() + maxNanos);
+    }
+
+    /**
+     * Thrown from inside the matcher when the budget of the match is over. It carries no stack trace, so
+     * a single instance serves every match.
+     */
+    public static final class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private static final Exceeded INSTANCE = new Exceeded();
+
+        private Exceeded() {
+            super("Match budget exceeded");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final class Budgeted implements CharSequence {
+        private final String mText;
+        private final long mMaxSteps;
+        private final long mDeadline;
+        private long mSteps;
+
+        Budgeted(String text, long maxSteps, long deadline) {
+            this.mText = text;
+            this.mMaxSteps = maxSteps;
+            this.mDeadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            long steps = ++mSteps;
+            if (steps > mMaxSteps) throw Exceeded.INSTANCE;
+            if (((steps & CLOCK_MASK) == 0) && (mDeadline != Long.MAX_VALUE) && (System.nanoTime() - mDeadline > 0))
+                throw Exceeded.INSTANCE;
+            return mText.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return mText.length();
+        }
+
+        //the groups of a finished match are read through here, with no budget
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return mText.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return mText;
+        }
+    }
+}
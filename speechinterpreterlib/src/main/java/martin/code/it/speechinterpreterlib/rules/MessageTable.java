@@ -0,0 +1,138 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+import martin.code.it.speechinterpreterlib.rules.group.GroupKey;
+
+/**
+ * Message sets of a rule indexed by group key. Every group of the rule gets a bit, so a group key is a
+ * bitmask: the sets are found by direct indexing when the rule has few groups, by binary search on the
+ * sorted masks otherwise. The order of the groups in a key does not matter. Built once, read only.
+ */
+final class MessageTable {
+
+    static final long NO_KEY_MASK = -1L; //matches no msggroup, a rule has at most MAX_GROUPS groups
+    private static final int MAX_GROUPS = 63;
+    private static final int MAX_DIRECT_GROUPS = 10;
+
+    //the messages of a msggroup: by message key, the ones without key under null
+    static final class MessageSet {
+        final LinkedHashMap<ArrayList<String>, ArrayList<String>> byKey;
+        final boolean keyed; //false if the messages do not depend on the results
+
+        MessageSet(LinkedHashMap<ArrayList<String>, ArrayList<String>> byKey) {
+            this.byKey = byKey;
+            this.keyed = byKey.size() > (byKey.containsKey(null) ? 1 : 0);
+        }
+
+        ArrayList<String> get(ArrayList<String> msgKey) {
+            if (!keyed || (msgKey == null)) return byKey.get(null);
+            ArrayList<String> al = byKey.get(msgKey);
+            return (al != null) || byKey.containsKey(msgKey) ? al : byKey.get(null);
+        }
+    }
+
+    private final Group[] mGroups; //bit i of a mask stands for mGroups[i]
+    private final MessageSet mNoKey;
+    private final MessageSet[] mDirect;
+    private final long[] mMasks;
+    private final MessageSet[] mSets;
+
+    MessageTable(Collection<Group> groups, LinkedHashMap<GroupKey, LinkedHashMap<ArrayList<String>, ArrayList<String>>> msgGroups) {
+        int n = Math.min(groups.size(), MAX_GROUPS);
+        mGroups = groups.toArray(new Group[groups.size()]);
+        MessageSet noKey = null;
+        ArrayList<Long> masks = new ArrayList<>();
+        ArrayList<MessageSet> sets = new ArrayList<>();
+        for (Map.Entry<GroupKey, LinkedHashMap<ArrayList<String>, ArrayList<String>>> e : msgGroups.entrySet()) {
+            MessageSet set = new MessageSet(e.getValue());
+            if (e.getKey().equals(GroupKey.getNoKey())) {
+                noKey = set;
+                continue;
+            }
+            long mask = maskOf(e.getKey());
+            if (mask == NO_KEY_MASK) continue; //groups not belonging to the rule, no result can ever match them
+            int i = masks.indexOf(mask);
+            if (i < 0) {
+                masks.add(mask);
+                sets.add(set);
+            } else {
+                sets.set(i, set); //same groups in a different order: the last one wins, as with a new put
+            }
+        }
+        mNoKey = noKey;
+        if (n <= MAX_DIRECT_GROUPS) {
+            mDirect = new MessageSet[1 << n];
+            for (int i = 0; i < masks.size(); i++) mDirect[(int) (long) masks.get(i)] = sets.get(i);
+            mMasks = null;
+            mSets = null;
+        } else {
+            mDirect = null;
+            Long[] sorted = masks.toArray(new Long[masks.size()]);
+            Arrays.sort(sorted);
+            mMasks = new long[sorted.length];
+            mSets = new MessageSet[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                mMasks[i] = sorted[i];
+                mSets[i] = sets.get(masks.indexOf(sorted[i]));
+            }
+        }
+    }
+
+    //bit of the group, -1 if it does not belong to the rule
+    int bitOf(Group group) {
+        int n = Math.min(mGroups.length, MAX_GROUPS);
+        for (int i = 0; i < n; i++) {
+            if (mGroups[i] == group) return i;
+        }
+        for (int i = 0; i < n; i++) {
+            if (mGroups[i].equals(group)) return i;
+        }
+        return -1;
+    }
+
+    //NO_KEY_MASK if any of the groups does not belong to the rule
+    long maskOf(Collection<Group> groups) {
+        long mask = 0L;
+        for (Group g : groups) {
+            int bit = bitOf(g);
+            if (bit < 0) return NO_KEY_MASK;
+            mask |= 1L << bit;
+        }
+        return mask;
+    }
+
+    //the set of the msggroup with exactly the groups of the mask, the one without groups if there is none
+    MessageSet get(long mask) {
+        MessageSet set = null;
+        if (mask != NO_KEY_MASK) {
+            if (mDirect != null) {
+                if (mask < mDirect.length) set = mDirect[(int) mask];
+            } else {
+                int i = Arrays.binarySearch(mMasks, mask);
+                if (i >= 0) set = mSets[i];
+            }
+        }
+        return set != null ? set : mNoKey;
+    }
+}
@@ -0,0 +1,117 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A message item of a rule compiled at grammar load time: the literal segments of the text, the
+ * placeholders (#group name#) between them and, for a prequel (text@next_rule), the rule to run next.
+ * Rendering is a single append pass, no regex and no string replacement is needed at answer time.
+ */
+public final class MessageTemplate {
+
+    /**
+     * Gives the value of a placeholder when a message is rendered.
+     */
+    public interface Resolver {
+        //null if there is no value: the placeholder is left as it is
+        String resolve(String placeholder);
+    }
+
+    private final String mText;
+    private final String mBody; //the text told, without the @next_rule suffix
+    private final String[] mLiterals; //one more than the placeholders
+    private final String[] mPlaceholders;
+    private final List<String> mPlaceholderList;
+    private final String mNextRule;
+
+    private MessageTemplate(String text, String body, String[] literals, String[] placeholders, String nextRule) {
+        this.mText = text;
+        this.mBody = body;
+        this.mLiterals = literals;
+        this.mPlaceholders = placeholders;
+        this.mPlaceholderList = Collections.unmodifiableList(Arrays.asList(placeholders));
+        this.mNextRule = nextRule;
+    }
+
+    public static MessageTemplate compile(String text) {
+        String body = text;
+        String nextRule = null;
+        int at = text.lastIndexOf('@');
+        if (at >= 0) {
+            body = text.substring(0, at);
+            nextRule = text.substring(at + 1).trim();
+        }
+        ArrayList<String> literals = new ArrayList<>();
+        ArrayList<String> placeholders = new ArrayList<>();
+        int start = 0; //start of the current literal
+        int from = 0;
+        while (true) {
+            int open = body.indexOf('#', from);
+            if (open < 0) break;
+            int close = body.indexOf('#', open + 1);
+            if (close < 0) break;
+            String name = body.substring(open + 1, close);
+            if ((name.indexOf('\n') >= 0) || (name.indexOf('\r') >= 0)) { //not a placeholder, as for the regex #(.*?)#
+                from = open + 1;
+                continue;
+            }
+            literals.add(body.substring(start, open));
+            placeholders.add(name);
+            start = from = close + 1;
+        }
+        literals.add(body.substring(start));
+        return new MessageTemplate(text, body, literals.toArray(new String[literals.size()]),
+                placeholders.toArray(new String[placeholders.size()]), nextRule);
+    }
+
+    //the item as written in the grammar
+    public String getText() {
+        return mText;
+    }
+
+    //the text to tell with its placeholders, without the @next_rule suffix
+    public String getBody() {
+        return mBody;
+    }
+
+    public boolean isPrequel() {
+        return mNextRule != null;
+    }
+
+    public String getNextRule() {
+        return mNextRule;
+    }
+
+    public List<String> getPlaceholders() {
+        return mPlaceholderList;
+    }
+
+    public StringBuilder render(StringBuilder sb, Resolver resolver) {
+        sb.append(mLiterals[0]);
+        for (int i = 0; i < mPlaceholders.length; i++) {
+            String value = resolver.resolve(mPlaceholders[i]);
+            if (value != null) sb.append(value);
+            else sb.append('#').append(mPlaceholders[i]).append('#');
+            sb.append(mLiterals[i + 1]);
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,102 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import com.google.code.regexp.Pattern;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Grammar-wide interning cache of compiled named-regexp patterns, keyed by regex text and flags.
+ * Compiled patterns are immutable, so the same instance is shared by every rule (of any grammar)
+ * declaring the same regex; each caller gets its own Matcher from it.
+ * The patterns are held weakly: the rules using one keep it alive, and once every grammar declaring it
+ * is reloaded or unloaded it is collected and its entry dropped on a later intern(). So the cache never
+ * grows past the patterns of the grammars in memory.
+ */
+public final class PatternCache {
+
+    private static final ConcurrentHashMap<Key, Entry> sPatterns = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Pattern> sCollected = new ReferenceQueue<>();
+
+    private PatternCache() {
+    }
+
+    public static Pattern intern(String regex, int flags) {
+        purge();
+        Key key = new Key(regex, flags);
+        Entry entry = sPatterns.get(key);
+        Pattern p = entry != null ? entry.get() : null;
+        if (p != null) return p;
+        p = Pattern.compile(regex, flags);
+        Entry created = new Entry(key, p);
+        while (true) {
+            Entry prev = sPatterns.putIfAbsent(key, created);
+            if (prev == null) return p;
+            Pattern shared = prev.get();
+            if (shared != null) return shared; //another thread compiled it first, keep the shared instance
+            if (sPatterns.replace(key, prev, created)) return p;
+        }
+    }
+
+    //the patterns still cached, the collected ones included until they are purged
+    public static int size() {
+        purge();
+        return sPatterns.size();
+    }
+
+    public static void clear() {
+        sPatterns.clear();
+    }
+
+    private static void purge() {
+        Entry entry;
+        while ((entry = (Entry) sCollected.poll()) != null) sPatterns.remove(entry.key, entry);
+    }
+
+    private static final class Entry extends WeakReference<Pattern> {
+        private final Key key;
+
+        Entry(Key key, Pattern pattern) {
+            super(pattern, sCollected);
+            this.key = key;
+        }
+    }
+
+    private static final class Key {
+        private final String regex;
+        private final int flags;
+
+        Key(String regex, int flags) {
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return flags == that.flags && regex.equals(that.regex);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * regex.hashCode() + flags;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Extracts from a rule's regex a set of lower case literals such that every string matched by the regex
+ * contains at least one of them. The walk is conservative: whenever a construct is not understood the
+ * regex is reported as having no required literal (null), so a prefilter built on it never drops a rule
+ * that could match.
+ */
+public final class RegexLiterals {
+
+    private static final int MAX_EXACT = 16; //max number of alternative strings tracked for a sub-expression
+    private static final int MAX_REQUIRED = 64;
+
+    private static final Info UNKNOWN = new Info(null, null);
+
+    private final String mRegex;
+    private int mPos;
+
+    //exact: every string the sub-expression can match (null if unbounded or too many)
+    //required: when exact is null, a set of which at least one literal is contained in any match (null if none)
+    private static final class Info {
+        final Set<String> exact;
+        final Set<String> required;
+
+        Info(Set<String> exact, Set<String> required) {
+            this.exact = exact;
+            this.required = required;
+        }
+
+        Set<String> toRequired() {
+            if (exact != null) return exact.contains("") ? null : exact;
+            return required;
+        }
+    }
+
+    private RegexLiterals(String regex) {
+        this.mRegex = regex;
+    }
+
+    public static Set<String> requiredLiterals(String regex) {
+        Info info = parse(regex);
+        return info != null ? info.toRequired() : null; //not understood: no requirement
+    }
+
+    //every string (lower case) the regex can match, null if they are not known or too many
+    public static Set<String> exactStrings(String regex) {
+        Info info = parse(regex);
+        return info != null ? info.exact : null;
+    }
+
+    private static Info parse(String regex) {
+        if (regex == null) return null;
+        try {
+            RegexLiterals rl = new RegexLiterals(regex);
+            Info info = rl.parseAlternation();
+            if (rl.mPos != regex.length()) return null;
+            return info;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private Info parseAlternation() {
+        ArrayList<Info> branches = new ArrayList<>();
+        branches.add(parseConcatenation());
+        while (mPos < mRegex.length() && mRegex.charAt(mPos) == '|') {
+            mPos++;
+            branches.add(parseConcatenation());
+        }
+        if (branches.size() == 1) return branches.get(0);
+        Set<String> exact = new LinkedHashSet<>();
+        Set<String> required = new LinkedHashSet<>();
+        for (Info branch : branches) {
+            if ((exact != null) && (branch.exact != null)) exact.addAll(branch.exact);
+            else exact = null;
+            Set<String> r = branch.toRequired();
+            if ((required != null) && (r != null)) required.addAll(r);
+            else required = null;
+        }
+        if ((exact != null) && (exact.size() > MAX_EXACT)) exact = null;
+        if ((required != null) && (required.size() > MAX_REQUIRED)) required = null;
+        return new Info(exact, exact != null ? null : required);
+    }
+
+    private Info parseConcatenation() {
+        Set<String> run = single("");
+        Set<String> best = null;
+        boolean exactKnown = true;
+        while (mPos < mRegex.length()) {
+            char c = mRegex.charAt(mPos);
+            if ((c == '|') || (c == ')')) break;
+            Info part = parseQuantified();
+            if (part.exact != null) {
+                Set<String> product = product(run, part.exact);
+                if (product == null) { //too many combinations, keep what we have and start a new run
+                    best = better(best, run);
+                    run = part.exact;
+                    exactKnown = false;
+                } else run = product;
+            } else {
+                best = better(better(best, run), part.required);
+                run = single("");
+                exactKnown = false;
+            }
+        }
+        if (exactKnown) return new Info(run, null);
+        return new Info(null, better(best, run));
+    }
+
+    private Info parseQuantified() {
+        Info atom = parseAtom();
+        if (mPos >= mRegex.length()) return atom;
+        char c = mRegex.charAt(mPos);
+        int min;
+        if (c == '?') {
+            mPos++;
+            min = 0;
+        } else if (c == '*') {
+            mPos++;
+            min = -1;
+        } else if (c == '+') {
+            mPos++;
+            min = 1;
+        } else if ((c == '{') && (mPos + 1 < mRegex.length()) && Character.isDigit(mRegex.charAt(mPos + 1))) {
+            int end = mRegex.indexOf('}', mPos);
+            if (end < 0) throw new IllegalArgumentException("unclosed quantifier");
+            String bounds = mRegex.substring(mPos + 1, end);
+            int comma = bounds.indexOf(',');
+            min = Integer.parseInt(comma < 0 ? bounds : bounds.substring(0, comma));
+            mPos = end + 1;
+            if (min == 0) min = -1;
+        } else return atom;
+        if ((mPos < mRegex.length()) && ((mRegex.charAt(mPos) == '?') || (mRegex.charAt(mPos) == '+')))
+            mPos++; //lazy or possessive modifier doesn't change what can be matched
+        if (min == 0) { //optional
+            if (atom.exact == null) return UNKNOWN;
+            Set<String> exact = new LinkedHashSet<>(atom.exact);
+            exact.add("");
+            return new Info(exact, null);
+        } else if (min < 0) { //may repeat zero times
+            return UNKNOWN;
+        } else { //at least once: whatever the atom requires is still required
+            return new Info(null, atom.toRequired());
+        }
+    }
+
+    private Info parseAtom() {
+        char c = mRegex.charAt(mPos);
+        switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return parseCharClass();
+            case '.':
+                mPos++;
+                return UNKNOWN;
+            case '^':
+            case '$':
+                mPos++;
+                return new Info(single(""), null);
+            case '\\':
+                return parseEscape();
+            case '?':
+            case '*':
+            case '+':
+                throw new IllegalArgumentException("dangling quantifier");
+            default:
+                mPos++;
+                return new Info(single(lower(c)), null);
+        }
+    }
+
+    private Info parseGroup() {
+        mPos++; //skip '('
+        boolean zeroWidth = false;
+        if (mRegex.startsWith("?", mPos)) {
+            if (mRegex.startsWith("?:", mPos) || mRegex.startsWith("?>", mPos)) {
+                mPos += 2;
+            } else if (mRegex.startsWith("?=", mPos) || mRegex.startsWith("?!", mPos)) {
+                mPos += 2;
+                zeroWidth = true;
+            } else if (mRegex.startsWith("?<=", mPos) || mRegex.startsWith("?<!", mPos)) {
+                mPos += 3;
+                zeroWidth = true;
+            } else if (mRegex.startsWith("?<", mPos)) { //named group
+                int end = mRegex.indexOf('>', mPos);
+                if (end < 0) throw new IllegalArgumentException("unclosed group name");
+                mPos = end + 1;
+            } else { //inline flags: (?i) or (?i:X)
+                int i = mPos + 1;
+                while ((i < mRegex.length()) && (Character.isLetter(mRegex.charAt(i)) || (mRegex.charAt(i) == '-')))
+                    i++;
+                if (i >= mRegex.length()) throw new IllegalArgumentException("unclosed flags");
+                mPos = i + 1;
+                if (mRegex.charAt(i) == ')') return new Info(single(""), null);
+                if (mRegex.charAt(i) != ':') throw new IllegalArgumentException("unknown group construct");
+            }
+        }
+        Info inner = parseAlternation();
+        if ((mPos >= mRegex.length()) || (mRegex.charAt(mPos) != ')'))
+            throw new IllegalArgumentException("unclosed group");
+        mPos++;
+        return zeroWidth ? new Info(single(""), null) : inner;
+    }
+
+    private Info parseCharClass() {
+        mPos++; //skip '['
+        Set<String> chars = new LinkedHashSet<>();
+        boolean simple = true;
+        int depth = 1;
+        if (mRegex.startsWith("^", mPos)) {
+            simple = false;
+            mPos++;
+        }
+        if (mRegex.startsWith("]", mPos)) { //a leading ']' is a literal
+            chars.add("]");
+            mPos++;
+        }
+        while (depth > 0) {
+            if (mPos >= mRegex.length()) throw new IllegalArgumentException("unclosed class");
+            char c = mRegex.charAt(mPos++);
+            if (c == '\\') {
+                if (mPos >= mRegex.length()) throw new IllegalArgumentException("trailing escape");
+                char e = mRegex.charAt(mPos++);
+                if (Character.isLetterOrDigit(e)) simple = false;
+                else chars.add(lower(e));
+            } else if (c == '[') {
+                depth++;
+                simple = false;
+            } else if (c == ']') {
+                depth--;
+            } else if ((c == '-') || (c == '&')) {
+                simple = false;
+            } else {
+                chars.add(lower(c));
+            }
+        }
+        if (!simple || chars.isEmpty() || (chars.size() > 4)) return UNKNOWN;
+        return new Info(chars, null);
+    }
+
+    private Info parseEscape() {
+        mPos++; //skip '\'
+        if (mPos >= mRegex.length()) throw new IllegalArgumentException("trailing escape");
+        char e = mRegex.charAt(mPos++);
+        switch (e) {
+            case 'b':
+            case 'B':
+            case 'A':
+            case 'z':
+            case 'Z':
+            case 'G':
+                return new Info(single(""), null);
+            case 'Q': {
+                int end = mRegex.indexOf("\\E", mPos);
+                String quoted = end < 0 ? mRegex.substring(mPos) : mRegex.substring(mPos, end);
+                mPos = end < 0 ? mRegex.length() : end + 2;
+                return new Info(single(quoted.toLowerCase(Locale.ROOT)), null);
+            }
+            case 'p':
+            case 'P':
+            case 'k':
+            case 'x':
+                if (mRegex.startsWith("{", mPos) || mRegex.startsWith("<", mPos)) {
+                    int end = mRegex.indexOf(mRegex.charAt(mPos) == '{' ? '}' : '>', mPos);
+                    if (end < 0) throw new IllegalArgumentException("unclosed escape");
+                    mPos = end + 1;
+                } else if (e == 'x') {
+                    mPos += 2;
+                } else if (e != 'k') {
+                    mPos++;
+                }
+                return UNKNOWN;
+            case 'u':
+                mPos += 4;
+                return UNKNOWN;
+            case 'c':
+                mPos++;
+                return UNKNOWN;
+            case '0': {
+                //octal escape \0n, \0nn or \0mnn (m <= 3): its digits are not literals
+                int max = (mPos < mRegex.length()) && (mRegex.charAt(mPos) <= '3') ? 3 : 2;
+                for (int i = 0; (i < max) && (mPos < mRegex.length()) && isOctal(mRegex.charAt(mPos)); i++) mPos++;
+                return UNKNOWN;
+            }
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                //back reference: the matcher takes as many digits as make a group number, so skipping all
+                //of them may lose a literal digit but never requires one the query lacks
+                while ((mPos < mRegex.length()) && Character.isDigit(mRegex.charAt(mPos))) mPos++;
+                return UNKNOWN;
+            default:
+                //classes (\w, \d, \s...) and control chars are not tracked
+                if (Character.isLetterOrDigit(e)) return UNKNOWN;
+                return new Info(single(lower(e)), null);
+        }
+    }
+
+    private static Set<String> product(Set<String> left, Set<String> right) {
+        if (left.size() * right.size() > MAX_EXACT) return null;
+        Set<String> result = new LinkedHashSet<>();
+        for (String l : left) {
+            for (String r : right) result.add(l + r);
+        }
+        return result;
+    }
+
+    //prefer the set whose shortest literal is longer (more selective), then the smaller one
+    private static Set<String> better(Set<String> current, Set<String> candidate) {
+        if ((candidate == null) || candidate.isEmpty() || candidate.contains("")) return current;
+        if (current == null) return candidate;
+        int cur = minLength(current), cand = minLength(candidate);
+        if (cand > cur) return candidate;
+        if ((cand == cur) && (candidate.size() < current.size())) return candidate;
+        return current;
+    }
+
+    private static int minLength(Set<String> set) {
+        int min = Integer.MAX_VALUE;
+        for (String s : set) min = Math.min(min, s.length());
+        return min;
+    }
+
+    private static Set<String> single(String s) {
+        Set<String> set = new LinkedHashSet<>();
+        set.add(s);
+        return set;
+    }
+
+    private static boolean isOctal(char c) {
+        return (c >= '0') && (c <= '7');
+    }
+
+    private static String lower(char c) {
+        return String.valueOf(Character.toLowerCase(c));
+    }
+}
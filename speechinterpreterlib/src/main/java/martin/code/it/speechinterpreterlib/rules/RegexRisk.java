@@ -0,0 +1,296 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+/**
+ * Load time check of a rule's regex for the shapes that make a backtracking matcher blow up:
+ * <ul>
+ * <li>a quantified sub-expression repeating another unbounded one, like (a+)+ or (\w*\s?)*: a query
+ * failing the match is tried in a number of ways exponential in its length;</li>
+ * <li>MAX_WILDCARDS or more unbounded wildcards (.*, \S+, [^x]*) in sequence: polynomial, with a degree
+ * as high as their number.</li>
+ * </ul>
+ * Possessive quantifiers and atomic groups don't backtrack, so they are never reported. The walk is a
+ * heuristic: a regex it doesn't understand is not reported. The features it collects on the way are
+ * given by analyze(), for the cost model of EvaluationOrder.
+ */
+public final class RegexRisk {
+
+    public static final int MAX_WILDCARDS = 3;
+
+    private static final Info NONE = new Info(false, 0, false);
+    private static final Info LITERAL = new Info(false, 0, false);
+    private static final Info ANCHOR = new Info(false, 0, false);
+
+    private final String mRegex;
+    private int mPos;
+    private String mExponential;
+    private String mPolynomial;
+    private int mLookarounds;
+    private boolean mStartSeen;
+    private boolean mLiteralStart;
+    private boolean mLeadingWildcard;
+
+    /**
+     * What the walk found out about a regex.
+     */
+    public static final class Shape {
+        private final String mRisk;
+        private final boolean mExponential;
+        private final int mWildcards;
+        private final int mLookarounds;
+        private final boolean mLiteralStart;
+        private final boolean mLeadingWildcard;
+
+        Shape(RegexRisk rr, int wildcards) {
+            this.mRisk = rr.mExponential != null ? rr.mExponential : rr.mPolynomial;
+            this.mExponential = rr.mExponential != null;
+            this.mWildcards = wildcards;
+            this.mLookarounds = rr.mLookarounds;
+            this.mLiteralStart = rr.mLiteralStart;
+            this.mLeadingWildcard = rr.mLeadingWildcard;
+        }
+
+        //see check()
+        public String getRisk() {
+            return mRisk;
+        }
+
+        public boolean isExponential() {
+            return mExponential;
+        }
+
+        //max number of unbounded wildcards along a path through the regex
+        public int getWildcards() {
+            return mWildcards;
+        }
+
+        public int getLookarounds() {
+            return mLookarounds;
+        }
+
+        //the first thing to match is a literal char: most queries fail right at the start
+        public boolean hasLiteralStart() {
+            return mLiteralStart;
+        }
+
+        //starts with .* or alike: every split of the query is tried
+        public boolean hasLeadingWildcard() {
+            return mLeadingWildcard;
+        }
+    }
+
+    //unbounded: contains an unbounded quantifier that can backtrack
+    //wildcards: max number of unbounded wildcards along a path through the sub-expression
+    //broad: a single character matcher accepting almost anything
+    private static final class Info {
+        final boolean unbounded;
+        final int wildcards;
+        final boolean broad;
+
+        Info(boolean unbounded, int wildcards, boolean broad) {
+            this.unbounded = unbounded;
+            this.wildcards = wildcards;
+            this.broad = broad;
+        }
+    }
+
+    private RegexRisk(String regex) {
+        this.mRegex = regex;
+    }
+
+    //why the regex may backtrack catastrophically, null if it doesn't look like it
+    public static String check(String regex) {
+        Shape shape = analyze(regex);
+        return shape != null ? shape.getRisk() : null;
+    }
+
+    //null if the regex is not understood
+    public static Shape analyze(String regex) {
+        if (regex == null) return null;
+        try {
+            RegexRisk rr = new RegexRisk(regex);
+            Info info = rr.parseAlternation();
+            if (rr.mPos != regex.length()) return null;
+            return new Shape(rr, info.wildcards);
+        } catch (RuntimeException e) {
+            return null; //not understood
+        }
+    }
+
+    private Info parseAlternation() {
+        boolean unbounded = false;
+        int wildcards = 0;
+        while (true) {
+            Info branch = parseConcatenation();
+            unbounded |= branch.unbounded;
+            wildcards = Math.max(wildcards, branch.wildcards);
+            if ((mPos >= mRegex.length()) || (mRegex.charAt(mPos) != '|')) break;
+            mPos++;
+        }
+        return new Info(unbounded, wildcards, false);
+    }
+
+    private Info parseConcatenation() {
+        boolean unbounded = false;
+        int wildcards = 0;
+        while (mPos < mRegex.length()) {
+            char c = mRegex.charAt(mPos);
+            if ((c == '|') || (c == ')')) break;
+            int start = mPos;
+            Info part = parseQuantified();
+            unbounded |= part.unbounded;
+            wildcards += part.wildcards;
+            if ((wildcards >= MAX_WILDCARDS) && (mPolynomial == null))
+                mPolynomial = wildcards + " unbounded wildcards in sequence up to index " + start + ": polynomial backtracking";
+        }
+        return new Info(unbounded, wildcards, false);
+    }
+
+    private Info parseQuantified() {
+        int start = mPos;
+        boolean first = !mStartSeen && (mRegex.charAt(mPos) != '(');
+        Info atom = parseAtom();
+        boolean unbounded = false;
+        boolean repeated = false; //more than once
+        boolean optional = false;
+        char c = mPos < mRegex.length() ? mRegex.charAt(mPos) : 0;
+        if ((c == '*') || (c == '+')) {
+            mPos++;
+            unbounded = true;
+            repeated = true;
+            optional = (c == '*');
+        } else if (c == '?') {
+            mPos++;
+            optional = true;
+        } else if (c == '{') {
+            int close = mRegex.indexOf('}', mPos);
+            String[] bounds = mRegex.substring(mPos + 1, close).split(",", -1);
+            mPos = close + 1;
+            int min = Integer.parseInt(bounds[0].trim());
+            unbounded = (bounds.length > 1) && bounds[1].trim().isEmpty();
+            repeated = unbounded || ((bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : min) > 1);
+            optional = (min == 0);
+        }
+        if (first && (atom != ANCHOR)) {
+            mStartSeen = true;
+            mLiteralStart = (atom == LITERAL) && !optional;
+            mLeadingWildcard = atom.broad && unbounded;
+        }
+        if (!unbounded && !repeated && !optional) return atom;
+        if (mPos < mRegex.length()) {
+            char mode = mRegex.charAt(mPos);
+            if (mode == '+') { //possessive: gives nothing back
+                mPos++;
+                return NONE;
+            }
+            if (mode == '?') mPos++; //reluctant: backtracks all the same
+        }
+        if (repeated && atom.unbounded && (mExponential == null))
+            mExponential = "nested quantifiers at index " + start + ": exponential backtracking";
+        if (!unbounded) return atom;
+        return new Info(true, atom.broad ? 1 : atom.wildcards, false);
+    }
+
+    private Info parseAtom() {
+        char c = mRegex.charAt(mPos);
+        switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return parseClass();
+            case '\\':
+                return parseEscape();
+            case '.':
+                mPos++;
+                return new Info(false, 0, true);
+            case '^':
+            case '$':
+                mPos++;
+                return ANCHOR;
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw new IllegalArgumentException("Dangling quantifier at " + mPos);
+            default:
+                mPos++;
+                return LITERAL;
+        }
+    }
+
+    private Info parseGroup() {
+        mPos++;
+        boolean backtracks = true;
+        if (mRegex.charAt(mPos) == '?') {
+            mPos++;
+            char kind = mRegex.charAt(mPos);
+            if ((kind == '=') || (kind == '!')) { //lookahead
+                mPos++;
+                backtracks = false;
+                mLookarounds++;
+            } else if (kind == '>') { //atomic group
+                mPos++;
+                backtracks = false;
+            } else if (kind == '<') {
+                char next = mRegex.charAt(mPos + 1);
+                if ((next == '=') || (next == '!')) { //lookbehind
+                    mPos += 2;
+                    backtracks = false;
+                    mLookarounds++;
+                } else mPos = mRegex.indexOf('>', mPos) + 1; //named group
+            } else if (kind == ':') {
+                mPos++;
+            } else { //inline flags, on their own or for a group
+                while ((mPos < mRegex.length()) && (mRegex.charAt(mPos) != ':') && (mRegex.charAt(mPos) != ')')) mPos++;
+                if (mRegex.charAt(mPos++) == ')') return NONE;
+            }
+        }
+        Info inner = parseAlternation();
+        if (mRegex.charAt(mPos) != ')') throw new IllegalArgumentException("Unclosed group at " + mPos);
+        mPos++;
+        return backtracks ? inner : NONE;
+    }
+
+    private Info parseClass() {
+        mPos++;
+        boolean negated = (mRegex.charAt(mPos) == '^');
+        if (negated) mPos++;
+        if (mRegex.charAt(mPos) == ']') mPos++; //a leading ] is a literal
+        int depth = 1;
+        while (depth > 0) {
+            char c = mRegex.charAt(mPos++);
+            if (c == '\\') mPos++;
+            else if (c == '[') depth++;
+            else if (c == ']') depth--;
+        }
+        return new Info(false, 0, negated);
+    }
+
+    private Info parseEscape() {
+        mPos++;
+        char c = mRegex.charAt(mPos++);
+        if (c == 'Q') {
+            int end = mRegex.indexOf("\\E", mPos);
+            mPos = end < 0 ? mRegex.length() : end + 2;
+            return NONE;
+        }
+        if (((c == 'p') || (c == 'P')) && (mPos < mRegex.length()) && (mRegex.charAt(mPos) == '{'))
+            mPos = mRegex.indexOf('}', mPos) + 1;
+        if (!Character.isLetterOrDigit(c)) return LITERAL;
+        return new Info(false, 0, (c == 'S') || (c == 'W') || (c == 'D'));
+    }
+}
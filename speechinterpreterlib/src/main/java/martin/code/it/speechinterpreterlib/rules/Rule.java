@@ -15,7 +15,6 @@
  *******************************************************************/
 package martin.code.it.speechinterpreterlib.rules;
 
-import android.os.Bundle;
 import android.util.Log;
 
 import com.google.code.regexp.Matcher;
@@ -23,12 +22,15 @@ import com.google.code.regexp.Pattern;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Set;
 
 import it.code.martin.WordUtils2;
-import martin.code.it.maps.MultiLinkedHashMap;
-import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
 import martin.code.it.speechinterpreterlib.exceptions.EmptyMessageSetException;
+import martin.code.it.speechinterpreterlib.metrics.Metrics;
 import martin.code.it.speechinterpreterlib.rules.group.Group;
 import martin.code.it.speechinterpreterlib.rules.group.GroupKey;
 
@@ -38,30 +40,67 @@ public class Rule  {
     public static final String NO_KEY="no_key";
     public static final String IS_PREQUEL="is prequel";
     public static final ArrayList<String> _NO_MSG_KEY = new ArrayList(Arrays.asList("NO KEY"));
+    public static final long NO_KEY_MASK = MessageTable.NO_KEY_MASK;
 
     private static final int PREAMBLE=1;
     private static final int PROMPT=2;
     private static final int MESSAGE=3;
 
+    //rules that can interrupt any dialogue, declared with the attribute interrupt of the rule
+    public enum Interrupt {
+        QUIT("quit"),     //ends the dialogue and runs the rule
+        RESUME("resume"), //tells the rule message, the dialogue goes on where it was (i.e. help)
+        REPEAT("repeat"); //tells again the last answer
+
+        public final String key;
+
+        Interrupt(String key) {
+            this.key = key;
+        }
+
+        public static Interrupt fromKey(String key) {
+            if (key == null) return null;
+            for (Interrupt interrupt : values()) {
+                if (interrupt.key.equalsIgnoreCase(key)) return interrupt;
+            }
+            throw new IllegalStateException("Unknown interrupt '" + key + "', expected quit, resume or repeat");
+        }
+    }
+
+    //CASE_INSENSITIVE | UNICODE_CASE
+    public static final int REGEX_FLAGS = java.util.regex.Pattern.CASE_INSENSITIVE | java.util.regex.Pattern.UNICODE_CASE;
+
     private String mName,mRegex;
+    private String mGrammarName;
+    private volatile String mQualifiedName; //"grammar/rule", built on first use
     private boolean mIsBrowsable=true;
     private boolean mHasPrompt =false;
+    private Interrupt mInterrupt;
     private LinkedHashMap<String,ArrayList<String>> mPreambles,mPrompts;
-    private MultiLinkedHashMap<GroupKey,ArrayList<String>,ArrayList<String>> mMsgList;
+    private LinkedHashMap<GroupKey,LinkedHashMap<ArrayList<String>,ArrayList<String>>> mMsgList;
+    private volatile MessageTable mMessageTable; //built from mMsgList once the grammar is loaded
+    private HashMap<String,MessageTemplate> mTemplates; //message items compiled when added
+
+    private static final MessageTemplate NO_ANSWER = MessageTemplate.compile("x!$ TILT x!$");
 
     private LinkedHashMap<String,Group> mGroups;
 
     private Group mRootGroup;
 
-    private Matcher mMatcher;
-    private Pattern mPattern;
+    private int mRegexFlags = REGEX_FLAGS;
+    private volatile Pattern mPattern; //compiled lazily on first match and shared through PatternCache
+    private volatile Set<String> mRequiredLiterals;
+    private volatile boolean mLiteralsExtracted =false; //written after mRequiredLiterals, so rules can be shared by sessions
+    private volatile String mRisk;
+    private volatile boolean mRiskChecked =false; //written after mRisk, as above
 
 
     public Rule(){
         mRegex="";
         mPreambles=new LinkedHashMap<>();
         mPrompts=new LinkedHashMap<>();
-        mMsgList =new MultiLinkedHashMap<>();
+        mMsgList =new LinkedHashMap<>();
+        mTemplates =new HashMap<>();
         //mMsgList.put(GroupKey.NO_KEY_GROUPKEY, null, null);
         mGroups =new LinkedHashMap<>();
         //mGroups.put(NO_KEY,Group.NO_KEY_GROUP);
@@ -70,6 +109,7 @@ public class Rule  {
 
     public void setName(String nameAttr) {
         this.mName= nameAttr;
+        this.mQualifiedName = null;
     }
 
     public void setBrowsable(boolean browsableAttr) {
@@ -78,8 +118,28 @@ public class Rule  {
 
     public String getName() { return mName; }
 
+    public void setGrammarName(String grammarName) {
+        this.mGrammarName = grammarName;
+        this.mQualifiedName = null;
+    }
+
+    //"grammar/rule", e.g. for the metrics; just the name of the rule if it doesn't belong to a grammar
+    public String getQualifiedName() {
+        String qualified = mQualifiedName;
+        if (qualified == null) {
+            qualified = mGrammarName == null ? mName : mGrammarName + "/" + mName;
+            mQualifiedName = qualified;
+        }
+        return qualified;
+    }
+
     public Boolean isBrowsable() { return mIsBrowsable; }
 
+    public void setInterrupt(Interrupt interrupt) { this.mInterrupt = interrupt; }
+
+    //null if the rule is not an interrupt
+    public Interrupt getInterrupt() { return mInterrupt; }
+
     private String getAMessage(int what,String key) throws EmptyMessageSetException{
         String s = null;
         try{
@@ -127,6 +187,11 @@ public class Rule  {
 
     //regex management
     public void setRegex(String regex){
+        setPreparedRegex(prepareRegex(regex, mGroups), null);
+    }
+
+    //clean a regex as written in the xml grammar and collect its named groups
+    public static String prepareRegex(String regex, LinkedHashMap<String,Group> groups){
         regex = regex.replaceAll("&lg;", "<");
         regex = regex.replaceAll("&gt;", ">");
         regex=regex.replaceAll("( *\n *)*$","");//clear new line chars from xml file
@@ -140,77 +205,186 @@ public class Rule  {
             grN =grN.replaceAll("%", "");
             grN=grN.replaceAll("§", "");
             grN=grN.replaceAll("<|>","");
-            mGroups.put(grN,new Group(grN,isOptional,isSubstitute));
+            groups.put(grN,new Group(grN,isOptional,isSubstitute));
         }
         regex=regex.replaceAll("%",""); //clean the regex from special chars
         regex=regex.replaceAll("§", "");//clean the regex from special chars
+        return regex;
+    }
+
+    //set a regex already cleaned by prepareRegex together with its groups (i.e. read from a precompiled grammar)
+    public void setPreparedRegex(String regex, Collection<Group> groups){
+        if (groups!=null) {
+            for (Group g : groups) mGroups.put(g.getName(), g);
+        }
         this.mRegex=regex;
-      }
+        this.mPattern=null; //regex changed, force a new lookup on next match
+        this.mLiteralsExtracted =false;
+        this.mRiskChecked =false;
+        this.mMessageTable=null;
+    }
 
     public String getRegex(){
         return mRegex;
     }
 
+    //0 for the grammars whose queries are already folded to lower case, see NormalizationProfile
+    public void setRegexFlags(int regexFlags){
+        this.mRegexFlags=regexFlags;
+        this.mPattern=null;
+    }
+
+    public int getRegexFlags(){
+        return mRegexFlags;
+    }
+
     //MsgGroup management
 
     public void addMessage(GroupKey groupKey, ArrayList<String> msgKey, ArrayList<String> msgList){
         ArrayList<String> al=null;
         if (msgKey!=null) al=new ArrayList<>(msgKey);
-        mMsgList.put(new GroupKey(groupKey),al,new ArrayList<String>(msgList));
+        GroupKey key=new GroupKey(groupKey);
+        LinkedHashMap<ArrayList<String>,ArrayList<String>> lhm=mMsgList.get(key);
+        if (lhm==null) {
+            lhm=new LinkedHashMap<>();
+            mMsgList.put(key,lhm);
+        }
+        lhm.put(al,new ArrayList<String>(msgList));
+        for (String msg : msgList) {
+            if (!mTemplates.containsKey(msg)) mTemplates.put(msg, MessageTemplate.compile(msg));
+        }
+        mMessageTable=null;
     }
 
-    public Bundle getMessage(GroupKey groupKey, ArrayList<String> alKey) throws EmptyMessageSetException {
-        String msg=null, nextRule;
-        Bundle b=new Bundle();
-        //ArrayList<String> al = (mMsgList.get(groupKey, alKey)==null)?
-        //      mMsgList.get(GroupKey.getNoKey(),null):mMsgList.get(groupKey, alKey);
-        LinkedHashMap<ArrayList<String>,ArrayList<String>> lhm=mMsgList.getByKey1(groupKey);
-        if (lhm==null) lhm=mMsgList.getByKey1(GroupKey.getNoKey());
-        ArrayList<String> al= lhm.containsKey(alKey)?lhm.get(alKey):lhm.get(null);
+    //index the message sets by group bitmask, called once the whole grammar has been read
+    public void compileMessages() {
+        mMessageTable = new MessageTable(mGroups.values(), mMsgList);
+    }
+
+    private MessageTable messageTable() {
+        MessageTable table = mMessageTable;
+        if (table == null) {
+            table = new MessageTable(mGroups.values(), mMsgList);
+            mMessageTable = table;
+        }
+        return table;
+    }
+
+    //bitmask of the groups, bit i standing for the i-th of getGroups(), NO_KEY_MASK if any group does not belong to the rule
+    public long getGroupMask(Collection<Group> groups) {
+        return messageTable().maskOf(groups);
+    }
+
+    //whether the message for these groups is chosen by the message key too (see getMessageTemplate)
+    public boolean isMessageKeyed(long groupMask) {
+        MessageTable.MessageSet set = messageTable().get(groupMask);
+        return (set != null) && set.keyed;
+    }
+
+    //the suitable message for the results collected, chosen randomly among the ones foreseen
+    public MessageTemplate getMessageTemplate(GroupKey groupKey, ArrayList<String> alKey) throws EmptyMessageSetException {
+        return getMessageTemplate(groupKey!=null?getGroupMask(groupKey):NO_KEY_MASK, alKey);
+    }
+
+    //same as above with the groups given as a mask, no allocation on the way
+    public MessageTemplate getMessageTemplate(long groupMask, ArrayList<String> alKey) throws EmptyMessageSetException {
+        String msg=null;
+        MessageTable.MessageSet set=messageTable().get(groupMask);
+        ArrayList<String> al= set!=null?set.get(alKey):null;
 
         try {
             msg = WordUtils2.getRandomStringFromArray(al);
         } catch (IllegalStateException e) {
             Log.e(TAG, "It looks like the xml grammar does not foresee an answer for this kind of question.");
-            msg = "x!$ TILT x!$";
+            return NO_ANSWER;
         }catch (IllegalArgumentException e1){
             Log.e(TAG,e1.getMessage());
             throw new EmptyMessageSetException("There's no message set for the rule "+mName+
                     " or there is a mismatch in group name definition in the regex (check for special char '§').");
         }
-        al=new ArrayList<>();
-        Pattern p = Pattern.compile("#(.*?)#");
-        Matcher m = p.matcher(msg);
-        while (m.find()) { //fill an array with the groupname of all placeholder found the message
-                            //will be used to replace placeholder with actual results recognized
-            al.add(m.group(1));
-        }
-        //ship with resultbundle an array with results nameplace found in the message
-        //to be replaced later on
-        b.putStringArrayList(BaseResponseParser.REPLACEMENT_ARRAY, al);
-        if (msg.contains("@")) {
-            nextRule = msg.substring(msg.lastIndexOf("@") + 1).trim();
-            b.putString(BaseResponseParser.PREQUEL_TO_MESSAGE, msg.substring(0, msg.lastIndexOf("@")));
-            b.putString(BaseResponseParser.NEXT_RULE, nextRule);
-            b.putBoolean(IS_PREQUEL,true);
+        MessageTemplate template = mTemplates.get(msg);
+        return template != null ? template : MessageTemplate.compile(msg);
+    }
+
+    //write in result the suitable message for the results collected (placeholders not replaced), replacing what result held
+    public void getMessage(GroupKey groupKey, ArrayList<String> alKey, DialogueResult result) throws EmptyMessageSetException {
+        MessageTemplate template = getMessageTemplate(groupKey, alKey);
+        result.clear();
+        result.getPlaceholders().addAll(template.getPlaceholders());
+        if (template.isPrequel()) {
+            result.setPrequel(template.getBody());
+            result.setNextRule(template.getNextRule());
+            result.setIsPrequel(true);
         } else {
-            b.putString(BaseResponseParser.MESSAGE, msg);
-            b.putBoolean(IS_PREQUEL,false);
+            result.setMessage(template.getBody());
+            result.setIsPrequel(false);
         }
-        return b;
     }
 
     public LinkedHashMap<String, Group> getGroups() {
         return mGroups;
     }
 
+    //literals of which at least one is contained in every query matched by the regex, null if there are none
+    public Set<String> getRequiredLiterals() {
+        if (!mLiteralsExtracted) {
+            mRequiredLiterals = RegexLiterals.requiredLiterals(mRegex);
+            mLiteralsExtracted = true;
+        }
+        return mRequiredLiterals;
+    }
+
+    public Pattern getPattern() {
+        Pattern p = mPattern;
+        if (p == null) {
+            p = PatternCache.intern(mRegex, mRegexFlags);
+            mPattern = p;
+        }
+        return p;
+    }
+
+    //why the regex may backtrack catastrophically on some query, null if it doesn't look like it
+    public String getBacktrackingRisk() {
+        if (!mRiskChecked) {
+            mRisk = RegexRisk.check(mRegex);
+            mRiskChecked = true;
+        }
+        return mRisk;
+    }
+
+    //every call returns a fresh Matcher, so it is safe to match the same rule from several threads.
+    //The match runs under the MatchBudget: a query exceeding it doesn't match
     public Matcher getMatcher(String query) {
-        mPattern = Pattern.compile(this.getRegex(), 66);
-        mMatcher = mPattern.matcher(query);
-        Boolean found = mMatcher.matches();
-        if (found) {
-            return mMatcher;
-        } else return null;
+        try {
+            return MatchBudget.match(getPattern(), query, getBacktrackingRisk() != null);
+        } catch (MatchBudget.Exceeded e) {
+            Log.w(TAG, "Rule " + mName + " exceeded the match budget on: " + query);
+            Metrics.matchBudgetExceeded(this);
+        }
+        return null;
+    }
+
+    //the values of the named groups of the regex in declaration order (null the ones without a value),
+    //null if the regex doesn't match the query
+    public String[] extract(String query) {
+        Matcher mtc = getMatcher(query);
+        if (mtc == null) return null;
+        String[] values = new String[mGroups.size()];
+        int i = 0;
+        for (String name : mGroups.keySet()) values[i++] = mtc.group(name);
+        return values;
+    }
+
+    //how many named groups of the regex get a result from the query, -1 if the regex doesn't match it
+    public int countFilledGroups(String query) {
+        Matcher mtc = getMatcher(query);
+        if (mtc == null) return -1;
+        int filled = 0;
+        for (String name : mGroups.keySet()) {
+            String value = mtc.group(name);
+            if ((value != null) && !value.trim().isEmpty()) filled++;
+        }
+        return filled;
     }
 
 
@@ -0,0 +1,179 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+
+/**
+ * Slot filling plan of a grammar, compiled once the grammar is loaded. Every group of every rule is a slot
+ * with a dense index, so the results collected in a dialogue fit a fixed size array, and every group
+ * name has the id given by GrammarBuilder, so the results still missing fit a bitset whose lowest bit
+ * tells the next one to ask for. The rule asking for a missing group is the rule with the group's name.
+ * Rules have the id of their position in the grammar, so together with the group ids they are stable
+ * names for the state of a dialogue as long as the grammar keeps the same signature (see Session.passivate).
+ */
+public final class SlotPlan {
+
+    /**
+     * The slots of one rule: its groups in declaration order, which is also the order of the bits in
+     * the group masks of its message table.
+     */
+    public static final class RulePlan {
+        private final int mRuleId;
+        private final int mFirstSlot;
+        private final Group[] mGroups;
+        private final int mRootGroupId;
+
+        RulePlan(int ruleId, int firstSlot, Group[] groups, int rootGroupId) {
+            this.mRuleId = ruleId;
+            this.mFirstSlot = firstSlot;
+            this.mGroups = groups;
+            this.mRootGroupId = rootGroupId;
+        }
+
+        public int getRuleId() {
+            return mRuleId;
+        }
+
+        public int size() {
+            return mGroups.length;
+        }
+
+        public int getSlot(int i) {
+            return mFirstSlot + i;
+        }
+
+        public Group getGroup(int i) {
+            return mGroups[i];
+        }
+
+        //id of the group standing for the rule itself, asked again when the query is not understood
+        public int getRootGroupId() {
+            return mRootGroupId;
+        }
+
+        //index of the group with this id among the ones of the rule, -1 if the rule has none
+        public int indexOf(int groupId) {
+            for (int i = 0; i < mGroups.length; i++) {
+                if (mGroups[i].getId() == groupId) return i;
+            }
+            return -1;
+        }
+    }
+
+    private final IdentityHashMap<Rule, RulePlan> mPlans = new IdentityHashMap<>();
+    private final Rule[] mRules; //by rule id
+    private final int mSignature;
+    private final int mSlotCount;
+    private final Group[] mGroupsById;
+    private final Rule[] mFillers; //by group id, the rule run to ask for the group
+    private final int[][] mSlotsById; //by group id, the slots of that group in rule order
+
+    public SlotPlan(Collection<Rule> rules) {
+        int groupCount = 0;
+        int slotCount = 0;
+        for (Rule rule : rules) {
+            for (Group g : rule.getGroups().values()) groupCount = Math.max(groupCount, checkId(g) + 1);
+            if (rule.getRootGroup() != null) groupCount = Math.max(groupCount, checkId(rule.getRootGroup()) + 1);
+            slotCount += rule.getGroups().size();
+        }
+        mSlotCount = slotCount;
+        mRules = rules.toArray(new Rule[rules.size()]);
+        mGroupsById = new Group[groupCount];
+        mFillers = new Rule[groupCount];
+        int[] slotsPerId = new int[groupCount];
+        int slot = 0;
+        int signature = 0;
+        for (int ruleId = 0; ruleId < mRules.length; ruleId++) {
+            Rule rule = mRules[ruleId];
+            Group[] groups = rule.getGroups().values().toArray(new Group[rule.getGroups().size()]);
+            Group root = rule.getRootGroup();
+            mPlans.put(rule, new RulePlan(ruleId, slot, groups, root != null ? root.getId() : Group.NO_ID));
+            signature = 31 * signature + rule.getName().hashCode();
+            for (Group g : groups) signature = 31 * (31 * signature + g.hashCode()) + g.getId();
+            for (Group g : groups) {
+                if (mGroupsById[g.getId()] == null) mGroupsById[g.getId()] = g;
+                slotsPerId[g.getId()]++;
+            }
+            if ((root != null) && (mGroupsById[root.getId()] == null)) mGroupsById[root.getId()] = root;
+            slot += groups.length;
+        }
+        mSignature = signature;
+        mSlotsById = new int[groupCount][];
+        for (int id = 0; id < groupCount; id++) mSlotsById[id] = new int[slotsPerId[id]];
+        int[] filled = new int[groupCount];
+        slot = 0;
+        for (Rule rule : rules) {
+            for (Group g : rule.getGroups().values()) mSlotsById[g.getId()][filled[g.getId()]++] = slot++;
+        }
+        HashMap<String, Rule> byName = new HashMap<>();
+        for (Rule rule : rules) {
+            if (!byName.containsKey(rule.getName())) byName.put(rule.getName(), rule);
+        }
+        for (Group g : mGroupsById) {
+            if (g != null) mFillers[g.getId()] = byName.get(g.getName());
+        }
+    }
+
+    private static int checkId(Group group) {
+        if (group.getId() == Group.NO_ID)
+            throw new IllegalStateException("Group " + group.getName() + " has not been interned by GrammarBuilder");
+        return group.getId();
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    public int getGroupCount() {
+        return mGroupsById.length;
+    }
+
+    //the same for all the loads of a grammar whose rules and groups didn't change
+    public int getSignature() {
+        return mSignature;
+    }
+
+    public int getRuleCount() {
+        return mRules.length;
+    }
+
+    public Rule getRule(int ruleId) {
+        return mRules[ruleId];
+    }
+
+    public RulePlan getPlan(Rule rule) {
+        return mPlans.get(rule);
+    }
+
+    public Group getGroup(int groupId) {
+        return mGroupsById[groupId];
+    }
+
+    //the rule to run to ask for the group, null if the grammar has none
+    public Rule getFiller(int groupId) {
+        return mFillers[groupId];
+    }
+
+    //slots of all the rules holding a group with this id, in rule order
+    public int[] getSlots(int groupId) {
+        return mSlotsById[groupId];
+    }
+}
@@ -15,19 +15,27 @@
  *******************************************************************/
 package martin.code.it.speechinterpreterlib.rules.group;
 
-import java.util.Arrays;
-
 public class Group  {
     public final static Group NO_KEY_GROUP= new Group("no_key", true,false);
 
+    public static final int NO_ID = -1;
+
     private final String name;
     private final boolean isOptional;
     private final boolean isSubstitute;
+    private final int id; //dense id of the group name in its grammar, NO_ID if it was not interned
+    private final int hash;
 
     public Group(String name, boolean isOptional, boolean isSubstitute) {
+        this(name, isOptional, isSubstitute, NO_ID);
+    }
+
+    public Group(String name, boolean isOptional, boolean isSubstitute, int id) {
         this.name = name;
         this.isOptional=isOptional;
         this.isSubstitute = isSubstitute;
+        this.id = id;
+        this.hash = 31 * (31 * (isOptional ? 1231 : 1237) + (isSubstitute ? 1231 : 1237)) + name.hashCode();
     }
 
     public String getName() {
@@ -42,13 +50,21 @@ public class Group  {
         return isSubstitute;
     }
 
+    public int getId() {
+        return id;
+    }
+
 
     @Override
     public boolean equals(Object o) {
         boolean result = false;
-        if (o instanceof Group) {
+        if (o == this) {
+            result = true;
+        } else if (o instanceof Group) {
             Group that = (Group) o;
-            result = (this.isOptional == that.isOptional &&
+            //the ids are only dense within a grammar, so they don't tell two groups apart; the hash does, cheaply
+            result = (this.hash == that.hash &&
+                    this.isOptional == that.isOptional &&
                     this.isSubstitute == that.isSubstitute &&
                     this.name.equals(that.name));
         }
@@ -57,8 +73,6 @@ public class Group  {
 
     @Override
     public int hashCode() {
-        int hash= Arrays.hashCode(new Object[]{new Boolean(isOptional), new Boolean(isSubstitute)});
-        hash+=Arrays.hashCode(new Object[]{new String(name)});
         return hash;
     }
 
@@ -20,7 +20,12 @@ import java.util.Collection;
 
 public class GroupKey  extends ArrayList<Group> {
 
-    private static GroupKey NO_KEY_GROUPKEY;
+    //built once, so that it can be read by concurrent sessions without locking
+    private static final GroupKey NO_KEY_GROUPKEY = new GroupKey();
+
+    static {
+        NO_KEY_GROUPKEY.add(Group.NO_KEY_GROUP);
+    }
 
 
     public GroupKey() {
@@ -39,10 +44,6 @@ public class GroupKey  extends ArrayList<Group> {
     }
 
     public static GroupKey getNoKey(){
-        if ((NO_KEY_GROUPKEY==null)||NO_KEY_GROUPKEY.isEmpty()){
-            NO_KEY_GROUPKEY=new GroupKey();
-            NO_KEY_GROUPKEY.add(Group.NO_KEY_GROUP);
-        }
         return NO_KEY_GROUPKEY;
     }
 
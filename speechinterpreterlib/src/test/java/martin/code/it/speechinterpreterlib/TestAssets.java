@@ -0,0 +1,158 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import martin.code.it.speechinterpreterlib.answeringmachine.AnsweringMachine;
+import martin.code.it.speechinterpreterlib.answeringmachine.Session;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSource;
+
+/**
+ * Grammars for the unit tests: the ones bundled with the demo app, read from the folder given by the
+ * system property sil.assets (by default the assets of the app module, relative to this module), and the
+ * ones written by the tests themselves. The parsers are built with a null Context, so the grammars are
+ * read from the GrammarSource bound to the test thread:
+ * <pre>
+ * GrammarSource previous = TestAssets.bind(TestAssets.copy(folder.newFolder()));
+ * ...
+ * GrammarSource.unbind(previous);
+ * </pre>
+ */
+public final class TestAssets {
+
+    public static final String ASSETS_DIR_PROPERTY = "sil.assets";
+    public static final String[] BUNDLED = {"common_grammar", "askname_grammar", "conversation_grammar", "calculator_grammar"};
+
+    //a dialogue filling three slots, the missing ones asked for by the rules named after them, and two interrupts
+    public static final String ORDER_GRAMMAR_NAME = "order_grammar";
+    public static final String ORDER_GRAMMAR = "<root normalize=\"punctuation whitespace lowercase\">\n"
+            + "    <rule name=\"order\">\n"
+            + "        <regex>order(?: a)?(?: (?&lt;size%§&gt;small|large))?(?: (?&lt;dish%§&gt;pizza|pasta))?(?: at (?&lt;time%§&gt;\\d+))?</regex>\n"
+            + "        <msg><item>a #size# #dish# at #time#</item></msg>\n"
+            + "    </rule>\n"
+            + "    <rule name=\"size\" browsable=\"false\">\n"
+            + "        <prompt><item>which size?</item></prompt>\n"
+            + "        <regex>(?&lt;size%§&gt;small|large)</regex>\n"
+            + "        <msg><item>#size# it is</item></msg>\n"
+            + "    </rule>\n"
+            + "    <rule name=\"dish\" browsable=\"false\">\n"
+            + "        <prompt><item>pizza or pasta?</item></prompt>\n"
+            + "        <regex>(?&lt;dish%§&gt;pizza|pasta)</regex>\n"
+            + "        <msg><item>#dish# it is</item></msg>\n"
+            + "    </rule>\n"
+            + "    <rule name=\"time\" browsable=\"false\">\n"
+            + "        <prompt><item>at what time?</item></prompt>\n"
+            + "        <regex>(?:at )?(?&lt;time%§&gt;\\d+)</regex>\n"
+            + "        <msg><item>at #time#</item></msg>\n"
+            + "    </rule>\n"
+            + "    <rule name=\"help\" interrupt=\"resume\" browsable=\"false\">\n"
+            + "        <regex>help</regex>\n"
+            + "        <msg><item>you can order a pizza or a pasta</item></msg>\n"
+            + "    </rule>\n"
+            + "    <rule name=\"again\" interrupt=\"repeat\" browsable=\"false\">\n"
+            + "        <regex>say (it )?again</regex>\n"
+            + "    </rule>\n"
+            + "</root>";
+
+    /**
+     * A session of the AnsweringMachine with the order grammar registered, read with the bundled ones from
+     * a folder bound to the test thread. close() unregisters the grammar and unbinds the folder.
+     */
+    public static final class OrderDialogue {
+        public final File dir;
+        public final AnsweringMachine answeringMachine;
+        public final Session session;
+        private final GrammarSource mPrevious;
+
+        private OrderDialogue(File dir, String sessionId) throws Exception {
+            this.dir = copy(dir);
+            write(dir, ORDER_GRAMMAR_NAME, ORDER_GRAMMAR);
+            mPrevious = bind(dir);
+            //the machine is a singleton, created on first use with the common grammar of the folder bound
+            answeringMachine = AnsweringMachine.getDefault(null);
+            answeringMachine.registerResponseParser(new BaseResponseParser(null, ORDER_GRAMMAR_NAME));
+            session = answeringMachine.newSession(sessionId);
+        }
+
+        public void close() {
+            answeringMachine.unRegisterResponseParser(ORDER_GRAMMAR_NAME + ".xml");
+            GrammarSource.unbind(mPrevious);
+        }
+    }
+
+    private TestAssets() {
+    }
+
+    public static File bundled() {
+        File assets = new File(System.getProperty(ASSETS_DIR_PROPERTY, "../app/src/main/assets"));
+        if (!new File(assets, "common_grammar.xml").isFile())
+            throw new IllegalStateException(assets.getAbsolutePath() + " has no grammars, set " + ASSETS_DIR_PROPERTY
+                    + " to the assets folder of the demo app");
+        return assets;
+    }
+
+    //the bundled grammars copied in the given folder, so that the tests can add their own next to them
+    public static File copy(File dir) throws IOException {
+        for (String name : BUNDLED) copy(new File(bundled(), name + ".xml"), new File(dir, name + ".xml"));
+        return dir;
+    }
+
+    public static File write(File dir, String grammarName, String xml) throws IOException {
+        File file = new File(dir, grammarName + ".xml");
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+            w.write(xml);
+        } finally {
+            w.close();
+        }
+        return file;
+    }
+
+    public static OrderDialogue orderDialogue(File dir, String sessionId) throws Exception {
+        return new OrderDialogue(dir, sessionId);
+    }
+
+    //the grammars of the folder are read on the calling thread, returns the source bound before
+    public static GrammarSource bind(File dir) {
+        return GrammarSource.bind(GrammarSource.fromDirectory(dir));
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream is = new FileInputStream(from);
+        try {
+            OutputStream os = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = is.read(buffer)) > 0) os.write(buffer, 0, n);
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import martin.code.it.speechinterpreterlib.TestAssets;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.IResponseParser;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSource;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The merged routing table must give every query the rule a scan of the parsers in their registration
+ * order, and of their rules in declaration order, would give.
+ */
+public class IntentRouterTest {
+
+    //rules overlapping the bundled ones, a back-reference (never merged) and a grammar with its own profile
+    private static final String OVERLAP_GRAMMAR = "<root>\n"
+            + "    <rule name=\"weather\"><regex>what is the weather (today|tomorrow)</regex><msg><item>sunny</item></msg></rule>\n"
+            + "    <rule name=\"what_is\"><regex>what is .*</regex><msg><item>what</item></msg></rule>\n"
+            + "    <rule name=\"echo\"><regex>(\\w+) \\1</regex><msg><item>echo</item></msg></rule>\n"
+            + "    <rule name=\"yes\"><regex>yes|yeah|sure</regex><msg><item>yes</item></msg></rule>\n"
+            + "    <rule name=\"feel\"><regex>.*i feel.*</regex><msg><item>feel</item></msg></rule>\n"
+            + "</root>";
+    private static final String NUMBERS_GRAMMAR = "<root normalize=\"punctuation whitespace lowercase numbers\">\n"
+            + "    <rule name=\"add\"><regex>add (?&lt;a&gt;\\d+) (and|to) (?&lt;b&gt;\\d+)</regex><msg><item>sum</item></msg></rule>\n"
+            + "    <rule name=\"hello\"><regex>hello there</regex><msg><item>hi</item></msg></rule>\n"
+            + "</root>";
+
+    private static final String[] QUERIES = {"hello", "Hi", "hi, how are you?", "Hello how are you doing today?",
+            "good evening", "what's up?", "fine", "My name is Jack", "my name is calculate 3 plus 4",
+            "calculate 3 plus 4", "calculate 3 divided 0", "what is 10 multiplied 2.5", "what is 2 plus 2",
+            "what is the weather today", "what is the weather tomorrow", "what is love", "i feel sad",
+            "how can i fly", "how can i feel better", "I feel that, how can I?", "bye bye", "yes", "sure",
+            "nope", "quit", "Add twenty one and 4", "add 2 to 3", "Hello   there!", "blah blah", "", "   "};
+
+    @org.junit.Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private GrammarSource mPrevious;
+    private BaseResponseParser mAskname, mConversation, mCalculator, mOverlap, mNumbers;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = TestAssets.copy(mFolder.newFolder());
+        TestAssets.write(dir, "overlap_grammar", OVERLAP_GRAMMAR);
+        TestAssets.write(dir, "numbers_grammar", NUMBERS_GRAMMAR);
+        mPrevious = TestAssets.bind(dir);
+        mAskname = new BaseResponseParser(null, "askname_grammar");
+        mConversation = new BaseResponseParser(null, "conversation_grammar");
+        mCalculator = new BaseResponseParser(null, "calculator_grammar");
+        mOverlap = new BaseResponseParser(null, "overlap_grammar");
+        mNumbers = new BaseResponseParser(null, "numbers_grammar");
+    }
+
+    @After
+    public void tearDown() {
+        GrammarSource.unbind(mPrevious);
+    }
+
+    @Test
+    public void routesLikeALinearScan() {
+        assertRoutesLikeALinearScan(mAskname, mConversation, mCalculator, mOverlap, mNumbers);
+    }
+
+    @Test
+    public void registrationOrderGivesThePriority() {
+        assertRoutesLikeALinearScan(mNumbers, mOverlap, mCalculator, mConversation, mAskname);
+        IntentRouter router = router(mOverlap, mCalculator);
+        assertSame(mOverlap, router.route("what is 2 plus 2").parser);
+        router = router(mCalculator, mOverlap);
+        assertSame(mCalculator, router.route("what is 2 plus 2").parser);
+    }
+
+    @Test
+    public void routesWithTheProfileOfEachGrammar() {
+        IntentRouter router = router(mNumbers);
+        IntentRouter.Route route = router.route("Add twenty one and 4!");
+        assertNotNull(route);
+        assertEquals("numbers_grammar.xml/add", route.rule.getQualifiedName());
+        assertNull(router(mOverlap).route("Add twenty one and 4!"));
+    }
+
+    @Test
+    public void backReferencesAreMatched() {
+        IntentRouter router = router(mCalculator, mOverlap);
+        assertEquals("overlap_grammar.xml/echo", router.route("bye bye").rule.getQualifiedName());
+        assertNull(router.route("bye now"));
+    }
+
+    @Test
+    public void cachedRoutesAreDroppedWithTheParsers() {
+        IntentRouter router = router(mOverlap, mCalculator);
+        assertSame(mOverlap, router.route("what is 2 plus 2").parser);
+        router.setResponseParsers(Arrays.<IResponseParser>asList(mCalculator, mOverlap));
+        assertSame(mCalculator, router.route("what is 2 plus 2").parser);
+    }
+
+    private static IntentRouter router(IResponseParser... parsers) {
+        IntentRouter router = new IntentRouter();
+        router.setResponseParsers(Arrays.asList(parsers));
+        return router;
+    }
+
+    //every query and every pair of them, the pairs hit the rules with wildcards on both sides
+    private static List<String> corpus() {
+        ArrayList<String> corpus = new ArrayList<>(Arrays.asList(QUERIES));
+        for (String first : QUERIES) {
+            for (String second : QUERIES) corpus.add(first + " " + second);
+        }
+        return corpus;
+    }
+
+    private static void assertRoutesLikeALinearScan(BaseResponseParser... parsers) {
+        IntentRouter router = router(parsers);
+        for (int pass = 0; pass < 2; pass++) { //the second pass is answered by the cache
+            for (String query : corpus()) {
+                Rule expected = scan(parsers, query);
+                IntentRouter.Route route = router.route(query);
+                if (expected == null) {
+                    assertNull(query, route);
+                } else {
+                    assertNotNull(query, route);
+                    assertEquals(query, expected.getQualifiedName(), route.rule.getQualifiedName());
+                }
+            }
+        }
+    }
+
+    private static Rule scan(BaseResponseParser[] parsers, String query) {
+        for (BaseResponseParser parser : parsers) {
+            String normalized = parser.getNormalizationProfile().normalize(query);
+            for (Rule rule : parser.getEvaluationOrder().getDeclaredRules()) {
+                if (rule.getMatcher(normalized) != null) return rule;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,99 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import martin.code.it.speechinterpreterlib.TestAssets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The interrupt rules of the grammars (see Rule.Interrupt) are checked before the query is taken as the
+ * answer to the prompt of the dialogue in progress.
+ */
+public class InterruptTest {
+
+    @org.junit.Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestAssets.OrderDialogue mDialogue;
+    private Session mSession;
+
+    @Before
+    public void setUp() throws Exception {
+        mDialogue = TestAssets.orderDialogue(mFolder.newFolder(), "interrupts");
+        mSession = mDialogue.session;
+    }
+
+    @After
+    public void tearDown() {
+        mDialogue.close();
+    }
+
+    @Test
+    public void quitEndsTheDialogue() throws Exception {
+        assertPrompt("which size?", "order pizza");
+        DialogueResult result = mSession.answer("quit");
+        assertEquals("ok! I'll forget about it!", result.getResult().trim());
+        assertEquals(DialogueResult.Ending.SPEAK, result.getEnding());
+        assertFalse(mSession.isConversationRunning());
+        //nothing collected before is left
+        assertPrompt("which size?", "order");
+        assertPrompt("pizza or pasta?", "small");
+    }
+
+    @Test
+    public void resumeAnswersAndGoesOn() throws Exception {
+        assertPrompt("which size?", "order pizza");
+        assertPrompt("you can order a pizza or a pasta", "help");
+        assertPrompt("at what time?", "large");
+        assertPrompt("you can order a pizza or a pasta", "Help!");
+        assertEquals("at 8", mSession.answer("8").getResult().trim());
+        assertFalse(mSession.isConversationRunning());
+    }
+
+    @Test
+    public void repeatSaysTheLastPromptAgain() throws Exception {
+        assertPrompt("which size?", "order pizza");
+        assertPrompt("which size?", "say again");
+        assertPrompt("at what time?", "large");
+        assertPrompt("at what time?", "say it again");
+        assertPrompt("at what time?", "say again");
+        assertEquals("at 8", mSession.answer("8").getResult().trim());
+    }
+
+    @Test
+    public void repeatAfterResume() throws Exception {
+        //the prompt said again is the one of the dialogue, not the answer of the interrupt
+        assertPrompt("which size?", "order");
+        assertPrompt("you can order a pizza or a pasta", "help");
+        assertPrompt("which size?", "say again");
+        assertPrompt("pizza or pasta?", "small");
+    }
+
+    private void assertPrompt(String prompt, String query) throws Exception {
+        DialogueResult result = mSession.answer(query);
+        assertEquals(query, prompt, result.getResult().trim());
+        assertTrue(query, result.isPrompt());
+        assertTrue(query, mSession.isConversationRunning());
+    }
+}
@@ -0,0 +1,150 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.answeringmachine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import martin.code.it.speechinterpreterlib.TestAssets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A passivated session goes on with the dialogue it was running as if it had stayed in memory.
+ */
+public class SessionPassivationTest {
+
+    private static final long IDLE_MILLIS = 60000L; //the sessions are passivated by the tests only
+
+    @org.junit.Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestAssets.OrderDialogue mDialogue;
+    private AnsweringMachine mAnsweringMachine;
+    private SessionStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mDialogue = TestAssets.orderDialogue(mFolder.newFolder(), "passivated");
+        mAnsweringMachine = mDialogue.answeringMachine;
+        mStore = new SessionStore(mFolder.newFolder());
+        mAnsweringMachine.setPassivation(mStore, IDLE_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        mAnsweringMachine.setPassivation(null, 0);
+        mDialogue.close();
+    }
+
+    @Test
+    public void dialogueGoesOn() throws Exception {
+        Session session = mDialogue.session;
+        assertEquals("which size?", session.answer("order pizza").getResult().trim());
+        assertTrue(session.passivate());
+        assertTrue(session.isPassive());
+        assertTrue(mStore.contains("passivated"));
+        DialogueResult result = session.answer("large");
+        assertFalse(session.isPassive());
+        assertEquals("at what time?", result.getResult().trim());
+        assertTrue(session.passivate());
+        assertEquals("at 8", session.answer("8").getResult().trim());
+        assertFalse(session.isConversationRunning());
+    }
+
+    @Test
+    public void lastPromptIsKept() throws Exception {
+        Session session = mAnsweringMachine.newSession("repeat");
+        session.answer("order");
+        assertTrue(session.passivate());
+        DialogueResult result = session.answer("say again");
+        assertEquals("which size?", result.getResult().trim());
+        assertTrue(result.isPrompt());
+    }
+
+    @Test
+    public void newSessionStartsFromTheStore() throws Exception {
+        Session session = mAnsweringMachine.newSession("restarted");
+        session.answer("order pasta");
+        assertTrue(session.passivate());
+        //as after a restart of the app
+        mAnsweringMachine.setPassivation(null, 0);
+        mAnsweringMachine.setPassivation(mStore, IDLE_MILLIS);
+        Session restarted = mAnsweringMachine.newSession("restarted");
+        assertTrue(restarted.isPassive());
+        assertEquals("at what time?", restarted.answer("small").getResult().trim());
+    }
+
+    @Test
+    public void endedDialogue() throws Exception {
+        Session session = mAnsweringMachine.newSession("ended");
+        session.answer("order pizza");
+        session.answer("quit");
+        assertTrue(session.passivate());
+        assertFalse(session.isConversationRunning());
+        assertEquals("a large pasta at 9", session.answer("order a large pasta at 9").getResult().trim());
+    }
+
+    @Test
+    public void encoding() throws Exception {
+        int[] values = {0, 1, 127, 128, 300, 16384, Integer.MAX_VALUE, -1};
+        String[] strings = {null, "", "which size?", "#size# è 日本"};
+        DialogueResult result = new DialogueResult();
+        result.setResult("which size?");
+        result.setEnding(DialogueResult.Ending.PROMPT);
+        result.setMessage("a #size# pizza");
+        result.setNextRule("size");
+        result.setIsPrequel(true);
+        result.getPlaceholders().add("size");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) SessionSnapshot.writeVarInt(out, value);
+        for (String s : strings) SessionSnapshot.writeString(out, s);
+        SessionSnapshot.writeResult(out, result);
+        SessionSnapshot.writeResult(out, new DialogueResult());
+        out.close();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) assertEquals(value, SessionSnapshot.readVarInt(in));
+        for (String s : strings) assertEquals(s, SessionSnapshot.readString(in));
+        DialogueResult read = new DialogueResult();
+        read.setPrequel("replaced");
+        SessionSnapshot.readResult(in, read);
+        assertEquals(result.toString(), read.toString());
+        assertEquals(DialogueResult.Ending.PROMPT, read.getEnding());
+        assertEquals("a #size# pizza", read.getMessage());
+        assertNull(read.getPrequel());
+        assertEquals("size", read.getNextRule());
+        assertTrue(read.isPrequel());
+        assertEquals(result.getPlaceholders(), read.getPlaceholders());
+        SessionSnapshot.readResult(in, read);
+        assertNull(read.getEnding());
+        assertFalse(read.isPrequel());
+        assertTrue(read.getPlaceholders().isEmpty());
+        assertEquals(-1, in.read());
+    }
+}
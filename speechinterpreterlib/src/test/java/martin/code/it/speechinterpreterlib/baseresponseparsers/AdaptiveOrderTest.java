@@ -0,0 +1,75 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.baseresponseparsers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import martin.code.it.speechinterpreterlib.TestAssets;
+import martin.code.it.speechinterpreterlib.grammar.GrammarSource;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * setAdaptiveOrder() of a parser built without a Context, as in the tests and the batch tools.
+ */
+public class AdaptiveOrderTest {
+
+    @org.junit.Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private GrammarSource mPrevious;
+    private BaseResponseParser mParser;
+
+    @Before
+    public void setUp() throws Exception {
+        mPrevious = TestAssets.bind(TestAssets.copy(mFolder.newFolder()));
+        mParser = new BaseResponseParser(null, "calculator_grammar");
+    }
+
+    @After
+    public void tearDown() {
+        GrammarSource.unbind(mPrevious);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noFilesDirWithoutContext() {
+        mParser.setAdaptiveOrder(100);
+    }
+
+    @Test
+    public void stoppingNeedsNoContext() {
+        mParser.setAdaptiveOrder(0);
+    }
+
+    @Test
+    public void learnsWithTheDirGiven() throws Exception {
+        File dir = mFolder.newFolder();
+        int rules = mParser.getBrowsableRules().size();
+        mParser.setAdaptiveOrder(100, dir);
+        assertEquals(rules, mParser.getBrowsableRules().size());
+        mParser.setAdaptiveOrder(0, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noDir() {
+        mParser.setAdaptiveOrder(100, null);
+    }
+}
@@ -0,0 +1,145 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.baseresponseparsers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+
+import martin.code.it.maps.MultiLinkedHashMap;
+import martin.code.it.speechinterpreterlib.TestAssets;
+import martin.code.it.speechinterpreterlib.answeringmachine.DialogueResult;
+import martin.code.it.speechinterpreterlib.answeringmachine.Session;
+import martin.code.it.speechinterpreterlib.grammar.GrammarBuilder;
+import martin.code.it.speechinterpreterlib.grammar.XmlGrammarReader;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.SlotPlan;
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlotFillingTest {
+
+    @org.junit.Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestAssets.OrderDialogue mDialogue;
+    private Session mSession;
+
+    @Before
+    public void setUp() throws Exception {
+        mDialogue = TestAssets.orderDialogue(mFolder.newFolder(), "slots");
+        mSession = mDialogue.session;
+    }
+
+    @After
+    public void tearDown() {
+        mDialogue.close();
+    }
+
+    @Test
+    public void missingSlotsAreAskedInOrder() throws Exception {
+        assertPrompt("which size?", "order");
+        assertPrompt("pizza or pasta?", "large");
+        assertPrompt("at what time?", "pasta");
+        DialogueResult result = mSession.answer("8");
+        assertEquals("at 8", result.getResult().trim());
+        assertEquals(DialogueResult.Ending.SPEAK, result.getEnding());
+        assertFalse(mSession.isConversationRunning());
+    }
+
+    @Test
+    public void slotsGivenAreNotAsked() throws Exception {
+        assertPrompt("which size?", "order pizza");
+        assertPrompt("at what time?", "small");
+        DialogueResult result = mSession.answer("9");
+        assertEquals("at 9", result.getResult().trim());
+        assertFalse(result.isPrompt());
+    }
+
+    @Test
+    public void notUnderstoodAsksAgain() throws Exception {
+        assertPrompt("which size?", "order pizza");
+        assertPrompt("which size?", "medium");
+        assertPrompt("which size?", "a large one");
+        assertPrompt("at what time?", "large");
+        assertPrompt("at what time?", "late");
+        assertEquals("at 10", mSession.answer("at 10").getResult().trim());
+    }
+
+    @Test
+    public void everySlotAtOnce() throws Exception {
+        DialogueResult result = mSession.answer("Order a Large Pizza at 7!");
+        assertEquals("a large pizza at 7", result.getResult().trim());
+        assertEquals(DialogueResult.Ending.SPEAK, result.getEnding());
+    }
+
+    @Test
+    public void fillersAreTheRulesNamedAfterTheGroups() throws Exception {
+        MultiLinkedHashMap<Boolean, String, Rule> rules = read();
+        SlotPlan plan = new SlotPlan(rules.valuesByArrayList());
+        Rule order = rules.getByKey1(true).get("order");
+        SlotPlan.RulePlan orderPlan = plan.getPlan(order);
+        assertEquals(0, orderPlan.getRuleId());
+        assertEquals(3, orderPlan.size());
+        assertEquals(6, plan.getSlotCount());
+        String[] names = {"size", "dish", "time"};
+        for (int i = 0; i < names.length; i++) {
+            Group group = orderPlan.getGroup(i);
+            assertEquals(names[i], group.getName());
+            assertEquals(names[i], plan.getFiller(group.getId()).getName());
+            assertSame(group, plan.getGroup(group.getId()));
+            //the slot of the order rule and the one of its filler
+            assertEquals(2, plan.getSlots(group.getId()).length);
+            assertEquals(orderPlan.getSlot(i), plan.getSlots(group.getId())[0]);
+            assertEquals(i, orderPlan.indexOf(group.getId()));
+        }
+        //the rule itself is asked for again when a query is not understood
+        assertEquals(-1, orderPlan.indexOf(orderPlan.getRootGroupId()));
+        assertSame(order, plan.getFiller(orderPlan.getRootGroupId()));
+        //the signature is the same for every load of the same grammar
+        assertEquals(plan.getSignature(), new SlotPlan(read().valuesByArrayList()).getSignature());
+    }
+
+    private MultiLinkedHashMap<Boolean, String, Rule> read() throws Exception {
+        MultiLinkedHashMap<Boolean, String, Rule> rules = new MultiLinkedHashMap<>();
+        GrammarBuilder builder = new GrammarBuilder(TestAssets.ORDER_GRAMMAR_NAME, rules, new LinkedHashMap<String, Group>());
+        InputStream is = new FileInputStream(new File(mDialogue.dir, TestAssets.ORDER_GRAMMAR_NAME + ".xml"));
+        try {
+            XmlGrammarReader.read(is, TestAssets.ORDER_GRAMMAR_NAME, builder);
+        } finally {
+            is.close();
+        }
+        builder.finish();
+        return rules;
+    }
+
+    private void assertPrompt(String prompt, String query) throws Exception {
+        DialogueResult result = mSession.answer(query);
+        assertEquals(query, prompt, result.getResult().trim());
+        assertTrue(query, result.isPrompt());
+        assertTrue(query, mSession.isConversationRunning());
+    }
+}
@@ -0,0 +1,228 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import martin.code.it.speechinterpreterlib.TestAssets;
+import martin.code.it.speechinterpreterlib.baseresponseparsers.BaseResponseParser;
+import martin.code.it.speechinterpreterlib.rules.Rule;
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A snapshot hands the listener the same content, in the same order, as the xml it was compiled from.
+ */
+public class GrammarSnapshotTest {
+
+    //every element and attribute a grammar may have
+    private static final String TOUR_GRAMMAR_NAME = "tour_grammar";
+    private static final String TOUR_GRAMMAR = "<root normalize=\"punctuation whitespace lowercase\" punctuation=\"!?.\">\n"
+            + "    <rule name=\"book\">\n"
+            + "        <preamble><item>sorry?</item></preamble>\n"
+            + "        <prompt><item>where to?</item><item>which city?</item></prompt>\n"
+            + "        <regex>book a tour (to|of) (?&lt;city%§&gt;rome|paris)( by (?&lt;mean&gt;bus|train))?</regex>\n"
+            + "        <msggroup key=\"city mean\">\n"
+            + "            <msg><item>#city# by #mean#</item></msg>\n"
+            + "            <msg key=\"rome bus\"><item>the bus to rome</item></msg>\n"
+            + "        </msggroup>\n"
+            + "        <msg><item>a tour of #city#</item></msg>\n"
+            + "    </rule>\n"
+            + "    <rule name=\"city\" browsable=\"false\">\n"
+            + "        <prompt><item>which city?</item></prompt>\n"
+            + "        <regex>(?&lt;city%§&gt;rome|paris)</regex>\n"
+            + "    </rule>\n"
+            + "    <rule name=\"stop\" interrupt=\"quit\" browsable=\"false\">\n"
+            + "        <regex>stop</regex>\n"
+            + "        <msg><item>no tour then</item></msg>\n"
+            + "    </rule>\n"
+            + "</root>";
+
+    @org.junit.Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+    private final List<String> mGrammars = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mDir = TestAssets.copy(mFolder.newFolder());
+        TestAssets.write(mDir, TOUR_GRAMMAR_NAME, TOUR_GRAMMAR);
+        for (String name : TestAssets.BUNDLED) mGrammars.add(name + ".xml");
+        mGrammars.add(TOUR_GRAMMAR_NAME + ".xml");
+    }
+
+    @Test
+    public void snapshotName() {
+        assertEquals("calculator_grammar.silg", GrammarSnapshot.snapshotName("calculator_grammar.xml"));
+        assertEquals("calculator_grammar.silg", GrammarSnapshot.snapshotName("calculator_grammar.XML"));
+    }
+
+    @Test
+    public void sameContentAsTheXml() throws Exception {
+        for (String name : mGrammars) {
+            File snapshot = compile(name);
+            Trace fromXml = new Trace();
+            InputStream is = new FileInputStream(new File(mDir, name));
+            try {
+                XmlGrammarReader.read(is, name, fromXml);
+            } finally {
+                is.close();
+            }
+            Trace fromSnapshot = new Trace();
+            is = new FileInputStream(snapshot);
+            try {
+                GrammarSnapshot.read(is, fromSnapshot);
+            } finally {
+                is.close();
+            }
+            assertTrue(name, fromXml.events.size() > 2);
+            assertEquals(name, fromXml.events, fromSnapshot.events);
+        }
+    }
+
+    @Test
+    public void summaryAsFromTheXml() throws Exception {
+        for (String name : mGrammars) {
+            RoutingSummary fromXml = RoutingSummary.load(GrammarSource.fromDirectory(mDir), name);
+            compile(name);
+            RoutingSummary fromSnapshot = RoutingSummary.load(GrammarSource.fromDirectory(mDir), name);
+            InputStream is = new FileInputStream(new File(mDir, GrammarSnapshot.snapshotName(name)));
+            try {
+                assertEquals(name, fromXml.getLiterals(), GrammarSnapshot.readSummary(is).getLiterals());
+            } finally {
+                is.close();
+            }
+            assertEquals(name, fromXml.getLiterals(), fromSnapshot.getLiterals());
+            assertSame(name, fromXml.getNormalizationProfile(), fromSnapshot.getNormalizationProfile());
+        }
+        RoutingSummary tour = RoutingSummary.load(GrammarSource.fromDirectory(mDir), TOUR_GRAMMAR_NAME + ".xml");
+        assertTrue(tour.hasRule("stop"));
+        assertTrue(tour.getLiterals().contains("book a tour of rome"));
+        assertSame(NormalizationProfile.of("punctuation whitespace lowercase", "!?."), tour.getNormalizationProfile());
+    }
+
+    @Test
+    public void parserLoadedFromTheSnapshot() throws Exception {
+        GrammarSource previous = TestAssets.bind(mDir);
+        try {
+            BaseResponseParser fromXml = new BaseResponseParser(null, "conversation_grammar");
+            compile("conversation_grammar.xml");
+            assertTrue(new File(mDir, "conversation_grammar.xml").delete()); //only the snapshot is left to read
+            BaseResponseParser fromSnapshot = new BaseResponseParser(null, "conversation_grammar");
+            assertEquals(describe(fromXml.getBrowsableRules()), describe(fromSnapshot.getBrowsableRules()));
+        } finally {
+            GrammarSource.unbind(previous);
+        }
+    }
+
+    @Test
+    public void snapshotOfAnotherXmlIsIgnored() throws Exception {
+        String name = TOUR_GRAMMAR_NAME + ".xml";
+        File snapshot = compile(name);
+        TestAssets.write(mDir, TOUR_GRAMMAR_NAME, TOUR_GRAMMAR.replace("<regex>stop</regex>", "<regex>stop it</regex>"));
+        new File(mDir, name).setLastModified(snapshot.lastModified() - 60000L); //only the content counts
+        GrammarSource source = GrammarSource.fromDirectory(mDir);
+        assertNull(source.openSnapshot(name));
+        assertTrue(RoutingSummary.load(source, name).getLiterals().contains("book a tour of rome"));
+        GrammarSource previous = TestAssets.bind(mDir);
+        try {
+            Rule stop = new BaseResponseParser(null, TOUR_GRAMMAR_NAME).getInterruptRules().iterator().next();
+            assertEquals("stop it", stop.getRegex());
+        } finally {
+            GrammarSource.unbind(previous);
+        }
+        compile(name);
+        InputStream is = source.openSnapshot(name);
+        assertNotNull(is);
+        is.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void notASnapshot() throws Exception {
+        GrammarSnapshot.read(new ByteArrayInputStream("<root/>".getBytes("UTF-8")), new Trace());
+    }
+
+    private File compile(String name) throws Exception {
+        File snapshot = new File(mDir, GrammarSnapshot.snapshotName(name));
+        GrammarCompiler.compile(new File(mDir, name), snapshot);
+        return snapshot;
+    }
+
+    private static List<String> describe(Collection<Rule> rules) {
+        ArrayList<String> names = new ArrayList<>();
+        for (Rule rule : rules) names.add(rule.getQualifiedName() + " " + rule.getRegex() + " " + rule.getGroups().keySet());
+        return names;
+    }
+
+    private static final class Trace implements GrammarListener {
+        final ArrayList<String> events = new ArrayList<>();
+
+        @Override
+        public void onNormalization(NormalizationProfile profile) {
+            events.add("normalization " + profile.getOptions() + " " + profile.getPunctuation());
+        }
+
+        @Override
+        public void onRule(String name, boolean browsable, Rule.Interrupt interrupt) {
+            events.add("rule " + name + " " + browsable + " " + interrupt);
+        }
+
+        @Override
+        public void onRegex(String regex, Collection<Group> groups) {
+            StringBuilder sb = new StringBuilder("regex ").append(regex);
+            for (Group g : groups) sb.append(' ').append(g.getName()).append(g.isOptional()).append(g.isSubstitute());
+            events.add(sb.toString());
+        }
+
+        @Override
+        public void onPreamble(String key, ArrayList<String> items) {
+            events.add("preamble " + key + " " + items);
+        }
+
+        @Override
+        public void onPrompt(String key, ArrayList<String> items) {
+            events.add("prompt " + key + " " + items);
+        }
+
+        @Override
+        public void onMessage(ArrayList<String> groupNames, ArrayList<String> msgKey, ArrayList<String> items) {
+            events.add("message " + groupNames + " " + msgKey + " " + items);
+        }
+
+        @Override
+        public void onRuleEnd() {
+            events.add("end");
+        }
+    }
+}
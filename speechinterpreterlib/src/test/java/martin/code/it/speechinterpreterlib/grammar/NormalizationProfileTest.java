@@ -0,0 +1,76 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.grammar;
+
+import org.junit.Test;
+
+import martin.code.it.speechinterpreterlib.rules.Rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class NormalizationProfileTest {
+
+    private static final NormalizationProfile FULL = NormalizationProfile.of("punctuation whitespace lowercase numbers", null);
+
+    @Test
+    public void defaultRemovesQuestionAndExclamationMarks() {
+        assertSame(NormalizationProfile.DEFAULT, NormalizationProfile.of(null, null));
+        assertEquals("Hi, there", NormalizationProfile.DEFAULT.normalize("Hi, there!?"));
+        assertEquals("  A  b ", NormalizationProfile.DEFAULT.normalize("  A  b "));
+        assertEquals(Rule.REGEX_FLAGS, NormalizationProfile.DEFAULT.getRegexFlags());
+    }
+
+    @Test
+    public void profilesAreInterned() {
+        assertSame(NormalizationProfile.DEFAULT, NormalizationProfile.of("punctuation", "!?"));
+        assertSame(FULL, NormalizationProfile.of("punctuation whitespace lowercase numbers", null));
+        assertNotSame(FULL, NormalizationProfile.of("punctuation whitespace lowercase numbers", "!?"));
+    }
+
+    @Test
+    public void everyOptionInOnePass() {
+        assertEquals("hello world", FULL.normalize("  Hello,   World!  "));
+        assertEquals("quoted", FULL.normalize("\"quoted\""));
+        assertEquals("it costs 3.50 ok", FULL.normalize("it costs 3.50, ok?"));
+        assertEquals(0, FULL.getRegexFlags());
+    }
+
+    @Test
+    public void numberWords() {
+        assertEquals("add 21 and 4", FULL.normalize("Add Twenty One and 4!"));
+        assertEquals("99", FULL.normalize("ninety nine"));
+        assertEquals("20", FULL.normalize("twenty"));
+        assertEquals("1 2", FULL.normalize("one two"));
+        assertEquals("1", FULL.normalize("ONE"));
+        //only whole words are numbers
+        assertEquals("someone", FULL.normalize("someone"));
+        assertEquals("twentyone", FULL.normalize("twentyone"));
+    }
+
+    @Test
+    public void appendsToTheBuffer() {
+        StringBuilder sb = new StringBuilder("> ");
+        FULL.normalize("Twenty  Two", sb);
+        assertEquals("> 22", sb.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknownOption() {
+        NormalizationProfile.of("punctuation stemming", null);
+    }
+}
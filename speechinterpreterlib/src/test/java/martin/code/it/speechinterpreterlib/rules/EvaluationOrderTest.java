@@ -0,0 +1,97 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rules may only be moved ahead of the rules they are proven disjoint from, so the first rule matching a
+ * query in evaluation order is the first one in declaration order, whatever the hits.
+ */
+public class EvaluationOrderTest {
+
+    @Test
+    public void disjointRulesMoveAhead() {
+        Rule feel = RegexLiteralsTest.rule(".*i feel.*");
+        Rule yes = RegexLiteralsTest.rule("yes|yeah|sure");
+        EvaluationOrder order = new EvaluationOrder(Arrays.asList(feel, yes));
+        assertEquals(Arrays.asList(yes, feel), order.getRules());
+        assertEquals(Arrays.asList(feel, yes), order.getDeclaredRules());
+        assertTrue(order.isChanged());
+        assertEquals(0, order.indexOf(feel));
+    }
+
+    @Test
+    public void overlappingRulesKeepTheirOrder() {
+        Rule any = RegexLiteralsTest.rule(".*");
+        Rule yes = RegexLiteralsTest.rule("yes|yeah|sure");
+        Rule feelingYes = RegexLiteralsTest.rule(".*yes.*");
+        EvaluationOrder order = new EvaluationOrder(Arrays.asList(any, yes));
+        assertSame(any, order.getRules().get(0));
+        assertFalse(order.isChanged());
+        order = new EvaluationOrder(Arrays.asList(feelingYes, yes)).withHits(new long[]{0, 1000});
+        assertSame(feelingYes, order.getRules().get(0));
+    }
+
+    @Test
+    public void hitsReorder() {
+        Rule yes = RegexLiteralsTest.rule("yes|yeah|sure");
+        Rule no = RegexLiteralsTest.rule("no|nope");
+        EvaluationOrder order = new EvaluationOrder(Arrays.asList(yes, no));
+        assertSame(no, order.withHits(new long[]{0, 1000}).getRules().get(0));
+        assertSame(yes, order.withHits(new long[]{1000, 0}).getRules().get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hitsOfEveryRule() {
+        new EvaluationOrder(Arrays.asList(RegexLiteralsTest.rule("yes"))).withHits(new long[2]);
+    }
+
+    @Test
+    public void firstMatchIsKept() {
+        List<Rule> rules = new ArrayList<>();
+        for (String regex : RegexLiteralsTest.REGEXES) rules.add(RegexLiteralsTest.rule(regex));
+        EvaluationOrder order = new EvaluationOrder(rules);
+        assertFirstMatchIsKept(order);
+        long[] hits = new long[rules.size()];
+        for (int i = 0; i < hits.length; i++) hits[i] = 10L * i * i; //the last declared are the most hit
+        assertFirstMatchIsKept(order.withHits(hits));
+        for (int i = 0; i < hits.length; i++) hits[i] = (i % 3 == 0) ? 1000 : 0;
+        assertFirstMatchIsKept(order.withHits(hits));
+    }
+
+    private static void assertFirstMatchIsKept(EvaluationOrder order) {
+        for (String query : RegexLiteralsTest.QUERIES) {
+            assertSame(query, firstMatch(order.getDeclaredRules(), query), firstMatch(order.getRules(), query));
+        }
+    }
+
+    private static Rule firstMatch(List<Rule> rules, String query) {
+        for (Rule rule : rules) {
+            if (rule.getMatcher(query) != null) return rule;
+        }
+        return null;
+    }
+}
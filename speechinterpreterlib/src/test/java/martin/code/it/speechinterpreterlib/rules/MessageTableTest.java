@@ -0,0 +1,130 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import martin.code.it.speechinterpreterlib.rules.group.Group;
+import martin.code.it.speechinterpreterlib.rules.group.GroupKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MessageTableTest {
+
+    private final LinkedHashMap<GroupKey, LinkedHashMap<ArrayList<String>, ArrayList<String>>> mMsgGroups = new LinkedHashMap<>();
+
+    @Test
+    public void lookupByGroups() {
+        List<Group> groups = groups(3);
+        Group a = groups.get(0), b = groups.get(1), c = groups.get(2);
+        msgGroup(GroupKey.getNoKey(), null, "default");
+        msgGroup(key(a), null, "a");
+        msgGroup(key(b, a), null, "ab");
+        msgGroup(key(b, a), list("x"), "ab x");
+        msgGroup(key(c, new Group("foreign", true, false)), null, "never");
+        MessageTable table = new MessageTable(groups, mMsgGroups);
+
+        assertEquals(list("a"), table.get(table.maskOf(key(a))).get(null));
+        //the order of the groups in a key does not matter
+        assertSame(table.get(table.maskOf(key(a, b))), table.get(table.maskOf(key(b, a))));
+        assertEquals(list("ab"), table.get(table.maskOf(key(a, b))).get(null));
+        //no msggroup with exactly these groups, or groups of another rule
+        assertEquals(list("default"), table.get(table.maskOf(key(c))).get(null));
+        assertEquals(list("default"), table.get(table.maskOf(key(a, b, c))).get(null));
+        assertEquals(MessageTable.NO_KEY_MASK, table.maskOf(key(a, new Group("foreign", true, false))));
+        assertEquals(list("default"), table.get(MessageTable.NO_KEY_MASK).get(null));
+    }
+
+    @Test
+    public void messageKeys() {
+        List<Group> groups = groups(2);
+        msgGroup(key(groups.get(0)), null, "any");
+        msgGroup(key(groups.get(0)), list("fine"), "fine");
+        MessageTable.MessageSet set = new MessageTable(groups, mMsgGroups).get(1L);
+        assertEquals(list("fine"), set.get(list("fine")));
+        assertEquals(list("any"), set.get(list("bad")));
+        assertEquals(list("any"), set.get(null));
+    }
+
+    @Test
+    public void groupsMatchedByEquality() {
+        List<Group> groups = groups(2);
+        MessageTable table = new MessageTable(groups, mMsgGroups);
+        assertEquals(1, table.bitOf(new Group("g1", true, false)));
+        assertEquals(-1, table.bitOf(new Group("g1", false, false)));
+        assertNull(table.get(0L));
+    }
+
+    @Test
+    public void sameGroupsInAnotherOrderReplace() {
+        List<Group> groups = groups(2);
+        msgGroup(key(groups.get(0), groups.get(1)), null, "first");
+        msgGroup(key(groups.get(1), groups.get(0)), null, "last");
+        assertEquals(list("last"), new MessageTable(groups, mMsgGroups).get(3L).get(null));
+    }
+
+    //with many groups the masks are binary searched instead of indexed, the lookups must not change
+    @Test
+    public void manyGroups() {
+        for (int n : new int[]{10, 11, 40}) {
+            mMsgGroups.clear();
+            List<Group> groups = groups(n);
+            msgGroup(GroupKey.getNoKey(), null, "default");
+            for (int i = 0; i < n; i++) {
+                msgGroup(key(groups.get(i)), null, "g" + i);
+                if (i > 0) msgGroup(key(groups.get(i), groups.get(i - 1)), null, "g" + (i - 1) + "g" + i);
+            }
+            MessageTable table = new MessageTable(groups, mMsgGroups);
+            for (int i = 0; i < n; i++) {
+                assertEquals(list("g" + i), table.get(table.maskOf(key(groups.get(i)))).get(null));
+                if (i > 0) assertEquals(list("g" + (i - 1) + "g" + i),
+                        table.get(table.maskOf(key(groups.get(i - 1), groups.get(i)))).get(null));
+                if (i > 1) assertEquals(list("default"),
+                        table.get(table.maskOf(key(groups.get(i - 2), groups.get(i)))).get(null));
+            }
+        }
+    }
+
+    private static List<Group> groups(int n) {
+        ArrayList<Group> groups = new ArrayList<>();
+        for (int i = 0; i < n; i++) groups.add(new Group("g" + i, true, false));
+        return groups;
+    }
+
+    private static GroupKey key(Group... groups) {
+        return new GroupKey(Arrays.asList(groups));
+    }
+
+    private static ArrayList<String> list(String... items) {
+        return new ArrayList<>(Arrays.asList(items));
+    }
+
+    private void msgGroup(GroupKey key, ArrayList<String> msgKey, String item) {
+        LinkedHashMap<ArrayList<String>, ArrayList<String>> byKey = mMsgGroups.get(key);
+        if (byKey == null) {
+            byKey = new LinkedHashMap<>();
+            mMsgGroups.put(key, byKey);
+        }
+        byKey.put(msgKey, list(item));
+    }
+}
@@ -0,0 +1,104 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RegexLiteralsTest {
+
+    static final String[] REGEXES = {"hello", "Hello|Hi", "yes|yeah|sure", "no|nope|", "colou?r", "x[ab]y",
+            "(good|bad) (morning|night)", "my name is (?<name>.*)", ".*(how can i)(?<how_can_i>.*)",
+            ".*((?<!how can )i feel)(?<how_feel>.*)", "(Hello|Hi)?[ ,]*(what's up|how are you( doing)?)( today)?\\??",
+            "(\\w+) \\1", "\\101bc", "\\0101x", "a{2}b", "(?:at )?(?<time>\\d+)", "what is .*", ".*"};
+
+    static final String[] QUERIES = {"hello", "HI", "yes", "yeah", "no", "", "color", "colour", "xay", "xby",
+            "good night", "bad morning", "my name is jack", "My Name Is Jack", "how can i fly", "i feel sad",
+            "how can i feel", "hi, how are you doing today?", "what's up", "bye bye", "Abc", "Ax", "aab",
+            "at 8", "12", "what is love", "whatever"};
+
+    @Test
+    public void literals() {
+        assertEquals(set("hello"), RegexLiterals.exactStrings("hello"));
+        assertEquals(set("hello", "hi"), RegexLiterals.exactStrings("Hello|Hi"));
+        assertEquals(set("colour", "color"), RegexLiterals.exactStrings("colou?r"));
+        assertEquals(set("xay", "xby"), RegexLiterals.exactStrings("x[ab]y"));
+        assertEquals(set("good morning", "good night", "bad morning", "bad night"),
+                RegexLiterals.exactStrings("(good|bad) (morning|night)"));
+        assertEquals(set("my name is "), RegexLiterals.requiredLiterals("my name is (?<name>.*)"));
+        assertEquals(set("how can i"), RegexLiterals.requiredLiterals(".*(how can i)(?<how_can_i>.*)"));
+        assertNull(RegexLiterals.exactStrings("my name is (?<name>.*)"));
+    }
+
+    @Test
+    public void noRequirementWhenAnythingMatches() {
+        assertNull(RegexLiterals.requiredLiterals(".*"));
+        assertNull(RegexLiterals.requiredLiterals("no|nope|")); //matches the empty query
+        assertEquals(set("no", "nope", ""), RegexLiterals.exactStrings("no|nope|"));
+        assertNull(RegexLiterals.requiredLiterals("(unclosed"));
+        assertNull(RegexLiterals.requiredLiterals(null));
+    }
+
+    @Test
+    public void escapedDigitsAreNotLiterals() {
+        //octal escapes and back-references stand for chars not known here
+        assertEquals(set("bc"), RegexLiterals.requiredLiterals("\\101bc"));
+        assertEquals(set("x"), RegexLiterals.requiredLiterals("\\0101x"));
+        assertEquals(set("abcdefghij"), RegexLiterals.requiredLiterals("(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)\\10"));
+    }
+
+    //any query matched by a regex contains one of its required literals, and is one of its exact strings
+    @Test
+    public void requiredLiteralsAreSound() {
+        for (String regex : REGEXES) {
+            Rule rule = rule(regex);
+            Set<String> required = RegexLiterals.requiredLiterals(regex);
+            Set<String> exact = RegexLiterals.exactStrings(regex);
+            for (String query : QUERIES) {
+                if (rule.getMatcher(query) == null) continue;
+                String lower = query.toLowerCase(Locale.ROOT);
+                if (exact != null) assertTrue(regex + " on " + query, exact.contains(lower));
+                if (required != null) assertTrue(regex + " on " + query, containsAny(lower, required));
+            }
+        }
+    }
+
+    static Rule rule(String regex) {
+        Rule rule = new Rule();
+        rule.setName(regex);
+        rule.setRegex(regex);
+        return rule;
+    }
+
+    private static boolean containsAny(String query, Set<String> literals) {
+        for (String literal : literals) {
+            if (query.contains(literal)) return true;
+        }
+        return false;
+    }
+
+    private static Set<String> set(String... strings) {
+        return new HashSet<>(Arrays.asList(strings));
+    }
+}
@@ -0,0 +1,42 @@
+/*****************************************************************
+ * Copyright 18/10/26 SIL contributors
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************/
+package martin.code.it.speechinterpreterlib.rules.group;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GroupTest {
+
+    @Test
+    public void sameIdIsNotTheSameGroup() {
+        //id 0 in two grammars
+        assertFalse(new Group("size", true, false, 0).equals(new Group("dish", true, false, 0)));
+        assertFalse(new Group("size", true, false, 0).equals(new Group("size", false, false, 0)));
+    }
+
+    @Test
+    public void equalGroupsHaveTheSameHash() {
+        Group interned = new Group("size", true, true, 3);
+        Group read = new Group("size", true, true);
+        Group other = new Group("size", true, true, 5);
+        assertEquals(interned, read);
+        assertEquals(interned, other);
+        assertEquals(interned.hashCode(), read.hashCode());
+        assertEquals(interned.hashCode(), other.hashCode());
+    }
+}